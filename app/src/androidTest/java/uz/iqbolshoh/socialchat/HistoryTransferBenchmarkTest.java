@@ -0,0 +1,122 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports a 1M-message history with {@link HistoryTransfer}, imports it into an empty database
+ * and logs the throughput of both under the "TransferBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HistoryTransferBenchmarkTest {
+    private static final String TAG = "TransferBenchmark";
+    private static final String SOURCE_DATABASE = "chat-export-benchmark.db";
+    private static final String TARGET_DATABASE = "chat-import-benchmark.db";
+    private static final int MESSAGE_COUNT = 1_000_000;
+    private static final String[] VOCABULARY = {
+            "the", "a", "to", "and", "of", "is", "you", "it", "for", "in", "this", "that", "can",
+            "code", "java", "android", "database", "message", "question", "answer", "example", "time",
+            "weather", "travel", "recipe", "history", "science", "book", "movie", "city", "explain"};
+
+    private Context context;
+    private MessageDatabaseHelper source;
+    private MessageDatabaseHelper target;
+    private File exportFile;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(SOURCE_DATABASE);
+        context.deleteDatabase(TARGET_DATABASE);
+        source = new MessageDatabaseHelper(context, SOURCE_DATABASE);
+        target = new MessageDatabaseHelper(context, TARGET_DATABASE);
+        exportFile = new File(context.getCacheDir(), "history-benchmark.ndjson.gz");
+
+        SQLiteDatabase db = source.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(
+                "INSERT INTO messages (content, isUser, timestamp) VALUES (?, ?, ?)");
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                boolean isUser = i % 2 == 0;
+                int words = isUser ? 4 + random.nextInt(12) : 30 + random.nextInt(60);
+                text.setLength(0);
+                for (int w = 0; w < words; w++) {
+                    int index = (int) (VOCABULARY.length * Math.pow(random.nextDouble(), 2));
+                    text.append(VOCABULARY[index]).append(' ');
+                }
+                statement.bindString(1, text.toString());
+                statement.bindLong(2, isUser ? 1 : 0);
+                statement.bindLong(3, i);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        statement.close();
+    }
+
+    @After
+    public void tearDown() {
+        source.close();
+        target.close();
+        context.deleteDatabase(SOURCE_DATABASE);
+        context.deleteDatabase(TARGET_DATABASE);
+        exportFile.delete();
+    }
+
+    @Test
+    public void exportThenImport() throws Exception {
+        long start = SystemClock.elapsedRealtime();
+        long exported;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(exportFile))) {
+            exported = new HistoryTransfer(source, 1000, 5000).exportTo(out, null);
+        }
+        long exportElapsed = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        long imported;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(exportFile))) {
+            imported = new HistoryTransfer(target, 1000, 5000).importFrom(in, null);
+        }
+        long importElapsed = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "file: " + exportFile.length() / 1024 + " KB for " + exported + " messages");
+        Log.i(TAG, "export: " + exported * 1000 / exportElapsed + " messages/s (" + exportElapsed + " ms)");
+        Log.i(TAG, "import: " + imported * 1000 / importElapsed + " messages/s (" + importElapsed + " ms)");
+        assertEquals(MESSAGE_COUNT, exported);
+        assertEquals(MESSAGE_COUNT, imported);
+        assertEquals(MESSAGE_COUNT, DatabaseUtils.queryNumEntries(target.getReadableDatabase(), "messages"));
+        List<Message> original = source.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, 1);
+        List<Message> copy = target.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, 1);
+        assertEquals(original.get(0).content, copy.get(0).content);
+        assertEquals(original.get(0).timestamp, copy.get(0).timestamp);
+    }
+}
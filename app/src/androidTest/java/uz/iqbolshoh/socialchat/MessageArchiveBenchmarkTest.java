@@ -0,0 +1,156 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the database size and page read latency of a 1M-message history before and after
+ * {@link StorageMaintainer} archives and prunes it. Results are written to logcat under the
+ * "ArchiveBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageArchiveBenchmarkTest {
+    private static final String TAG = "ArchiveBenchmark";
+    private static final String TEST_DATABASE = "chat-archive-benchmark.db";
+    private static final int MESSAGE_COUNT = 1_000_000;
+    private static final long MESSAGE_INTERVAL_MS = 60 * 1000; // About two years of history
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final int PAGE_SIZE = 50;
+    private static final int READ_ITERATIONS = 200;
+    private static final String[] VOCABULARY = {
+            "the", "a", "to", "and", "of", "is", "you", "it", "for", "in", "this", "that", "can",
+            "code", "java", "android", "database", "message", "question", "answer", "example", "time",
+            "weather", "travel", "recipe", "history", "science", "book", "movie", "city", "explain"};
+
+    private Context context;
+    private MessageDatabaseHelper dbHelper;
+    private long now;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new MessageDatabaseHelper(context, TEST_DATABASE);
+        dbHelper.vacuum(0); // Switch the empty database to incremental vacuum up front
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(
+                "INSERT INTO messages (content, isUser, timestamp) VALUES (?, ?, ?)");
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        now = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                // Short prompts and replies of about 60 words, like the chat produces
+                boolean isUser = i % 2 == 0;
+                int words = isUser ? 4 + random.nextInt(12) : 30 + random.nextInt(60);
+                text.setLength(0);
+                for (int w = 0; w < words; w++) {
+                    int index = (int) (VOCABULARY.length * Math.pow(random.nextDouble(), 2));
+                    text.append(VOCABULARY[index]).append(' ');
+                }
+                statement.bindString(1, text.toString());
+                statement.bindLong(2, isUser ? 1 : 0);
+                statement.bindLong(3, now - (MESSAGE_COUNT - i) * MESSAGE_INTERVAL_MS);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        statement.close();
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void archiveAndRetention_shrinkTheDatabase() {
+        long uncompressed = databaseSize();
+        long hotBefore = latestPageMicros();
+        long deepBefore = deepPageMicros();
+
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.stepPauseMs = 0;
+        long start = SystemClock.elapsedRealtime();
+        new StorageMaintainer(dbHelper, policy).run();
+        long archiveElapsed = SystemClock.elapsedRealtime() - start;
+        long archived = databaseSize();
+
+        // A fresh helper starts with an empty block cache
+        dbHelper.close();
+        dbHelper = new MessageDatabaseHelper(context, TEST_DATABASE);
+        long coldStart = SystemClock.elapsedRealtimeNanos();
+        List<Message> coldPage = dbHelper.getMessagesBefore(deepAnchor(), PAGE_SIZE);
+        long deepCold = (SystemClock.elapsedRealtimeNanos() - coldStart) / 1000;
+        long hotAfter = latestPageMicros();
+        long deepAfter = deepPageMicros();
+
+        policy.deleteAfterMs = 365 * DAY_MS;
+        start = SystemClock.elapsedRealtime();
+        new StorageMaintainer(dbHelper, policy).run();
+        long retentionElapsed = SystemClock.elapsedRealtime() - start;
+        long pruned = databaseSize();
+
+        Log.i(TAG, "size: " + uncompressed / 1024 + " KB uncompressed, " + archived / 1024
+                + " KB archived (" + archiveElapsed + " ms), " + pruned / 1024
+                + " KB after one-year retention (" + retentionElapsed + " ms)");
+        Log.i(TAG, "latest page: " + hotBefore + " us before, " + hotAfter + " us after");
+        Log.i(TAG, "deep page: " + deepBefore + " us before, " + deepCold + " us cold, "
+                + deepAfter + " us warm");
+        assertEquals(PAGE_SIZE, coldPage.size());
+        assertNotNull(coldPage.get(0).content);
+        assertTrue(archived < uncompressed);
+        assertTrue(pruned < archived);
+    }
+
+    private long latestPageMicros() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < READ_ITERATIONS; i++) {
+            dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, PAGE_SIZE);
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / READ_ITERATIONS / 1000;
+    }
+
+    private long deepPageMicros() {
+        Message anchor = deepAnchor();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < READ_ITERATIONS; i++) {
+            dbHelper.getMessagesBefore(anchor, PAGE_SIZE);
+        }
+        return (SystemClock.elapsedRealtimeNanos() - start) / READ_ITERATIONS / 1000;
+    }
+
+    private Message deepAnchor() {
+        // About a year back: archived, but kept by the one-year retention
+        int index = MESSAGE_COUNT / 2;
+        return new Message(index + 1, null, true, now - (MESSAGE_COUNT - index) * MESSAGE_INTERVAL_MS);
+    }
+
+    private long databaseSize() {
+        // Moves the write-ahead log into the database file and empties it
+        DatabaseUtils.longForQuery(dbHelper.getWritableDatabase(), "PRAGMA wal_checkpoint(TRUNCATE)", null);
+        return context.getDatabasePath(TEST_DATABASE).length();
+    }
+}
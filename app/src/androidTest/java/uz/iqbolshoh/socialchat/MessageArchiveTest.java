@@ -0,0 +1,120 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that archived messages read and search like uncompressed ones, and that retention
+ * removes messages together with everything that refers to them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageArchiveTest {
+    private static final String TEST_DATABASE = "chat-archive.db";
+    private static final int MESSAGE_COUNT = 200;
+    private static final int BLOCK_SIZE = 64;
+
+    private Context context;
+    private MessageDatabaseHelper dbHelper;
+    private List<Message> messages;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new MessageDatabaseHelper(context, TEST_DATABASE);
+
+        messages = new ArrayList<>();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            messages.add(new Message(0, "Message " + i + " mentions word" + i + " and zanzibar", i % 2 == 0, i));
+        }
+        dbHelper.addMessages(messages);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void archivedMessages_readAndSearchLikeBefore() {
+        assertEquals(BLOCK_SIZE, dbHelper.archiveMessages(150, BLOCK_SIZE));
+        assertEquals(BLOCK_SIZE, dbHelper.archiveMessages(150, BLOCK_SIZE));
+        assertEquals(0, dbHelper.archiveMessages(150, BLOCK_SIZE)); // 22 left, less than a block
+        assertEquals(2 * BLOCK_SIZE, count("SELECT COUNT(*) FROM messages WHERE content IS NULL"));
+
+        // A fresh helper has nothing cached, so every block is decompressed again
+        dbHelper.close();
+        dbHelper = new MessageDatabaseHelper(context, TEST_DATABASE);
+        List<Message> page = dbHelper.getMessagesBefore(messages.get(100), 100);
+        assertEquals(100, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(messages.get(i).content, page.get(i).content);
+        }
+
+        List<SearchResult> results = dbHelper.searchMessages("word105", 0, 10);
+        assertEquals(1, results.size());
+        assertEquals(messages.get(105).content, results.get(0).message.content);
+        assertTrue(results.get(0).snippet.contains(SearchResult.MATCH_START + "word105" + SearchResult.MATCH_END));
+    }
+
+    @Test
+    public void retention_deletesMessagesOutboxEntriesAndBlocks() {
+        Message prompt = new Message(0, "Queued long ago with word200", true, 1);
+        OutboxItem item = dbHelper.enqueue(prompt);
+        dbHelper.release(item, "offline", 0);
+        dbHelper.archiveMessages(150, BLOCK_SIZE);
+        dbHelper.archiveMessages(150, BLOCK_SIZE);
+
+        assertEquals(101, dbHelper.deleteMessages(100, 1000));
+
+        assertEquals(MESSAGE_COUNT - 100, count("SELECT COUNT(*) FROM messages"));
+        assertEquals(0, count("SELECT COUNT(*) FROM outbox"));
+        assertTrue(dbHelper.claim(10, Long.MAX_VALUE).isEmpty());
+        assertEquals(1, count("SELECT COUNT(*) FROM message_archive")); // The second block still holds newer messages
+        assertTrue(dbHelper.searchMessages("word5", 0, 10).isEmpty());
+        assertTrue(dbHelper.searchMessages("word200", 0, 10).isEmpty());
+        assertEquals(MESSAGE_COUNT - 100, dbHelper.searchMessages("zanzibar", 0, MESSAGE_COUNT).size());
+        assertEquals(messages.get(100).content,
+                dbHelper.getMessagesAfter(Message.DEFAULT_CONVERSATION_ID, 99, Integer.MAX_VALUE, 1).get(0).content);
+    }
+
+    @Test
+    public void vacuum_switchesToIncrementalMode_andReturnsFreedPages() {
+        assertEquals(0, dbHelper.vacuum(1000)); // Small database: switched right away
+        assertEquals(2, count("PRAGMA auto_vacuum"));
+
+        dbHelper.archiveMessages(150, BLOCK_SIZE);
+        dbHelper.deleteMessages(MESSAGE_COUNT, 1000);
+
+        assertEquals(0, dbHelper.vacuum(1000));
+        assertEquals(0, count("PRAGMA freelist_count"));
+    }
+
+    @Test
+    public void clearAllMessages_clearsArchiveAndSearch() {
+        dbHelper.archiveMessages(150, BLOCK_SIZE);
+
+        dbHelper.clearAllMessages();
+
+        assertEquals(0, count("SELECT COUNT(*) FROM message_archive"));
+        assertTrue(dbHelper.searchMessages("zanzibar", 0, 10).isEmpty());
+    }
+
+    private long count(String query) {
+        return DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(), query, null);
+    }
+}
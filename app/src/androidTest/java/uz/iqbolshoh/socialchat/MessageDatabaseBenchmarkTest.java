@@ -0,0 +1,100 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures insert throughput and page read latency of {@link MessageDatabaseHelper}.
+ * Results are written to logcat under the "DbBenchmark" tag; run the same test on an
+ * older revision to get the comparison numbers.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageDatabaseBenchmarkTest {
+    private static final String TAG = "DbBenchmark";
+    private static final String TEST_DATABASE = "chat-benchmark.db";
+    private static final int INSERT_COUNT = 2_000;
+    private static final int BULK_INSERT_COUNT = 20_000;
+    private static final int READ_ITERATIONS = 200;
+
+    private Context context;
+    private MessageDatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new MessageDatabaseHelper(context, TEST_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void singleInserts() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < INSERT_COUNT; i++) {
+            dbHelper.addMessage(newMessage(i));
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, "addMessage: " + (INSERT_COUNT * 1_000_000_000L / elapsed) + " inserts/s");
+        assertEquals(INSERT_COUNT, dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, INSERT_COUNT).size());
+    }
+
+    @Test
+    public void bulkInserts() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < BULK_INSERT_COUNT; i++) {
+            messages.add(newMessage(i));
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        dbHelper.addMessages(messages);
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, "addMessages: " + (BULK_INSERT_COUNT * 1_000_000_000L / elapsed) + " inserts/s");
+        assertTrue(messages.get(BULK_INSERT_COUNT - 1).id > 0);
+    }
+
+    @Test
+    public void pageReads() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < BULK_INSERT_COUNT; i++) {
+            messages.add(newMessage(i));
+        }
+        dbHelper.addMessages(messages);
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < READ_ITERATIONS; i++) {
+            dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, 50);
+        }
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(TAG, "getLatestMessages(50): " + (elapsed / READ_ITERATIONS / 1000) + " us/read");
+    }
+
+    private static Message newMessage(int i) {
+        Message message = new Message();
+        message.content = "Benchmark message " + i;
+        message.isUser = i % 2 == 0;
+        message.timestamp = i;
+        return message;
+    }
+}
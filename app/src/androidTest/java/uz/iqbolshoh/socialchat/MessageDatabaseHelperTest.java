@@ -0,0 +1,118 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for {@link MessageDatabaseHelper} on a large message history.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageDatabaseHelperTest {
+    private static final String TEST_DATABASE = "chat-test.db";
+    private static final int ROW_COUNT = 100_000;
+    private static final int PAGE_SIZE = 50;
+
+    private Context context;
+    private MessageDatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new MessageDatabaseHelper(context, TEST_DATABASE);
+        insertRows(ROW_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void latestPage_holdsOnlyThePageInMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        List<Message> page = dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, PAGE_SIZE);
+
+        long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+        assertEquals(PAGE_SIZE, page.size());
+        assertEquals(ROW_COUNT - 1, page.get(PAGE_SIZE - 1).timestamp);
+        // 100k rows of ~60 chars would need several MB; one page needs a few KB
+        assertTrue("Heap grew by " + (usedAfter - usedBefore), usedAfter - usedBefore < 1024 * 1024);
+    }
+
+    @Test
+    public void keysetPages_walkTheWholeHistoryWithoutGapsOrDuplicates() {
+        List<Message> page = dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, PAGE_SIZE);
+        int seen = 0;
+        long expectedTimestamp = ROW_COUNT - 1;
+
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= PAGE_SIZE);
+            for (int i = page.size() - 1; i >= 0; i--) {
+                assertEquals(expectedTimestamp--, page.get(i).timestamp);
+            }
+            seen += page.size();
+            page = dbHelper.getMessagesBefore(page.get(0), PAGE_SIZE);
+        }
+
+        assertEquals(ROW_COUNT, seen);
+    }
+
+    @Test
+    public void keysetCursor_breaksTimestampTiesById() {
+        Message first = newMessage("same time 1", 5L);
+        Message second = newMessage("same time 2", 5L);
+        dbHelper.clearAllMessages();
+        dbHelper.addMessage(first);
+        dbHelper.addMessage(second);
+
+        List<Message> older = dbHelper.getMessagesBefore(second, PAGE_SIZE);
+
+        assertEquals(1, older.size());
+        assertEquals(first.id, older.get(0).id);
+    }
+
+    private void insertRows(int count) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(
+                "INSERT INTO messages (content, isUser, timestamp) VALUES (?, ?, ?)");
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                statement.bindString(1, "Message number " + i + " with some typical chat text in it");
+                statement.bindLong(2, i % 2);
+                statement.bindLong(3, i);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        statement.close();
+    }
+
+    private static Message newMessage(String content, long timestamp) {
+        Message message = new Message();
+        message.content = content;
+        message.isUser = true;
+        message.timestamp = timestamp;
+        return message;
+    }
+}
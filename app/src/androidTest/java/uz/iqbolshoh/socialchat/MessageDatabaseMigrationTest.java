@@ -0,0 +1,134 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Upgrades databases written by older app versions and checks that no history is lost.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageDatabaseMigrationTest {
+    private static final String UPGRADED_DATABASE = "chat-migration.db";
+    private static final String FRESH_DATABASE = "chat-fresh.db";
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(UPGRADED_DATABASE);
+        context.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(UPGRADED_DATABASE);
+        context.deleteDatabase(FRESH_DATABASE);
+    }
+
+    @Test
+    public void upgradeFromVersion1_keepsMessagesInDefaultConversation() {
+        createVersion1Database(UPGRADED_DATABASE, 500);
+
+        MessageDatabaseHelper dbHelper = new MessageDatabaseHelper(context, UPGRADED_DATABASE);
+        List<Message> page = dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, 10);
+
+        assertEquals(500, dbHelper.getAllMessages().size());
+        assertEquals(10, page.size());
+        assertEquals("Old message 499", page.get(9).content);
+        assertEquals(1000L + 499, page.get(9).timestamp);
+        assertFalse(page.get(9).isUser);
+        assertEquals(Message.DEFAULT_CONVERSATION_ID, page.get(9).conversationId);
+        dbHelper.close();
+    }
+
+    @Test
+    public void upgradeFromVersion1_producesTheSameSchemaAsAFreshInstall() {
+        createVersion1Database(UPGRADED_DATABASE, 3);
+
+        MessageDatabaseHelper upgraded = new MessageDatabaseHelper(context, UPGRADED_DATABASE);
+        MessageDatabaseHelper fresh = new MessageDatabaseHelper(context, FRESH_DATABASE);
+
+        assertEquals(readSchema(fresh.getReadableDatabase()), readSchema(upgraded.getReadableDatabase()));
+        upgraded.close();
+        fresh.close();
+    }
+
+    @Test
+    public void conversations_arePagedIndependently() {
+        createVersion1Database(UPGRADED_DATABASE, 20);
+        MessageDatabaseHelper dbHelper = new MessageDatabaseHelper(context, UPGRADED_DATABASE);
+
+        long otherConversation = dbHelper.createConversation("Other");
+        Message message = new Message();
+        message.content = "Hello from the other chat";
+        message.isUser = true;
+        message.timestamp = 5000;
+        message.conversationId = otherConversation;
+        dbHelper.addMessage(message);
+
+        List<Message> other = dbHelper.getLatestMessages(otherConversation, 50);
+        assertEquals(1, other.size());
+        assertEquals(message.id, other.get(0).id);
+        assertEquals(20, dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, 50).size());
+        assertTrue(dbHelper.getMessagesBefore(other.get(0), 50).isEmpty());
+        dbHelper.close();
+    }
+
+    @Test
+    public void pageQuery_usesTheConversationIndex() {
+        MessageDatabaseHelper dbHelper = new MessageDatabaseHelper(context, FRESH_DATABASE);
+        Cursor plan = dbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN SELECT * FROM messages"
+                + " WHERE conversation_id = 1 AND (timestamp < 10 OR (timestamp = 10 AND id < 3))"
+                + " ORDER BY timestamp DESC, id DESC LIMIT 50", null);
+
+        StringBuilder details = new StringBuilder();
+        while (plan.moveToNext()) {
+            details.append(plan.getString(plan.getColumnCount() - 1)).append('\n');
+        }
+        plan.close();
+
+        assertTrue(details.toString(), details.toString().contains("idx_messages_conversation_timestamp"));
+        assertFalse(details.toString(), details.toString().contains("TEMP B-TREE"));
+        dbHelper.close();
+    }
+
+    /**
+     * Writes a database exactly as version 1 of the app created it.
+     */
+    private void createVersion1Database(String name, int messageCount) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(context.getDatabasePath(name), null);
+        db.execSQL("CREATE TABLE messages(id INTEGER PRIMARY KEY AUTOINCREMENT,content TEXT,isUser INTEGER,timestamp INTEGER)");
+        for (int i = 0; i < messageCount; i++) {
+            db.execSQL("INSERT INTO messages (content, isUser, timestamp) VALUES (?, ?, ?)",
+                    new Object[]{"Old message " + i, i % 2 == 0 ? 1 : 0, 1000L + i});
+        }
+        db.setVersion(1);
+        db.close();
+    }
+
+    private static List<String> readSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata' ORDER BY name", null);
+        while (cursor.moveToNext()) {
+            schema.add(cursor.getString(0) + " " + cursor.getString(1) + " " + cursor.getString(2));
+        }
+        cursor.close();
+        return schema;
+    }
+}
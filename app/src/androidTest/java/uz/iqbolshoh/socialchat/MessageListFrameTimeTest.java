@@ -0,0 +1,259 @@
+package uz.iqbolshoh.socialchat;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.graphics.Color;
+import android.graphics.drawable.GradientDrawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the frame times of sending messages into a long chat with the recycled
+ * {@link MessageAdapter} list and with the ScrollView/LinearLayout rebuild it replaced, at 1k
+ * and 10k messages. Results are written to logcat under the "ListFrameTime" tag.
+ * <p>
+ * The rebuild is reproduced as the old {@code loadMessages()} did it after every message: all
+ * rows are removed and a new bubble, drawable and fade-in animation is created for each one.
+ * The database query it also ran is left out, so only the view work is compared.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageListFrameTimeTest {
+    private static final String TAG = "ListFrameTime";
+    private static final int FIRST_TEST_ID = 2_000_000; // Far above real ids, so cached text never mixes
+    private static final int SENDS = 10;                // Messages sent into the loaded chat
+    private static final long SEND_INTERVAL_MS = 400;   // Lets the fade-in of a send finish
+
+    @Test
+    public void sendingInto1kMessages_recycledListBeatsTheRebuild() throws Exception {
+        compare(1_000);
+    }
+
+    @Test
+    public void sendingInto10kMessages_recycledListBeatsTheRebuild() throws Exception {
+        compare(10_000);
+    }
+
+    private void compare(int messageCount) throws Exception {
+        List<Long> rebuilt = measure(messageCount, RebuiltList::new);
+        List<Long> recycled = measure(messageCount, RecycledList::new);
+
+        log("rebuild", messageCount, rebuilt);
+        log("recycled", messageCount, recycled);
+        assertTrue("Recycled p90 " + percentileMs(recycled, 90) + " ms, rebuild p90 " + percentileMs(rebuilt, 90) + " ms",
+                percentileMs(recycled, 90) <= percentileMs(rebuilt, 90));
+    }
+
+    /**
+     * Loads a chat into a list, then sends messages into it one at a time and records the
+     * duration of every frame drawn meanwhile.
+     *
+     * @param messageCount The messages loaded before sending.
+     * @param factory      Creates the list inside the launched activity.
+     * @return The frame durations in nanoseconds, sorted.
+     */
+    private List<Long> measure(int messageCount, ListFactory factory) throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        List<Long> frameNanos = Collections.synchronizedList(new ArrayList<>());
+        Window.OnFrameMetricsAvailableListener listener = (window, metrics, dropped) ->
+                frameNanos.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+        HandlerThread metricsThread = new HandlerThread("frame-metrics");
+        metricsThread.start();
+
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            List<ChatList> list = new ArrayList<>(1);
+            scenario.onActivity(activity -> {
+                ChatList chatList = factory.create(activity);
+                chatList.load(newConversation(messageCount));
+                list.add(chatList);
+            });
+            instrumentation.waitForIdleSync();
+            Thread.sleep(SEND_INTERVAL_MS); // The fade-in of the loaded rows is not measured
+
+            scenario.onActivity(activity -> activity.getWindow().addOnFrameMetricsAvailableListener(listener,
+                    new Handler(metricsThread.getLooper())));
+            for (int i = 0; i < SENDS; i++) {
+                Message message = newMessage(FIRST_TEST_ID + messageCount + i, i % 2 == 0, "Sent message " + i);
+                instrumentation.runOnMainSync(() -> list.get(0).send(message));
+                instrumentation.waitForIdleSync();
+                Thread.sleep(SEND_INTERVAL_MS);
+            }
+            scenario.onActivity(activity -> activity.getWindow().removeOnFrameMetricsAvailableListener(listener));
+        } finally {
+            metricsThread.quitSafely();
+        }
+
+        List<Long> frames = new ArrayList<>(frameNanos);
+        assertFalse("No frames reported", frames.isEmpty());
+        Collections.sort(frames);
+        return frames;
+    }
+
+    private interface ListFactory {
+        ChatList create(Activity activity);
+    }
+
+    /**
+     * A chat history view; both methods run on the UI thread.
+     */
+    private interface ChatList {
+        void load(List<Message> messages);
+
+        void send(Message message);
+    }
+
+    /**
+     * The activity's own RecyclerView: a send appends one row.
+     */
+    private static class RecycledList implements ChatList {
+        private final RecyclerView recyclerView;
+        private final MessageAdapter adapter;
+
+        RecycledList(Activity activity) {
+            recyclerView = activity.findViewById(R.id.recyclerViewChat);
+            adapter = (MessageAdapter) recyclerView.getAdapter();
+        }
+
+        @Override
+        public void load(List<Message> messages) {
+            adapter.setMessages(messages);
+            recyclerView.scrollToPosition(messages.size() - 1);
+        }
+
+        @Override
+        public void send(Message message) {
+            adapter.addMessage(message);
+            recyclerView.scrollToPosition(adapter.getItemCount() - 1);
+        }
+    }
+
+    /**
+     * The removed ScrollView/LinearLayout, put in place of the RecyclerView: a send rebuilds
+     * every row.
+     */
+    private static class RebuiltList implements ChatList {
+        private final Activity activity;
+        private final ScrollView scrollView;
+        private final LinearLayout layoutMessages;
+        private final List<Message> messages = new ArrayList<>();
+
+        RebuiltList(Activity activity) {
+            this.activity = activity;
+            RecyclerView recyclerView = activity.findViewById(R.id.recyclerViewChat);
+            ViewGroup parent = (ViewGroup) recyclerView.getParent();
+            int index = parent.indexOfChild(recyclerView);
+            scrollView = new ScrollView(activity);
+            scrollView.setFillViewport(true);
+            scrollView.setBackgroundColor(Color.parseColor("#1E2632"));
+            scrollView.setPadding(8, 8, 8, 8);
+            layoutMessages = new LinearLayout(activity);
+            layoutMessages.setOrientation(LinearLayout.VERTICAL);
+            layoutMessages.setPadding(8, 8, 8, 8);
+            scrollView.addView(layoutMessages, new ViewGroup.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+            parent.removeViewAt(index);
+            parent.addView(scrollView, index, recyclerView.getLayoutParams());
+        }
+
+        @Override
+        public void load(List<Message> loaded) {
+            messages.addAll(loaded);
+            rebuild();
+        }
+
+        @Override
+        public void send(Message message) {
+            messages.add(message);
+            rebuild();
+        }
+
+        private void rebuild() {
+            layoutMessages.removeAllViews();
+            for (Message message : messages) {
+                addMessageView(message);
+            }
+            scrollView.post(() -> scrollView.fullScroll(ScrollView.FOCUS_DOWN));
+        }
+
+        private void addMessageView(Message msg) {
+            TextView textView = new TextView(activity);
+            GradientDrawable bgDrawable = new GradientDrawable();
+            bgDrawable.setCornerRadii(msg.isUser ?
+                    new float[]{30, 30, 8, 30, 30, 30, 30, 8} :
+                    new float[]{8, 30, 30, 30, 30, 8, 30, 30});
+            bgDrawable.setColor(msg.isUser ?
+                    ContextCompat.getColor(activity, R.color.user_message) :
+                    ContextCompat.getColor(activity, R.color.bot_message));
+            textView.setBackground(bgDrawable);
+
+            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
+                    (int) (activity.getResources().getDisplayMetrics().widthPixels * 0.75),
+                    ViewGroup.LayoutParams.WRAP_CONTENT);
+            params.setMargins(8, 8, 8, 8);
+            params.gravity = msg.isUser ? Gravity.END : Gravity.START;
+            textView.setLayoutParams(params);
+            textView.setTextColor(Color.WHITE);
+            textView.setPadding(24, 16, 24, 16);
+            textView.setText(msg.content);
+            textView.setTextSize(16);
+            textView.setMaxLines(20);
+
+            textView.setAlpha(0f);
+            textView.setTranslationY(50f);
+            layoutMessages.addView(textView);
+            textView.animate().alpha(1f).translationY(0f).setDuration(300).start();
+        }
+    }
+
+    private static List<Message> newConversation(int messageCount) {
+        List<Message> messages = new ArrayList<>(messageCount);
+        for (int i = 0; i < messageCount; i++) {
+            messages.add(newMessage(FIRST_TEST_ID + i, i % 2 == 0, i % 2 == 0
+                    ? "How do I read a file line by line in Java? (" + i + ")"
+                    : "Use a BufferedReader with try-with-resources, so the reader is always closed. (" + i + ")"));
+        }
+        return messages;
+    }
+
+    private static Message newMessage(int id, boolean isUser, String content) {
+        Message message = new Message();
+        message.id = id;
+        message.isUser = isUser;
+        message.content = content;
+        message.timestamp = System.currentTimeMillis() - 1_000_000L + id - FIRST_TEST_ID;
+        return message;
+    }
+
+    private static void log(String path, int messageCount, List<Long> frames) {
+        Log.i(TAG, String.format("%s, %,d messages: %d frames, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                path, messageCount, frames.size(), percentileMs(frames, 50), percentileMs(frames, 90),
+                percentileMs(frames, 99), frames.get(frames.size() - 1) / 1_000_000.0));
+    }
+
+    private static double percentileMs(List<Long> sorted, int percentile) {
+        int index = Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * percentile / 100.0) - 1);
+        return sorted.get(Math.max(0, index)) / 1_000_000.0;
+    }
+}
@@ -0,0 +1,125 @@
+package uz.iqbolshoh.socialchat;
+
+import android.app.Instrumentation;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scrolls through long, code-heavy bot replies and checks the frame times reported by
+ * {@link FrameMetrics}. Results are written to logcat under the "FrameTime" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageRenderingFrameTimeTest {
+    private static final String TAG = "FrameTime";
+    private static final int REPLY_COUNT = 150;
+    private static final int FIRST_TEST_ID = 1_000_000;          // Far above real ids, so cached text never mixes
+    private static final long JANK_FRAME_NANOS = 32_000_000;     // Two frames at 60 Hz
+    private static final double MAX_JANK_RATIO = 0.1;
+    private static final long SCROLL_TIMEOUT_MS = 60_000;
+
+    @Test
+    public void scrollingThroughCodeHeavyReplies_staysWithinTheFrameBudget() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        List<Long> frameNanos = Collections.synchronizedList(new ArrayList<>());
+        Window.OnFrameMetricsAvailableListener listener = (window, metrics, dropped) ->
+                frameNanos.add(metrics.getMetric(FrameMetrics.TOTAL_DURATION));
+        HandlerThread metricsThread = new HandlerThread("frame-metrics");
+        metricsThread.start();
+
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            AtomicReference<RecyclerView> list = new AtomicReference<>();
+            scenario.onActivity(activity -> {
+                RecyclerView recyclerView = activity.findViewById(R.id.recyclerViewChat);
+                ((MessageAdapter) recyclerView.getAdapter()).setMessages(newConversation());
+                recyclerView.scrollToPosition(REPLY_COUNT * 2 - 1);
+                activity.getWindow().addOnFrameMetricsAvailableListener(listener,
+                        new Handler(metricsThread.getLooper()));
+                list.set(recyclerView);
+            });
+
+            // Scroll to the oldest reply, binding every row once, and back over the cached text
+            scrollTo(instrumentation, list.get(), 0);
+            scrollTo(instrumentation, list.get(), REPLY_COUNT * 2 - 1);
+            scenario.onActivity(activity -> activity.getWindow().removeOnFrameMetricsAvailableListener(listener));
+        } finally {
+            metricsThread.quitSafely();
+        }
+
+        List<Long> frames = new ArrayList<>(frameNanos);
+        assertFalse("No frames reported", frames.isEmpty());
+        Collections.sort(frames);
+        long janky = frames.stream().filter(nanos -> nanos > JANK_FRAME_NANOS).count();
+        double jankRatio = (double) janky / frames.size();
+        Log.i(TAG, String.format("%d frames, p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, janky %.1f%%",
+                frames.size(), percentileMs(frames, 50), percentileMs(frames, 90),
+                percentileMs(frames, 99), jankRatio * 100));
+        assertTrue("Janky frames: " + janky + " of " + frames.size(), jankRatio <= MAX_JANK_RATIO);
+    }
+
+    private static void scrollTo(Instrumentation instrumentation, RecyclerView list, int position)
+            throws InterruptedException {
+        instrumentation.runOnMainSync(() -> list.smoothScrollToPosition(position));
+        long deadline = SystemClock.uptimeMillis() + SCROLL_TIMEOUT_MS;
+        AtomicBoolean idle = new AtomicBoolean();
+        do {
+            Thread.sleep(200);
+            instrumentation.runOnMainSync(() -> idle.set(list.getScrollState() == RecyclerView.SCROLL_STATE_IDLE));
+        } while (!idle.get() && SystemClock.uptimeMillis() < deadline);
+        assertTrue("Scrolling did not settle", idle.get());
+    }
+
+    private static List<Message> newConversation() {
+        List<Message> messages = new ArrayList<>();
+        long timestamp = System.currentTimeMillis() - REPLY_COUNT * 2 * 1000L;
+        for (int i = 0; i < REPLY_COUNT; i++) {
+            messages.add(newMessage(FIRST_TEST_ID + i * 2, true, "How do I read a file line by line in Java? (" + i + ")", timestamp++));
+            messages.add(newMessage(FIRST_TEST_ID + i * 2 + 1, false, codeHeavyReply(i), timestamp++));
+        }
+        return messages;
+    }
+
+    private static String codeHeavyReply(int index) {
+        StringBuilder reply = new StringBuilder("## Reading a file, variant ").append(index)
+                .append("\n\nUse a **BufferedReader** with *try-with-resources*, so the `Reader` is always closed:\n\n```java\n");
+        for (int i = 0; i < 30; i++) {
+            reply.append("try (BufferedReader reader = Files.newBufferedReader(path_").append(i)
+                    .append(")) { String line; while ((line = reader.readLine()) != null) process(line); }\n");
+        }
+        reply.append("```\n\n- Handles large files\n- Closes the reader on errors\n> See the [docs](https://docs.oracle.com).");
+        return reply.toString();
+    }
+
+    private static Message newMessage(int id, boolean isUser, String content, long timestamp) {
+        Message message = new Message();
+        message.id = id;
+        message.isUser = isUser;
+        message.content = content;
+        message.timestamp = timestamp;
+        return message;
+    }
+
+    private static double percentileMs(List<Long> sorted, int percentile) {
+        int index = Math.min(sorted.size() - 1, (int) Math.ceil(sorted.size() * percentile / 100.0) - 1);
+        return sorted.get(Math.max(0, index)) / 1_000_000.0;
+    }
+}
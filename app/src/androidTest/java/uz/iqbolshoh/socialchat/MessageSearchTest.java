@@ -0,0 +1,150 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs full-text searches against a synthetic 500k-message history and logs their latency
+ * under the "SearchBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MessageSearchTest {
+    private static final String TAG = "SearchBenchmark";
+    private static final String TEST_DATABASE = "chat-search.db";
+    private static final int CORPUS_SIZE = 500_000;
+    private static final int PAGE_SIZE = 20;
+    private static final String[] VOCABULARY = {
+            "hello", "thanks", "please", "weather", "today", "tomorrow", "code", "java", "android",
+            "database", "message", "question", "answer", "help", "explain", "example", "work", "time",
+            "music", "travel", "food", "recipe", "history", "science", "book", "movie", "game", "city"};
+
+    private static Context context;
+    private static MessageDatabaseHelper dbHelper;
+
+    @BeforeClass
+    public static void createCorpus() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DATABASE);
+        dbHelper = new MessageDatabaseHelper(context, TEST_DATABASE);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement statement = db.compileStatement(
+                "INSERT INTO messages (content, isUser, timestamp) VALUES (?, ?, ?)");
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < CORPUS_SIZE; i++) {
+                text.setLength(0);
+                int words = 5 + random.nextInt(30);
+                for (int w = 0; w < words; w++) {
+                    // Skewed word choice, so some words are common and others rare
+                    int index = (int) (VOCABULARY.length * Math.pow(random.nextDouble(), 2));
+                    text.append(VOCABULARY[index]).append(' ');
+                }
+                if (i % 10_000 == 0) {
+                    text.append("zanzibar");
+                }
+                statement.bindString(1, text.toString());
+                statement.bindLong(2, i % 2);
+                statement.bindLong(3, i);
+                statement.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        statement.close();
+    }
+
+    @AfterClass
+    public static void deleteCorpus() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE);
+    }
+
+    @Test
+    public void rareTerm_returnsHighlightedSnippetsQuickly() {
+        long start = SystemClock.elapsedRealtime();
+        List<SearchResult> results = dbHelper.searchMessages("Zanzibar", 0, PAGE_SIZE);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "rare term, first page: " + elapsed + " ms");
+        assertEquals(PAGE_SIZE, results.size());
+        for (SearchResult result : results) {
+            assertTrue(result.message.content.contains("zanzibar"));
+            assertTrue(result.snippet.contains(SearchResult.MATCH_START + "zanzibar" + SearchResult.MATCH_END));
+        }
+        assertTrue("Search took " + elapsed + " ms", elapsed < 1000);
+    }
+
+    @Test
+    public void commonTerm_pagesAreRankedAndDisjoint() {
+        long start = SystemClock.elapsedRealtime();
+        List<SearchResult> first = dbHelper.searchMessages("hello", 0, PAGE_SIZE);
+        long firstElapsed = SystemClock.elapsedRealtime() - start;
+        start = SystemClock.elapsedRealtime();
+        List<SearchResult> second = dbHelper.searchMessages("hello", PAGE_SIZE, PAGE_SIZE);
+        long secondElapsed = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "common term, page 1: " + firstElapsed + " ms, page 2: " + secondElapsed + " ms");
+        assertEquals(PAGE_SIZE, first.size());
+        assertEquals(PAGE_SIZE, second.size());
+
+        Set<Integer> ids = new HashSet<>();
+        double previousScore = Double.MAX_VALUE;
+        for (List<SearchResult> page : new List[]{first, second}) {
+            for (SearchResult result : page) {
+                assertTrue(ids.add(result.message.id));
+                assertTrue(result.score <= previousScore);
+                previousScore = result.score;
+            }
+        }
+    }
+
+    @Test
+    public void prefixAndMultiWordQueries_matchAllWords() {
+        List<SearchResult> results = dbHelper.searchMessages("zanzibar andr", 0, PAGE_SIZE);
+
+        assertFalse(results.isEmpty());
+        for (SearchResult result : results) {
+            assertTrue(result.message.content.contains("zanzibar"));
+            assertTrue(result.message.content.contains("android"));
+        }
+        assertTrue(dbHelper.searchMessages("\"*(", 0, PAGE_SIZE).isEmpty());
+    }
+
+    @Test
+    public void indexFollowsInsertsAndDeletes() {
+        Message message = new Message();
+        message.content = "A unique quokkaword appears here";
+        message.isUser = true;
+        message.timestamp = CORPUS_SIZE;
+        dbHelper.addMessage(message);
+
+        List<SearchResult> results = dbHelper.searchMessages("quokkaword", 0, PAGE_SIZE);
+        assertEquals(1, results.size());
+        assertEquals(message.id, results.get(0).message.id);
+
+        dbHelper.getWritableDatabase().delete("messages", "id = ?", new String[]{String.valueOf(message.id)});
+        assertTrue(dbHelper.searchMessages("quokkaword", 0, PAGE_SIZE).isEmpty());
+    }
+}
@@ -0,0 +1,106 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Walks outbox entries through their state transitions, including a simulated process restart.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OutboxStoreTest {
+    private static final String DATABASE = "chat-outbox.db";
+
+    private Context context;
+    private MessageDatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE);
+        dbHelper = new MessageDatabaseHelper(context, DATABASE);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void inFlightEntries_returnToTheQueueAfterARestart() {
+        OutboxItem item = dbHelper.enqueue(newPrompt("Hello"));
+        assertTrue(dbHelper.claim(10, Long.MAX_VALUE).isEmpty()); // Already claimed by the sender
+
+        // Simulate the process dying mid-request
+        dbHelper.close();
+        dbHelper = new MessageDatabaseHelper(context, DATABASE);
+
+        List<OutboxItem> claimed = dbHelper.claim(10, System.currentTimeMillis());
+        assertEquals(1, claimed.size());
+        assertEquals(item.idempotencyKey, claimed.get(0).idempotencyKey);
+        assertEquals("Hello", claimed.get(0).prompt.content);
+    }
+
+    @Test
+    public void completingTwice_storesTheReplyOnce() {
+        OutboxItem item = dbHelper.enqueue(newPrompt("Hello"));
+
+        assertTrue(dbHelper.complete(item, newReply("Hi")));
+        assertFalse(dbHelper.complete(item, newReply("Hi again")));
+
+        assertEquals(2, dbHelper.getAllMessages().size());
+        assertEquals(-1, dbHelper.getNextAttemptAt());
+    }
+
+    @Test
+    public void releasedEntries_areClaimedOnceDue_andFailedEntriesNever() {
+        OutboxItem delayed = dbHelper.enqueue(newPrompt("Later"));
+        OutboxItem failed = dbHelper.enqueue(newPrompt("Never"));
+        dbHelper.release(delayed, "503", 5000);
+        dbHelper.fail(failed, "400");
+
+        assertEquals(5000, dbHelper.getNextAttemptAt());
+        assertTrue(dbHelper.claim(10, 4999).isEmpty());
+        List<OutboxItem> claimed = dbHelper.claim(10, 5000);
+        assertEquals(1, claimed.size());
+        assertEquals(1, claimed.get(0).attempts);
+        assertTrue(dbHelper.claim(10, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void requeuedEntries_keepTheirAttemptCount() {
+        OutboxItem item = dbHelper.enqueue(newPrompt("Hello"));
+        dbHelper.release(item, "503", 0);
+        dbHelper.claim(10, 0);
+        dbHelper.requeue(item, "Request cancelled", 0);
+
+        List<OutboxItem> claimed = dbHelper.claim(10, 0);
+        assertEquals(1, claimed.size());
+        assertEquals(1, claimed.get(0).attempts);
+    }
+
+    private static Message newPrompt(String content) {
+        Message message = new Message();
+        message.content = content;
+        message.isUser = true;
+        message.timestamp = System.currentTimeMillis();
+        return message;
+    }
+
+    private static Message newReply(String content) {
+        Message message = newPrompt(content);
+        message.isUser = false;
+        return message;
+    }
+}
@@ -0,0 +1,195 @@
+package uz.iqbolshoh.socialchat;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.Build;
+import android.os.StrictMode;
+import android.os.strictmode.Violation;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Drives {@link PersistenceQueue} from the main thread under a StrictMode policy that reports
+ * every disk read and write, and checks what ends up in the database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PersistenceQueueTest {
+    private static final String DATABASE = "chat-persistence.db";
+    private static final int MESSAGE_COUNT = 200;
+
+    private Instrumentation instrumentation;
+    private Context context;
+    private MessageDatabaseHelper dbHelper;
+    private PersistenceQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        instrumentation = InstrumentationRegistry.getInstrumentation();
+        context = instrumentation.getTargetContext();
+        context.deleteDatabase(DATABASE);
+        dbHelper = new MessageDatabaseHelper(context, DATABASE);
+        queue = new PersistenceQueue(dbHelper);
+        queue.flush().get(10, TimeUnit.SECONDS); // The writer has opened the database
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        dbHelper.close();
+        context.deleteDatabase(DATABASE);
+    }
+
+    @Test
+    public void writesFromTheMainThread_doNotTouchTheDisk() throws Exception {
+        assumeTrue("penaltyListener needs API 28", Build.VERSION.SDK_INT >= Build.VERSION_CODES.P);
+        List<Violation> violations = Collections.synchronizedList(new ArrayList<>());
+        List<Message> prompts = new ArrayList<>();
+        List<CompletableFuture<OutboxItem>> enqueued = new ArrayList<>();
+
+        onMainThreadUnderStrictMode(violations, () -> {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                Message prompt = newMessage("Question " + i, true, 2L * i);
+                prompts.add(prompt);
+                enqueued.add(queue.enqueue(prompt));
+            }
+        });
+        for (Message prompt : prompts) {
+            assertTrue(prompt.id > 0); // Had its id before it was committed
+        }
+        CompletableFuture.allOf(enqueued.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        List<CompletableFuture<Boolean>> completed = new ArrayList<>();
+        onMainThreadUnderStrictMode(violations, () -> {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                completed.add(queue.complete(enqueued.get(i).join(), newMessage("Answer " + i, false, 2L * i + 1)));
+            }
+            queue.clearAllMessages();
+            queue.flush();
+        });
+        for (CompletableFuture<Boolean> saved : completed) {
+            assertTrue(saved.get(30, TimeUnit.SECONDS));
+        }
+
+        assertTrue(violations.toString(), violations.isEmpty());
+    }
+
+    @Test
+    public void writes_areStoredInSubmissionOrderUnderTheirOptimisticIds() throws Exception {
+        List<Message> sent = new ArrayList<>();
+        List<CompletableFuture<Boolean>> completed = new ArrayList<>();
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            Message prompt = newMessage("Question " + i, true, 2L * i);
+            Message reply = newMessage("Answer " + i, false, 2L * i + 1);
+            // Each reply is submitted once its prompt is committed, interleaved with later prompts
+            completed.add(queue.enqueue(prompt).thenCompose(item -> queue.complete(item, reply)));
+            sent.add(prompt);
+            sent.add(reply);
+        }
+        CompletableFuture.allOf(completed.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        List<Message> stored = dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, 2 * MESSAGE_COUNT);
+        assertEquals(sent.size(), stored.size());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(sent.get(i).id, stored.get(i).id);
+            assertEquals(sent.get(i).content, stored.get(i).content);
+        }
+        assertEquals(-1, dbHelper.getNextAttemptAt()); // Every outbox entry was closed
+    }
+
+    @Test
+    public void committedWrites_surviveAReopen_andIdsAreNotReused() throws Exception {
+        Message first = newMessage("Before clearing", true, 1);
+        queue.enqueue(first);
+        queue.clearAllMessages();
+        Message second = newMessage("After clearing", true, 2);
+        OutboxItem item = queue.enqueue(second).get(10, TimeUnit.SECONDS);
+
+        // Simulate the process dying right after the commit
+        queue.shutdown();
+        dbHelper.close();
+        dbHelper = new MessageDatabaseHelper(context, DATABASE);
+        queue = new PersistenceQueue(dbHelper);
+
+        List<Message> stored = dbHelper.getLatestMessages(Message.DEFAULT_CONVERSATION_ID, 10);
+        assertEquals(1, stored.size());
+        assertEquals(second.id, stored.get(0).id);
+        assertTrue(second.id > first.id);
+        List<OutboxItem> pending = dbHelper.claim(10, Long.MAX_VALUE);
+        assertEquals(1, pending.size());
+        assertEquals(item.idempotencyKey, pending.get(0).idempotencyKey);
+
+        queue.flush().get(10, TimeUnit.SECONDS);
+        Message third = newMessage("After reopening", true, 3);
+        queue.enqueue(third).get(10, TimeUnit.SECONDS);
+        assertTrue(third.id > second.id);
+    }
+
+    @Test
+    public void failedBatch_countsEachReleaseOnce() throws Exception {
+        OutboxItem item = queue.enqueue(newMessage("Hello", true, 1)).get(10, TimeUnit.SECONDS);
+        Message duplicate = newMessage("Same id", true, 2);
+        duplicate.id = item.prompt.id; // Fails the transaction it is written in
+
+        CompletableFuture<Void> released;
+        CompletableFuture<OutboxItem> failed;
+        synchronized (dbHelper) {
+            // The writer waits for the helper, so both writes below end up in one batch
+            queue.flush();
+            Thread.sleep(200);
+            released = queue.release(item, "503", 0);
+            failed = queue.enqueue(duplicate);
+        }
+
+        released.get(10, TimeUnit.SECONDS);
+        try {
+            failed.get(10, TimeUnit.SECONDS);
+            fail("A duplicate id was stored");
+        } catch (ExecutionException expected) {
+            // Only the faulty write fails
+        }
+        List<OutboxItem> pending = dbHelper.claim(10, Long.MAX_VALUE);
+        assertEquals(1, pending.size());
+        assertEquals(1, pending.get(0).attempts);
+    }
+
+    private void onMainThreadUnderStrictMode(List<Violation> violations, Runnable writes) {
+        instrumentation.runOnMainSync(() -> {
+            StrictMode.ThreadPolicy previous = StrictMode.getThreadPolicy();
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyListener(Runnable::run, violations::add)
+                    .build());
+            try {
+                writes.run();
+            } finally {
+                StrictMode.setThreadPolicy(previous);
+            }
+        });
+    }
+
+    private static Message newMessage(String content, boolean isUser, long timestamp) {
+        Message message = new Message();
+        message.content = content;
+        message.isUser = isUser;
+        message.timestamp = timestamp;
+        message.conversationId = Message.DEFAULT_CONVERSATION_ID;
+        return message;
+    }
+}
@@ -0,0 +1,145 @@
+package uz.iqbolshoh.socialchat;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.ViewTreeObserver;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.runner.lifecycle.ActivityLifecycleCallback;
+import androidx.test.runner.lifecycle.ActivityLifecycleMonitorRegistry;
+import androidx.test.runner.lifecycle.Stage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from launching {@link MainActivity} to its first drawn frame with 50k
+ * messages stored, with and without the startup snapshot. The database connection is closed
+ * before every launch, so opening it is part of the measurement. Results are written to
+ * logcat under the "StartupBenchmark" tag.
+ * <p>
+ * Uses the app's own database, so run it on a test device only.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmarkTest {
+    private static final String TAG = "StartupBenchmark";
+    private static final int MESSAGE_COUNT = 50_000;
+    private static final int BATCH_SIZE = 5_000;
+    private static final long TIMEOUT_MS = 30_000;
+
+    private Context context;
+    private MessageDatabaseHelper dbHelper;
+    private File snapshotFile;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        snapshotFile = new File(context.getFilesDir(), MainActivity.SNAPSHOT_FILE);
+        snapshotFile.delete();
+        dbHelper = MessageDatabaseHelper.getInstance(context);
+        dbHelper.clearAllMessages();
+        for (int start = 0; start < MESSAGE_COUNT; start += BATCH_SIZE) {
+            List<Message> batch = new ArrayList<>();
+            for (int i = start; i < start + BATCH_SIZE; i++) {
+                batch.add(new Message(0, "Stored message " + i + " about the weather in Tashkent", i % 2 == 0, i));
+            }
+            dbHelper.addMessages(batch);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.clearAllMessages();
+        snapshotFile.delete();
+    }
+
+    @Test
+    public void firstFrame_isDrawnFromTheSnapshot() throws Exception {
+        FirstFrame withoutSnapshot = launch();
+        assertTrue("Snapshot was not written", waitFor(snapshotFile::isFile));
+        FirstFrame withSnapshot = launch();
+
+        Log.i(TAG, String.format("Without snapshot: first frame %.1f ms, %d rows",
+                withoutSnapshot.nanos / 1e6, withoutSnapshot.rows));
+        Log.i(TAG, String.format("With snapshot: first frame %.1f ms, %d rows",
+                withSnapshot.nanos / 1e6, withSnapshot.rows));
+        assertTrue("First frame showed no messages", withSnapshot.rows > 0);
+    }
+
+    /**
+     * Launches the activity with a closed database and records its first frame.
+     */
+    private FirstFrame launch() throws InterruptedException {
+        dbHelper.close(); // Reopened on the first query, like after a cold start
+        AtomicLong firstFrameAt = new AtomicLong();
+        AtomicInteger rows = new AtomicInteger();
+        AtomicBoolean loaded = new AtomicBoolean();
+        ActivityLifecycleCallback callback = (Activity activity, Stage stage) -> {
+            if (stage != Stage.CREATED || !(activity instanceof MainActivity)) {
+                return;
+            }
+            RecyclerView list = activity.findViewById(R.id.recyclerViewChat);
+            ViewTreeObserver.OnDrawListener onDraw = () -> {
+                if (firstFrameAt.compareAndSet(0, SystemClock.elapsedRealtimeNanos())) {
+                    rows.set(list.getChildCount());
+                }
+            };
+            activity.getWindow().getDecorView().getViewTreeObserver().addOnDrawListener(onDraw);
+        };
+
+        ActivityLifecycleMonitorRegistry.getInstance().addLifecycleCallback(callback);
+        long start = SystemClock.elapsedRealtimeNanos();
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            assertTrue("No frame was drawn", waitFor(() -> firstFrameAt.get() != 0));
+            // Let the database page load, which also refreshes the snapshot
+            assertTrue("Messages were not loaded", waitFor(() -> {
+                scenario.onActivity(activity -> loaded.set(activity.findViewById(R.id.buttonSend).isEnabled()));
+                return loaded.get();
+            }));
+        } finally {
+            ActivityLifecycleMonitorRegistry.getInstance().removeLifecycleCallback(callback);
+        }
+        return new FirstFrame(firstFrameAt.get() - start, rows.get());
+    }
+
+    private static boolean waitFor(Condition condition) throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (!condition.isMet()) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    private static class FirstFrame {
+        final long nanos; // From launch to the first drawn frame
+        final int rows;   // Message rows on that frame
+
+        FirstFrame(long nanos, int rows) {
+            this.nanos = nanos;
+            this.rows = rows;
+        }
+    }
+}
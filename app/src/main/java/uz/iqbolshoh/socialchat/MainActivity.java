@@ -3,41 +3,113 @@ package uz.iqbolshoh.socialchat;
 import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.ObjectAnimator;
-import android.graphics.Color;
-import android.graphics.drawable.GradientDrawable;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Typeface;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.Uri;
 import android.os.Bundle;
-import android.view.Gravity;
+import android.view.Choreographer;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.view.ViewGroup;
 import android.view.animation.OvershootInterpolator;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.LinearLayout;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
-import androidx.core.content.ContextCompat;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Executor;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final int PAGE_SIZE = 50;        // Messages loaded per history page
+    private static final int PREFETCH_DISTANCE = 10; // Load older history when this close to the top
+    private static final int MAX_PARALLEL_REQUESTS = 4; // API requests allowed to run at the same time
+    private static final int CONTEXT_TOKEN_BUDGET = 2000; // Estimated tokens of history sent with a prompt
+    private static final int SUMMARY_TOKEN_BUDGET = 300;  // Part of the budget kept for the summary of older turns
+    private static final int MAX_CONTEXT_TURNS = 40;      // Turns sent verbatim at most
+    private static final long COALESCE_WINDOW_MS = 500;     // Quiet time that ends a burst of user messages
+    private static final long COALESCE_MAX_DELAY_MS = 2000; // Longest wait of the first message of a burst
+    private static final int COALESCE_MAX_MESSAGES = 8;     // Messages answered by one request at most
+    private static final int OUTBOX_MAX_CONCURRENT = 2;   // Queued messages sent at the same time
+    private static final int OUTBOX_BATCH_SIZE = 8;       // Queued messages claimed at a time
+    private static final int OUTBOX_MAX_ATTEMPTS = 8;     // Attempts before a queued message is given up
+    private static final long OUTBOX_RETRY_DELAY_MS = 5000;          // Delay after the first failed attempt
+    private static final long OUTBOX_MAX_RETRY_DELAY_MS = 10 * 60 * 1000; // Largest delay between attempts
+    private static final String LATENCY_REPORT_FILE = "latency-report.txt"; // Dump of the stats, in the app files dir
+    static final String SNAPSHOT_FILE = "latest-messages.snapshot"; // Newest messages, for the first frame; read by tests
+    private static final long STORAGE_MAINTENANCE_DELAY_MS = 60 * 1000; // Keeps maintenance out of app start
+    private static final int SNAPSHOT_SIZE = 20;          // Messages in the snapshot; more than a screenful
+    private static final int HISTORY_EXPORT_PAGE_SIZE = 1000;  // Messages read at a time while exporting
+    private static final int HISTORY_IMPORT_BATCH_SIZE = 5000; // Messages inserted per transaction while importing
+    private static final String HISTORY_FILE_NAME = "chat-history.ndjson.gz"; // Suggested name of an export
+
+    // Shared by all activity instances, so queued messages keep draining across recreation
+    private static ContextBuilder contextBuilder;
+    private static OutboxDrainer outboxDrainer;
+    private static PersistenceQueue persistence; // The only writer of messages on the UI's behalf
+    private static StorageMaintainer storageMaintainer;
+
+    // Runs database reads and snapshot writes in order, off the main thread
+    private static final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "chat-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Runs exports and imports, which can take a while, without holding up reads
+    private static final ExecutorService transferExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-transfer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ActivityResultLauncher<String> exportLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument("application/gzip"), this::exportHistory);
+    private final ActivityResultLauncher<String[]> importLauncher = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(), this::importHistory);
+
     private EditText editTextMessage;
     private Button buttonSend;
     private Button buttonClear;
-    private LinearLayout layoutMessages;
-    private ScrollView scrollViewChat;
+    private RecyclerView recyclerViewChat;
+    private MessageAdapter messageAdapter;
 
     private MessageDatabaseHelper dbHelper;
-    private final Executor executor = Executors.newSingleThreadExecutor();
+    private ApiService apiService;
+    private LatencyRecorder latency;
+    private final RequestScheduler scheduler = new RequestScheduler(MAX_PARALLEL_REQUESTS);
+    private final MessageCoalescer<PendingPrompt> coalescer = new MessageCoalescer<>(COALESCE_WINDOW_MS,
+            COALESCE_MAX_DELAY_MS, COALESCE_MAX_MESSAGES, (conversationId, burst) -> runOnUiThread(() -> sendBurst(burst)));
+    private CancelToken chatToken = new CancelToken(); // Parent of the requests of the displayed chat
     private boolean isFirstInput = true;
+    private long conversationId = Message.DEFAULT_CONVERSATION_ID;
+    private boolean hasOlderMessages;
+    private boolean isLoadingOlderMessages;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private File snapshotFile;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -48,11 +120,45 @@ public class MainActivity extends AppCompatActivity {
         editTextMessage = findViewById(R.id.editTextMessage);
         buttonSend = findViewById(R.id.buttonSend);
         buttonClear = findViewById(R.id.buttonClear);
-        layoutMessages = findViewById(R.id.layoutMessages);
-        scrollViewChat = findViewById(R.id.scrollViewChat);
+        recyclerViewChat = findViewById(R.id.recyclerViewChat);
+
+        // Set up the recycled message list; the adapter animates new rows itself
+        messageAdapter = new MessageAdapter(this);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        layoutManager.setStackFromEnd(true);
+        recyclerViewChat.setLayoutManager(layoutManager);
+        recyclerViewChat.setItemAnimator(null);
+        recyclerViewChat.setAdapter(messageAdapter);
+        recyclerViewChat.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Fetch the next older page when the user scrolls up near the top
+                if (dy < 0 && hasOlderMessages && !isLoadingOlderMessages
+                        && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    loadOlderMessages();
+                }
+            }
+        });
+
+        // Initialize database; the helper and its connection are shared process-wide.
+        // The connection opens lazily, on the first query, which happens in the background
+        dbHelper = MessageDatabaseHelper.getInstance(this);
+
+        // Draw the first frame from the snapshot of the newest messages
+        snapshotFile = new File(getFilesDir(), SNAPSHOT_FILE);
+        messageAdapter.setMessages(MessageSnapshot.read(snapshotFile, conversationId));
+        scrollToBottom();
+
+        // Reuse the process-wide API client so connections and cached replies survive activity recreation
+        apiService = ApiService.getDefault(new File(getCacheDir(), "responses"));
+        latency = apiService.getLatencyRecorder();
 
-        // Initialize database
-        dbHelper = new MessageDatabaseHelper(this);
+        // Answer messages left in the outbox by failed sends or an earlier process;
+        // debuggable builds also record latency from the start
+        initShared(dbHelper, apiService, (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+        outboxDrainer.setListener(new OutboxListener());
+        registerNetworkCallback();
+        outboxDrainer.requestDrain();
 
         // Set up EditText animation
         setupEditTextAnimation();
@@ -70,12 +176,16 @@ public class MainActivity extends AppCompatActivity {
         });
 
         buttonClear.setOnClickListener(v -> {
-            new androidx.appcompat.app.AlertDialog.Builder(MainActivity.this)
+            new AlertDialog.Builder(MainActivity.this)
                     .setTitle("Clear Chat")
                     .setMessage("Are you sure you want to clear all messages?")
                     .setPositiveButton("Clear", (dialog, which) -> {
-                        dbHelper.clearAllMessages();
-                        loadMessages();
+                        // Abort replies to the cleared messages instead of writing them back afterwards
+                        chatToken.cancel();
+                        chatToken = new CancelToken();
+                        outboxDrainer.cancelInFlight();
+                        persistence.clearAllMessages();
+                        loadMessages(); // Reads after the deletion is committed
                         Toast.makeText(MainActivity.this, "Chat cleared", Toast.LENGTH_SHORT).show();
                     })
                     .setNegativeButton("Cancel", null)
@@ -83,10 +193,95 @@ public class MainActivity extends AppCompatActivity {
                     .show();
         });
 
-        // Load existing messages
+        // Load existing messages; sending waits for them, so the list cannot be replaced under a new message
+        buttonSend.setEnabled(false);
         loadMessages();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (!isChangingConfigurations()) {
+            chatToken.cancel(); // Streams into this activity stop; their messages stay in the outbox
+        }
+        scheduler.shutdown();
+        // Messages still waiting for their burst to end are answered by the outbox instead
+        List<CompletableFuture<Void>> released = new ArrayList<>();
+        for (PendingPrompt prompt : coalescer.shutdown()) {
+            released.add(prompt.saved.thenCompose(item ->
+                    persistence.requeue(item, "Not sent before the chat was closed", System.currentTimeMillis())));
+        }
+        CompletableFuture.allOf(released.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, error) -> outboxDrainer.requestDrain());
+        outboxDrainer.setListener(null);
+        getSystemService(ConnectivityManager.class).unregisterNetworkCallback(networkCallback);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_latency_recording).setChecked(latency.isEnabled());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_latency_stats) {
+            showLatencyStats();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_latency_recording) {
+            latency.setEnabled(!latency.isEnabled());
+            return true;
+        }
+        if (item.getItemId() == R.id.action_export_history) {
+            exportLauncher.launch(HISTORY_FILE_NAME);
+            return true;
+        }
+        if (item.getItemId() == R.id.action_import_history) {
+            importLauncher.launch(new String[]{"application/gzip", "application/x-gzip", "application/octet-stream"});
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    private static synchronized void initShared(MessageDatabaseHelper dbHelper, ApiService apiService,
+                                                boolean recordLatency) {
+        if (outboxDrainer != null) {
+            return;
+        }
+        apiService.getLatencyRecorder().setEnabled(recordLatency);
+        persistence = new PersistenceQueue(dbHelper);
+        contextBuilder = new ContextBuilder(persistence.getStore(), CONTEXT_TOKEN_BUDGET, SUMMARY_TOKEN_BUDGET, MAX_CONTEXT_TURNS);
+        outboxDrainer = new OutboxDrainer(persistence.getStore(),
+                (item, token) -> apiService.getGeminiResponse(contextBuilder.build(item.prompt), token),
+                OUTBOX_MAX_CONCURRENT, OUTBOX_BATCH_SIZE, OUTBOX_MAX_ATTEMPTS,
+                OUTBOX_RETRY_DELAY_MS, OUTBOX_MAX_RETRY_DELAY_MS);
+        storageMaintainer = new StorageMaintainer(persistence.getStore(), new RetentionPolicy());
+        storageMaintainer.start(STORAGE_MAINTENANCE_DELAY_MS);
+    }
+
+    private void registerNetworkCallback() {
+        // Pause the outbox while offline, so waiting does not use up attempts, and drain on reconnect
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                outboxDrainer.setOnline(true);
+            }
+
+            @Override
+            public void onLost(Network network) {
+                outboxDrainer.setOnline(false);
+            }
+        };
+        getSystemService(ConnectivityManager.class).registerDefaultNetworkCallback(networkCallback);
+    }
+
     private void setupEditTextAnimation() {
         editTextMessage.setOnFocusChangeListener((v, hasFocus) -> {
             if (hasFocus && isFirstInput) {
@@ -124,46 +319,266 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void saveUserMessageAndSendApi(String userText) {
-        // Create and save user message
+        long sendStart = latency.start();
+
+        // Create and save user message; the outbox entry survives a failed send or a process restart
         Message userMessage = new Message();
         userMessage.content = userText;
         userMessage.isUser = true;
         userMessage.timestamp = System.currentTimeMillis();
-        dbHelper.addMessage(userMessage);
+        userMessage.conversationId = conversationId;
+        long insertStart = latency.start();
+        CompletableFuture<OutboxItem> saved = persistence.enqueue(userMessage);
+        saved.thenRun(() -> {
+            latency.stop(LatencyRecorder.Stage.DB_INSERT, insertStart);
+            runOnUiThread(this::saveSnapshot);
+        });
 
-        // Display user message
-        loadMessages();
+        // Display user message right away, with the id it is being saved under
+        messageAdapter.addMessage(userMessage);
+        scrollToBottom();
 
-        // Send to API in background
-        executor.execute(() -> {
-            String apiResponse = ApiService.getGeminiResponse(userText);
+        // Messages sent in quick succession are answered together, by one request
+        coalescer.add(userMessage.conversationId, new PendingPrompt(userMessage, saved, sendStart, chatToken));
+    }
 
+    /**
+     * Sends a burst of user messages as one request and shows the reply below the last of them.
+     *
+     * @param prompts The messages, in the order they were sent.
+     */
+    private void sendBurst(List<PendingPrompt> prompts) {
+        List<PendingPrompt> burst = new ArrayList<>();
+        for (PendingPrompt prompt : prompts) {
+            if (prompt.chatToken.isCancelled() || isDestroyed()) {
+                // Cleared or closed before the burst ended; a cleared message is gone, otherwise
+                // the outbox answers it on its next drain
+                prompt.saved.thenCompose(item -> persistence.requeue(item, "Cancelled", System.currentTimeMillis()))
+                        .thenRun(outboxDrainer::requestDrain);
+            } else {
+                burst.add(prompt);
+            }
+        }
+        if (burst.isEmpty()) {
+            return;
+        }
+        PendingPrompt last = burst.get(burst.size() - 1);
+        List<Message> userMessages = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        CompletableFuture<?>[] saves = new CompletableFuture[burst.size()];
+        for (int i = 0; i < burst.size(); i++) {
+            userMessages.add(burst.get(i).message);
+            texts.add(burst.get(i).message.content);
+            saves[i] = burst.get(i).saved;
+        }
+        CompletableFuture<Void> allSaved = CompletableFuture.allOf(saves);
+
+        // Stream the reply in background; replies are delivered in the order messages were sent.
+        // The stored burst ends the history, where consecutive user turns are sent as the parts
+        // of one message, together with the recent history and a summary of the rest
+        ReplyStream stream = new ReplyStream(userMessages, burst.get(0).sendStart, last.chatToken.newChild());
+        CompletableFuture<GeminiResult> reply = scheduler.submit(last.message.conversationId,
+                String.join("\n", texts), () -> {
+                    allSaved.join(); // Sent only once the messages are stored, so the reply always has entries to close
+                    long buildStart = latency.start();
+                    ChatContext context = contextBuilder.build(last.message);
+                    latency.stop(LatencyRecorder.Stage.CONTEXT_BUILD, buildStart);
+                    apiService.streamGeminiResponse(context, stream.token, stream);
+                    return stream.result;
+                });
+        // If the same prompts are already in flight, the scheduler returns their reply, which then
+        // answers these messages too: stored below them on success, retried by the outbox on failure
+        reply.whenComplete((result, error) -> allSaved.handle((ignored, saveError) -> {
+            List<OutboxItem> items = new ArrayList<>();
+            for (PendingPrompt prompt : burst) {
+                items.add(prompt.saved.isCompletedExceptionally() ? null : prompt.saved.join());
+            }
             runOnUiThread(() -> {
-                try {
-                    JSONObject jsonObject = new JSONObject(apiResponse);
+                stream.finish(items, result != null ? result : GeminiResult.error("Error: " + error.getMessage()));
+            });
+            return null;
+        }));
+    }
 
-                    if (jsonObject.has("error")) {
-                        showErrorToast(jsonObject.getString("error"));
-                        return;
-                    }
+    /**
+     * A displayed user message waiting in the coalescer for the rest of its burst.
+     */
+    private static final class PendingPrompt {
+        final Message message;
+        final CompletableFuture<OutboxItem> saved; // Completes once the message and its outbox entry are stored
+        final long sendStart;                      // Latency timestamp of the send click, or 0 when not recording
+        final CancelToken chatToken;               // The chat the message was sent to
+
+        PendingPrompt(Message message, CompletableFuture<OutboxItem> saved, long sendStart, CancelToken chatToken) {
+            this.message = message;
+            this.saved = saved;
+            this.sendStart = sendStart;
+            this.chatToken = chatToken;
+        }
+    }
+
+    /**
+     * Grows a single bot bubble, placed right below the last user message of a burst, as chunks arrive.
+     * The final result is applied by {@link #finish} once earlier replies have been delivered.
+     */
+    private class ReplyStream implements ApiService.StreamCallback {
+        private final List<Message> userMessages;
+        private final Message userMessage; // The last of the burst, which the reply is placed after
+        private final long sendStart;   // Latency timestamp of the first send click, or 0 when not recording
+        final CancelToken token;        // Cancelled when the chat is cleared or the activity is destroyed
+        private Message botMessage;     // Only accessed on the UI thread
+        volatile GeminiResult result;   // Set on the worker thread when the stream ends
+
+        ReplyStream(List<Message> userMessages, long sendStart, CancelToken token) {
+            this.userMessages = userMessages;
+            this.userMessage = userMessages.get(userMessages.size() - 1);
+            this.sendStart = sendStart;
+            this.token = token;
+        }
 
-                    // Process bot response
-                    String botReply = jsonObject.optString("text", "No response from bot");
-                    Message botMessage = new Message();
-                    botMessage.content = botReply;
+        @Override
+        public void onPartialText(String chunk) {
+            runOnUiThread(() -> {
+                if (token.isCancelled()) {
+                    return; // Chunks that were already on their way
+                }
+                if (botMessage == null) {
+                    botMessage = new Message();
+                    botMessage.content = chunk;
                     botMessage.isUser = false;
-                    botMessage.timestamp = System.currentTimeMillis();
-                    dbHelper.addMessage(botMessage);
+                    botMessage.conversationId = userMessage.conversationId;
+                    messageAdapter.insertMessageAfter(userMessage, botMessage);
+                    recordAfterNextFrame(LatencyRecorder.Stage.FIRST_CHUNK_RENDER, sendStart);
+                } else {
+                    botMessage.content += chunk;
+                    messageAdapter.notifyMessageChanged(botMessage);
+                }
+                scrollToBottom();
+            });
+        }
 
-                    // Display bot response
-                    loadMessages();
+        @Override
+        public void onComplete(String fullText) {
+            result = GeminiResult.success(fullText);
+        }
 
-                } catch (JSONException e) {
-                    showErrorToast("Error parsing response");
-                    e.printStackTrace();
+        @Override
+        public void onError(String message) {
+            result = GeminiResult.error(message);
+        }
+
+        /**
+         * @param items  The outbox entries of the user messages; null for those that could not be stored.
+         * @param result The outcome of the stream.
+         */
+        void finish(List<OutboxItem> items, GeminiResult result) {
+            token.release();
+            List<OutboxItem> stored = new ArrayList<>();
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i) != null) {
+                    stored.add(items.get(i));
+                } else {
+                    // The message could not be stored, so there is nothing to answer or retry
+                    messageAdapter.removeMessage(userMessages.get(i));
                 }
+            }
+            if (stored.size() < items.size()) {
+                showErrorToast("The message could not be saved");
+            }
+            if (stored.isEmpty()) {
+                if (botMessage != null) {
+                    messageAdapter.removeMessage(botMessage);
+                }
+                return;
+            }
+            if (token.isCancelled() && !result.isSuccess()) {
+                if (botMessage != null) {
+                    messageAdapter.removeMessage(botMessage);
+                }
+                // A cleared message is gone; otherwise the outbox answers it on its next drain.
+                // Cancelling is not a failed attempt
+                requeue(stored, result.error, System.currentTimeMillis())
+                        .thenRun(outboxDrainer::requestDrain);
+                return;
+            }
+            if (!result.isSuccess()) {
+                if (botMessage != null) {
+                    messageAdapter.removeMessage(botMessage);
+                }
+                // Hand the messages to the outbox, which retries them in the background
+                release(stored, result.error, System.currentTimeMillis() + OUTBOX_RETRY_DELAY_MS)
+                        .thenRun(outboxDrainer::requestDrain);
+                showErrorToast(result.error + ". The message will be sent again automatically.");
+                return;
+            }
+
+            if (botMessage == null) {
+                botMessage = new Message();
+                botMessage.isUser = false;
+                botMessage.conversationId = userMessage.conversationId;
+                messageAdapter.insertMessageAfter(userMessage, botMessage);
+            }
+
+            // Persist the bot response once, when the stream has finished, and close the outbox entries.
+            // The reply is shown right away; it is taken back if the outbox answered a message first
+            Message reply = botMessage;
+            reply.content = result.text;
+            reply.timestamp = System.currentTimeMillis();
+            long insertStart = latency.start();
+            persistence.complete(stored, reply).whenComplete((saved, error) -> {
+                latency.stop(LatencyRecorder.Stage.DB_INSERT, insertStart);
+                runOnUiThread(() -> {
+                    if (saved == null || !saved) {
+                        messageAdapter.removeMessage(reply);
+                    } else if (isDestroyed()) {
+                        // Finished after a configuration change; the new activity shows it
+                        outboxDrainer.notifyReplySaved(stored.get(stored.size() - 1), reply);
+                    } else {
+                        saveSnapshot();
+                    }
+                });
             });
-        });
+            messageAdapter.notifyMessageChanged(reply);
+            recordAfterNextFrame(LatencyRecorder.Stage.REPLY_RENDER, sendStart);
+        }
+
+        private CompletableFuture<Void> release(List<OutboxItem> items, String error, long nextAttemptAt) {
+            CompletableFuture<?>[] released = new CompletableFuture[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                released[i] = persistence.release(items.get(i), error, nextAttemptAt);
+            }
+            return CompletableFuture.allOf(released);
+        }
+
+        private CompletableFuture<Void> requeue(List<OutboxItem> items, String error, long nextAttemptAt) {
+            CompletableFuture<?>[] requeued = new CompletableFuture[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                requeued[i] = persistence.requeue(items.get(i), error, nextAttemptAt);
+            }
+            return CompletableFuture.allOf(requeued);
+        }
+    }
+
+    /**
+     * Shows replies that the outbox stored while this activity is visible.
+     */
+    private class OutboxListener implements OutboxDrainer.Listener {
+        @Override
+        public void onReplySaved(OutboxItem item, Message reply) {
+            runOnUiThread(() -> {
+                Message userMessage = messageAdapter.findMessage(item.prompt.id);
+                if (userMessage != null && messageAdapter.findMessage(reply.id) == null) {
+                    messageAdapter.insertMessageAfter(userMessage, reply);
+                    scrollToBottom();
+                    saveSnapshot();
+                }
+            });
+        }
+
+        @Override
+        public void onFailed(OutboxItem item, String error) {
+            runOnUiThread(() -> showErrorToast("Message could not be sent: " + error));
+        }
     }
 
     private void showErrorToast(String message) {
@@ -171,51 +586,188 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void loadMessages() {
-        layoutMessages.removeAllViews();
-        List<Message> messages = dbHelper.getAllMessages();
-
-        for (Message msg : messages) {
-            TextView textView = new TextView(this);
-
-            // Create message bubble background
-            GradientDrawable bgDrawable = new GradientDrawable();
-            bgDrawable.setCornerRadii(msg.isUser ?
-                    new float[]{30, 30, 8, 30, 30, 30, 30, 8} :
-                    new float[]{8, 30, 30, 30, 30, 8, 30, 30});
-
-            bgDrawable.setColor(msg.isUser ?
-                    ContextCompat.getColor(this, R.color.user_message) :
-                    ContextCompat.getColor(this, R.color.bot_message));
-
-            textView.setBackground(bgDrawable);
-
-            // Set layout parameters
-            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
-                    (int)(getResources().getDisplayMetrics().widthPixels * 0.75),
-                    ViewGroup.LayoutParams.WRAP_CONTENT
-            );
-            params.setMargins(8, 8, 8, 8);
-            params.gravity = msg.isUser ? Gravity.END : Gravity.START;
-
-            textView.setLayoutParams(params);
-            textView.setTextColor(Color.WHITE);
-            textView.setPadding(24, 16, 24, 16);
-            textView.setText(msg.content);
-            textView.setTextSize(16);
-            textView.setMaxLines(20);
-
-            // Add animation for new messages
-            textView.setAlpha(0f);
-            textView.setTranslationY(50f);
-            layoutMessages.addView(textView);
-            textView.animate()
-                    .alpha(1f)
-                    .translationY(0f)
-                    .setDuration(300)
-                    .start();
-        }
-
-        // Scroll to bottom
-        scrollViewChat.post(() -> scrollViewChat.fullScroll(ScrollView.FOCUS_DOWN));
-    }
-}
\ No newline at end of file
+        long loadStart = latency.start();
+        long conversation = conversationId;
+        CompletableFuture<Void> written = persistence.flush(); // Pending writes show up in the result
+        ioExecutor.execute(() -> {
+            written.join();
+            List<Message> messages = dbHelper.getLatestMessages(conversation, PAGE_SIZE);
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                hasOlderMessages = messages.size() == PAGE_SIZE;
+                messageAdapter.setMessages(messages); // Rows already shown from the snapshot stay in place
+                scrollToBottom();
+                buttonSend.setEnabled(true);
+                recordAfterNextFrame(LatencyRecorder.Stage.LOAD_MESSAGES, loadStart);
+                saveSnapshot();
+            });
+        });
+    }
+
+    private void saveSnapshot() {
+        // Copy on the UI thread, write in the background; writes happen in order
+        List<Message> latest = messageAdapter.getLatestSavedMessages(SNAPSHOT_SIZE);
+        long conversation = conversationId;
+        File file = snapshotFile;
+        ioExecutor.execute(() -> MessageSnapshot.write(file, conversation, latest, SNAPSHOT_SIZE));
+    }
+
+    private void loadOlderMessages() {
+        Message oldest = messageAdapter.getOldestMessage();
+        if (oldest == null) {
+            hasOlderMessages = false;
+            return;
+        }
+
+        // Read in the background; the result is inserted outside the scroll callback
+        isLoadingOlderMessages = true;
+        ioExecutor.execute(() -> {
+            List<Message> olderMessages = dbHelper.getMessagesBefore(oldest, PAGE_SIZE);
+            runOnUiThread(() -> {
+                if (isDestroyed() || messageAdapter.getOldestMessage() != oldest) {
+                    isLoadingOlderMessages = false; // The list was replaced in the meantime
+                    return;
+                }
+                hasOlderMessages = olderMessages.size() == PAGE_SIZE;
+                messageAdapter.prependMessages(olderMessages);
+                isLoadingOlderMessages = false;
+            });
+        });
+    }
+
+    private void scrollToBottom() {
+        recyclerViewChat.post(() -> {
+            int count = messageAdapter.getItemCount();
+            if (count > 0) {
+                recyclerViewChat.scrollToPosition(count - 1);
+            }
+        });
+    }
+
+    /**
+     * Records the time from a start timestamp until the next frame has been drawn, so the stage
+     * includes layout and rendering of the changes made so far.
+     *
+     * @param stage The stage to record.
+     * @param start A timestamp from {@link LatencyRecorder#start()}; 0 records nothing.
+     */
+    private void recordAfterNextFrame(LatencyRecorder.Stage stage, long start) {
+        if (start == 0) {
+            return;
+        }
+        // Frame callbacks run before the traversal; a message posted from one runs after it
+        Choreographer.getInstance().postFrameCallback(frameTimeNanos ->
+                recyclerViewChat.post(() -> latency.stop(stage, start)));
+    }
+
+    private void exportHistory(Uri uri) {
+        if (uri == null) {
+            return; // Picking a file was cancelled
+        }
+        AlertDialog dialog = showTransferProgress("Exporting history");
+        CompletableFuture<Void> written = persistence.flush(); // Pending writes are included
+        transferExecutor.execute(() -> {
+            String result;
+            try (OutputStream out = getContentResolver().openOutputStream(uri)) {
+                if (out == null) {
+                    throw new IOException("The file cannot be written");
+                }
+                written.join();
+                long count = new HistoryTransfer(persistence.getStore(), HISTORY_EXPORT_PAGE_SIZE, HISTORY_IMPORT_BATCH_SIZE)
+                        .exportTo(out, (messages, bytes) -> updateTransferProgress(dialog, "Exported", messages));
+                result = String.format(Locale.getDefault(), "Exported %,d messages", count);
+            } catch (IOException | RuntimeException e) {
+                result = "Error: Could not export the history: " + e.getMessage();
+            }
+            finishTransfer(dialog, result, false);
+        });
+    }
+
+    private void importHistory(Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        AlertDialog dialog = showTransferProgress("Importing history");
+        transferExecutor.execute(() -> {
+            String result;
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+                if (in == null) {
+                    throw new IOException("The file cannot be read");
+                }
+                long count = new HistoryTransfer(persistence.getStore(), HISTORY_EXPORT_PAGE_SIZE, HISTORY_IMPORT_BATCH_SIZE)
+                        .importFrom(in, (messages, bytes) -> updateTransferProgress(dialog, "Imported", messages));
+                result = String.format(Locale.getDefault(), "Imported %,d messages", count);
+            } catch (IOException | RuntimeException e) {
+                result = "Error: Could not import the history: " + e.getMessage();
+            }
+            finishTransfer(dialog, result, true);
+        });
+    }
+
+    private AlertDialog showTransferProgress(String title) {
+        return new AlertDialog.Builder(MainActivity.this)
+                .setTitle(title)
+                .setMessage("Starting…")
+                .setCancelable(false)
+                .show();
+    }
+
+    private void updateTransferProgress(AlertDialog dialog, String verb, long messages) {
+        String text = String.format(Locale.getDefault(), "%s %,d messages…", verb, messages);
+        runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                dialog.setMessage(text);
+            }
+        });
+    }
+
+    private void finishTransfer(AlertDialog dialog, String result, boolean reload) {
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            dialog.dismiss();
+            Toast.makeText(this, result, Toast.LENGTH_LONG).show();
+            if (reload) {
+                loadMessages(); // Also after a failed import, since earlier batches were stored
+            }
+        });
+    }
+
+    private void showLatencyStats() {
+        TextView report = new TextView(this);
+        report.setTypeface(Typeface.MONOSPACE);
+        report.setTextIsSelectable(true);
+        report.setTextSize(11);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        report.setPadding(padding, padding, padding, padding);
+        report.setText(latency.report());
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(report);
+
+        new AlertDialog.Builder(MainActivity.this)
+                .setTitle(latency.isEnabled() ? "Performance stats" : "Performance stats (not recording)")
+                .setView(scrollView)
+                .setPositiveButton("Save to file", (dialog, which) -> saveLatencyReport())
+                .setNeutralButton("Reset", (dialog, which) -> latency.reset())
+                .setNegativeButton("Close", null)
+                .show();
+    }
+
+    private void saveLatencyReport() {
+        // Overwrite the previous dump; pull it with "adb shell run-as <package> cat files/..."
+        File file = new File(getFilesDir(), LATENCY_REPORT_FILE);
+        String report = latency.report();
+        ioExecutor.execute(() -> {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+                writer.write(report);
+                runOnUiThread(() -> Toast.makeText(this, "Saved to " + file.getAbsolutePath(),
+                        Toast.LENGTH_LONG).show());
+            } catch (IOException e) {
+                runOnUiThread(() -> showErrorToast("Could not save the report: " + e.getMessage()));
+            }
+        });
+    }
+}
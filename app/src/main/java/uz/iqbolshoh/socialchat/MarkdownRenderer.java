@@ -0,0 +1,74 @@
+package uz.iqbolshoh.socialchat;
+
+import android.graphics.Typeface;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.QuoteSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.URLSpan;
+
+/**
+ * Turns the style ranges of {@link MarkdownParser} into Android text spans.
+ * Safe to call on any thread.
+ */
+public final class MarkdownRenderer {
+    private static final int CODE_BACKGROUND = 0x40000000;   // Translucent black behind code
+    private static final float CODE_BLOCK_SIZE = 0.85f;      // Code blocks are set a little smaller
+    private static final float[] HEADING_SIZES = {1.4f, 1.3f, 1.2f, 1.1f, 1.0f, 1.0f}; // Per heading level
+
+    private MarkdownRenderer() {}
+
+    /**
+     * Renders Markdown to styled text.
+     *
+     * @param markdown The Markdown source.
+     * @return The text without markup, carrying the matching spans.
+     */
+    public static CharSequence render(String markdown) {
+        MarkdownText parsed = MarkdownParser.parse(markdown);
+        if (parsed.spans.isEmpty()) {
+            return parsed.text;
+        }
+
+        SpannableString text = new SpannableString(parsed.text);
+        for (MarkdownText.Span span : parsed.spans) {
+            switch (span.style) {
+                case BOLD:
+                    setSpan(text, new StyleSpan(Typeface.BOLD), span);
+                    break;
+                case ITALIC:
+                    setSpan(text, new StyleSpan(Typeface.ITALIC), span);
+                    break;
+                case CODE:
+                    setSpan(text, new TypefaceSpan("monospace"), span);
+                    setSpan(text, new BackgroundColorSpan(CODE_BACKGROUND), span);
+                    break;
+                case CODE_BLOCK:
+                    setSpan(text, new TypefaceSpan("monospace"), span);
+                    setSpan(text, new RelativeSizeSpan(CODE_BLOCK_SIZE), span);
+                    setSpan(text, new BackgroundColorSpan(CODE_BACKGROUND), span);
+                    break;
+                case HEADING:
+                    setSpan(text, new StyleSpan(Typeface.BOLD), span);
+                    setSpan(text, new RelativeSizeSpan(HEADING_SIZES[span.level - 1]), span);
+                    break;
+                case QUOTE:
+                    setSpan(text, new QuoteSpan(), span);
+                    break;
+                case LINK:
+                    setSpan(text, new URLSpan(span.url), span);
+                    break;
+                default:
+                    break; // Bullets are part of the text
+            }
+        }
+        return text;
+    }
+
+    private static void setSpan(SpannableString text, Object what, MarkdownText.Span span) {
+        text.setSpan(what, span.start, span.end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    }
+}
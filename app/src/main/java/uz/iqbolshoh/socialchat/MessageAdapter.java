@@ -0,0 +1,319 @@
+package uz.iqbolshoh.socialchat;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.view.Gravity;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.content.ContextCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Binds chat messages to recycled bubble views.
+ * Bubble backgrounds are shared per sender type, and only rows appended after the
+ * initial load play the fade-in animation. Saved messages are rendered and measured in the
+ * background by {@link MessageTextCache}; only a reply that is still streaming is rendered
+ * on the UI thread.
+ */
+public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
+
+    private static final int VIEW_TYPE_USER = 0;
+    private static final int VIEW_TYPE_BOT = 1;
+    private static final Object PAYLOAD_TEXT = new Object(); // Rebind only the text of a row
+
+    private final List<Message> messages = new ArrayList<>();
+    private final Drawable.ConstantState userBubble;
+    private final Drawable.ConstantState botBubble;
+    private final int bubbleWidth;
+    private final Set<Message> pendingAnimations = new HashSet<>(); // New rows not yet animated
+    private final MessageTextCache textCache = MessageTextCache.getInstance();
+
+    /**
+     * Creates an adapter with an empty message list.
+     *
+     * @param context The context used to resolve colors and screen size.
+     */
+    public MessageAdapter(Context context) {
+        userBubble = createBubble(context, true).getConstantState();
+        botBubble = createBubble(context, false).getConstantState();
+        bubbleWidth = (int) (context.getResources().getDisplayMetrics().widthPixels * 0.75);
+
+        // All bubbles share one text style, which is what precomputed text is measured for;
+        // knowing it up front lets the first page render before any row exists
+        textCache.setParams(TextViewCompat.getTextMetricsParams(createBubbleText(context)));
+    }
+
+    /**
+     * Replaces the displayed messages, dispatching only the rows that actually changed.
+     * Rows bound as a result of this call are not animated.
+     *
+     * @param newMessages The messages to display, ordered by timestamp (ascending).
+     */
+    public void setMessages(List<Message> newMessages) {
+        final List<Message> oldMessages = new ArrayList<>(messages);
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldMessages.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newMessages.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return isSameMessage(oldMessages.get(oldPosition), newMessages.get(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                Message oldMessage = oldMessages.get(oldPosition);
+                Message newMessage = newMessages.get(newPosition);
+                return oldMessage.isUser == newMessage.isUser
+                        && oldMessage.content.equals(newMessage.content);
+            }
+        });
+
+        messages.clear();
+        messages.addAll(newMessages);
+        pendingAnimations.clear();
+        textCache.prefetch(newMessages);
+        diff.dispatchUpdatesTo(this);
+    }
+
+    /**
+     * Appends a single message as a new, animated row.
+     *
+     * @param message The message to append.
+     */
+    public void addMessage(Message message) {
+        messages.add(message);
+        pendingAnimations.add(message);
+        notifyItemInserted(messages.size() - 1);
+    }
+
+    /**
+     * Inserts a message directly below another displayed message as a new, animated row.
+     * Falls back to appending if the anchor is no longer displayed.
+     *
+     * @param anchor  The displayed message to insert below.
+     * @param message The message to insert.
+     */
+    public void insertMessageAfter(Message anchor, Message message) {
+        int position = messages.lastIndexOf(anchor) + 1;
+        if (position == 0) {
+            addMessage(message);
+            return;
+        }
+        messages.add(position, message);
+        pendingAnimations.add(message);
+        notifyItemInserted(position);
+    }
+
+    /**
+     * Inserts a page of older messages above the displayed ones without animating them.
+     *
+     * @param olderMessages The older messages, ordered by timestamp (ascending).
+     */
+    public void prependMessages(List<Message> olderMessages) {
+        messages.addAll(0, olderMessages);
+        textCache.prefetch(olderMessages);
+        notifyItemRangeInserted(0, olderMessages.size());
+    }
+
+    /**
+     * @return The oldest displayed message, or null if the list is empty.
+     */
+    public Message getOldestMessage() {
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    /**
+     * Returns the newest displayed messages that have been saved, e.g. for a startup snapshot.
+     *
+     * @param limit The maximum number of messages to return.
+     * @return Up to {@code limit} saved messages, ordered by timestamp (ascending).
+     */
+    public List<Message> getLatestSavedMessages(int limit) {
+        List<Message> latest = new ArrayList<>();
+        for (int i = messages.size() - 1; i >= 0 && latest.size() < limit; i--) {
+            if (messages.get(i).id != 0) {
+                latest.add(0, messages.get(i));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Looks up a displayed message by its database id.
+     *
+     * @param id The id of the message.
+     * @return The displayed message, or null if it is not displayed.
+     */
+    public Message findMessage(int id) {
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i).id == id) {
+                return messages.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rebinds the text of a message that is already displayed, e.g. while a reply is streaming.
+     *
+     * @param message The displayed message whose content has changed.
+     */
+    public void notifyMessageChanged(Message message) {
+        int position = messages.lastIndexOf(message);
+        if (position >= 0) {
+            notifyItemChanged(position, PAYLOAD_TEXT);
+        }
+    }
+
+    /**
+     * Removes a displayed message.
+     *
+     * @param message The message to remove.
+     */
+    public void removeMessage(Message message) {
+        int position = messages.lastIndexOf(message);
+        if (position >= 0) {
+            messages.remove(position);
+            pendingAnimations.remove(message);
+            notifyItemRemoved(position);
+        }
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return messages.get(position).isUser ? VIEW_TYPE_USER : VIEW_TYPE_BOT;
+    }
+
+    @Override
+    public int getItemCount() {
+        return messages.size();
+    }
+
+    @NonNull
+    @Override
+    public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        boolean isUser = viewType == VIEW_TYPE_USER;
+        Context context = parent.getContext();
+
+        FrameLayout row = new FrameLayout(context);
+        row.setLayoutParams(new RecyclerView.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+        AppCompatTextView textView = createBubbleText(context);
+        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
+                bubbleWidth, ViewGroup.LayoutParams.WRAP_CONTENT);
+        params.setMargins(8, 8, 8, 8);
+        params.gravity = isUser ? Gravity.END : Gravity.START;
+
+        // Every bubble of a type draws from the same shared drawable state
+        textView.setBackground((isUser ? userBubble : botBubble).newDrawable(context.getResources()));
+        textView.setLayoutParams(params);
+        row.addView(textView);
+
+        return new MessageViewHolder(row, textView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.contains(PAYLOAD_TEXT)) {
+            bindText(holder.textView, messages.get(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
+        Message message = messages.get(position);
+        AppCompatTextView textView = holder.textView;
+        textView.animate().cancel();
+        bindText(textView, message);
+
+        if (pendingAnimations.remove(message)) {
+            // Animate a new message only the first time it is shown
+            textView.setAlpha(0f);
+            textView.setTranslationY(50f);
+            textView.animate()
+                    .alpha(1f)
+                    .translationY(0f)
+                    .setDuration(300)
+                    .start();
+        } else {
+            textView.setAlpha(1f);
+            textView.setTranslationY(0f);
+        }
+    }
+
+    private void bindText(AppCompatTextView textView, Message message) {
+        if (message.id == 0) {
+            // Not saved yet: the reply is still streaming and changes with every chunk
+            textView.setText(MessageTextCache.render(message));
+            return;
+        }
+        PrecomputedTextCompat cached = textCache.get(message);
+        if (cached != null) {
+            TextViewCompat.setPrecomputedText(textView, cached);
+        } else {
+            // Waits for the background task only if the row is measured before it finishes
+            textView.setTextFuture(textCache.getTextFuture(message));
+        }
+    }
+
+    private static boolean isSameMessage(Message a, Message b) {
+        return a == b || (a.id != 0 && a.id == b.id);
+    }
+
+    private static AppCompatTextView createBubbleText(Context context) {
+        AppCompatTextView textView = new AppCompatTextView(context);
+        textView.setTextColor(Color.WHITE);
+        textView.setPadding(24, 16, 24, 16);
+        textView.setTextSize(16);
+        return textView;
+    }
+
+    private static GradientDrawable createBubble(Context context, boolean isUser) {
+        // Create message bubble background
+        GradientDrawable bgDrawable = new GradientDrawable();
+        bgDrawable.setCornerRadii(isUser ?
+                new float[]{30, 30, 8, 30, 30, 30, 30, 8} :
+                new float[]{8, 30, 30, 30, 30, 8, 30, 30});
+
+        bgDrawable.setColor(isUser ?
+                ContextCompat.getColor(context, R.color.user_message) :
+                ContextCompat.getColor(context, R.color.bot_message));
+        return bgDrawable;
+    }
+
+    /**
+     * Holds the bubble of one recycled row.
+     */
+    static class MessageViewHolder extends RecyclerView.ViewHolder {
+        final AppCompatTextView textView;
+
+        MessageViewHolder(FrameLayout row, AppCompatTextView textView) {
+            super(row);
+            this.textView = textView;
+        }
+    }
+}
@@ -3,21 +3,55 @@ package uz.iqbolshoh.socialchat;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseCorruptException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Manages the SQLite database for storing and retrieving chat messages.
- * Provides methods to add, retrieve, and clear messages.
+ * Provides methods to add, retrieve, page through, and clear messages.
+ * <p>
+ * Schema changes are applied in place by numbered migrations, so upgrading never loses history.
+ * Messages belong to a conversation; each conversation is paged independently through the
+ * (conversation_id, timestamp, id) index. A full-text index over message content is kept in
+ * sync by triggers and backs {@link #searchMessages}. Each conversation row also stores the
+ * rolling summary that {@link ContextBuilder} keeps of its older messages. User messages that
+ * still wait for a reply are queued in the outbox table (see {@link OutboxStore}).
+ * <p>
+ * Old messages can be archived (see {@link ArchiveStore}): their rows stay in place, so paging,
+ * search ranking and the outbox work as before, but their text moves into deflate-compressed
+ * blocks of the message_archive table. A block is decompressed when one of its messages is
+ * read, and the most recently used blocks are kept in memory.
+ * <p>
+ * The helper keeps one long-lived connection in write-ahead logging mode, so reads do not
+ * block on writes. Share a single instance and close it only when the app no longer needs it.
  */
-public class MessageDatabaseHelper extends SQLiteOpenHelper {
+public class MessageDatabaseHelper extends SQLiteOpenHelper
+        implements HistoryStore, OutboxStore, ArchiveStore {
 
     // Database configuration constants
     private static final String DATABASE_NAME = "chat.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 7;
 
     // Table and column names
     private static final String TABLE_MESSAGES = "messages";
@@ -25,6 +59,56 @@ public class MessageDatabaseHelper extends SQLiteOpenHelper {
     private static final String COLUMN_CONTENT = "content";
     private static final String COLUMN_IS_USER = "isUser";
     private static final String COLUMN_TIMESTAMP = "timestamp";
+    private static final String COLUMN_CONVERSATION_ID = "conversation_id";
+    private static final String COLUMN_ARCHIVE_BLOCK = "archive_block"; // Null unless the text is archived
+    private static final String COLUMN_REPLY_ID = "reply_id"; // For user messages, the reply answering them
+
+    private static final String TABLE_CONVERSATIONS = "conversations";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_CREATED_AT = "created_at";
+    private static final String COLUMN_SUMMARY = "summary";
+    private static final String COLUMN_SUMMARY_THROUGH_TIMESTAMP = "summary_through_timestamp";
+    private static final String COLUMN_SUMMARY_THROUGH_ID = "summary_through_id";
+
+    private static final String TABLE_OUTBOX = "outbox";
+    private static final String COLUMN_MESSAGE_ID = "message_id";
+    private static final String COLUMN_IDEMPOTENCY_KEY = "idempotency_key";
+    private static final String COLUMN_STATUS = "status";
+    private static final String COLUMN_ATTEMPTS = "attempts";
+    private static final String COLUMN_NEXT_ATTEMPT_AT = "next_attempt_at";
+    private static final String COLUMN_LAST_ERROR = "last_error";
+    private static final String COLUMN_OUTBOX_ID = "outbox_id";
+
+    private static final String TABLE_MESSAGE_ARCHIVE = "message_archive";
+    private static final String COLUMN_FIRST_TIMESTAMP = "first_timestamp";
+    private static final String COLUMN_FIRST_ID = "first_id";
+    private static final String COLUMN_LAST_TIMESTAMP = "last_timestamp";
+    private static final String COLUMN_LAST_ID = "last_id";
+    private static final String COLUMN_MESSAGE_COUNT = "message_count";
+    private static final String COLUMN_DATA = "data";
+
+    private static final String INDEX_MESSAGES_CONVERSATION = "idx_messages_conversation_timestamp";
+    private static final String INDEX_OUTBOX_DUE = "idx_outbox_status_next_attempt";
+    private static final String INDEX_ARCHIVE_CONVERSATION = "idx_message_archive_conversation_last";
+
+    private static final String TABLE_MESSAGES_FTS = "messages_fts";
+    private static final String COLUMN_DOCID = "docid";
+
+    // BM25 ranking parameters
+    private static final double BM25_K1 = 1.2;
+    private static final double BM25_B = 0.75;
+    private static final int SNIPPET_TOKENS = 12; // Approximate number of tokens per search snippet
+    private static final Pattern SNIPPET_TOKEN = Pattern.compile("[\\p{L}\\p{N}]+");
+
+    private static final int ARCHIVE_CACHE_BLOCKS = 16;   // Decompressed blocks kept in memory
+    private static final long AUTO_VACUUM_INCREMENTAL = 2;
+    private static final long SMALL_DATABASE_PAGES = 2560; // Below this, a full VACUUM is quick
+
+    private static MessageDatabaseHelper instance;
+
+    private SQLiteStatement insertStatement; // Compiled once, guarded by "this"
+    private final AtomicInteger lastMessageId = new AtomicInteger(-1); // Highest id handed out, or -1 until read
+    private final LruCache<Long, ArchiveBlock> archiveCache = new LruCache<>(ARCHIVE_CACHE_BLOCKS);
 
     /**
      * Constructor for the database helper.
@@ -32,11 +116,36 @@ public class MessageDatabaseHelper extends SQLiteOpenHelper {
      * @param context The application context.
      */
     public MessageDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
     }
 
     /**
-     * Creates the messages table when the database is first initialized.
+     * Returns the process-wide helper, so the whole app shares one connection.
+     *
+     * @param context Any context; only its application context is retained.
+     * @return The shared MessageDatabaseHelper instance.
+     */
+    public static synchronized MessageDatabaseHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageDatabaseHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor for a database helper backed by a specific file, used by tests.
+     *
+     * @param context The application context.
+     * @param name    The database file name, or null for an in-memory database.
+     */
+    MessageDatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Creates the database by building the version 1 schema and migrating it to the
+     * current version, so fresh installs and upgraded installs end up with the same schema.
      *
      * @param db The SQLite database instance.
      */
@@ -49,10 +158,13 @@ public class MessageDatabaseHelper extends SQLiteOpenHelper {
                 + COLUMN_TIMESTAMP + " INTEGER"
                 + ")";
         db.execSQL(CREATE_MESSAGES_TABLE);
+        onUpgrade(db, 1, DATABASE_VERSION);
     }
 
     /**
-     * Handles database upgrades by dropping and recreating the messages table.
+     * Upgrades the database in place by applying every migration after the old version in order.
+     * Runs inside the transaction opened by SQLiteOpenHelper, so a failed migration leaves
+     * the database untouched.
      *
      * @param db         The SQLite database instance.
      * @param oldVersion The old database version.
@@ -60,24 +172,513 @@ public class MessageDatabaseHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGES);
-        onCreate(db);
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 2:
+                    migrateToVersion2(db);
+                    break;
+                case 3:
+                    migrateToVersion3(db);
+                    break;
+                case 4:
+                    migrateToVersion4(db);
+                    break;
+                case 5:
+                    migrateToVersion5(db);
+                    break;
+                case 6:
+                    migrateToVersion6(db);
+                    break;
+                case 7:
+                    migrateToVersion7(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 2: adds the conversations table, assigns existing messages to a default
+     * conversation and indexes messages by (conversation_id, timestamp, id).
+     *
+     * @param db The SQLite database instance.
+     */
+    private static void migrateToVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_CONVERSATIONS + "("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + COLUMN_TITLE + " TEXT,"
+                + COLUMN_CREATED_AT + " INTEGER"
+                + ")");
+        db.execSQL("INSERT INTO " + TABLE_CONVERSATIONS
+                + " (" + COLUMN_ID + ", " + COLUMN_TITLE + ", " + COLUMN_CREATED_AT + ")"
+                + " SELECT " + Message.DEFAULT_CONVERSATION_ID + ", 'Chat',"
+                + " COALESCE(MIN(" + COLUMN_TIMESTAMP + "), 0) FROM " + TABLE_MESSAGES);
+
+        db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN " + COLUMN_CONVERSATION_ID
+                + " INTEGER NOT NULL DEFAULT " + Message.DEFAULT_CONVERSATION_ID);
+        db.execSQL("CREATE INDEX " + INDEX_MESSAGES_CONVERSATION + " ON " + TABLE_MESSAGES
+                + " (" + COLUMN_CONVERSATION_ID + ", " + COLUMN_TIMESTAMP + ", " + COLUMN_ID + ")");
+    }
+
+    /**
+     * Version 3: adds an external-content FTS4 index over message content, kept in sync with
+     * the messages table by triggers, and fills it from the existing history.
+     *
+     * @param db The SQLite database instance.
+     */
+    private static void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MESSAGES_FTS + " USING fts4("
+                + "content=\"" + TABLE_MESSAGES + "\", " + COLUMN_CONTENT + ")");
+
+        // External content tables must be updated before the row disappears and after it appears
+        String insertIndex = " INSERT INTO " + TABLE_MESSAGES_FTS + "(" + COLUMN_DOCID + ", " + COLUMN_CONTENT + ")"
+                + " VALUES (new." + COLUMN_ID + ", new." + COLUMN_CONTENT + "); END";
+        String deleteIndex = " DELETE FROM " + TABLE_MESSAGES_FTS
+                + " WHERE " + COLUMN_DOCID + " = old." + COLUMN_ID + "; END";
+        db.execSQL("CREATE TRIGGER messages_fts_after_insert AFTER INSERT ON " + TABLE_MESSAGES + " BEGIN" + insertIndex);
+        db.execSQL("CREATE TRIGGER messages_fts_before_delete BEFORE DELETE ON " + TABLE_MESSAGES + " BEGIN" + deleteIndex);
+        db.execSQL("CREATE TRIGGER messages_fts_before_update BEFORE UPDATE ON " + TABLE_MESSAGES + " BEGIN" + deleteIndex);
+        db.execSQL("CREATE TRIGGER messages_fts_after_update AFTER UPDATE ON " + TABLE_MESSAGES + " BEGIN" + insertIndex);
+
+        db.execSQL("INSERT INTO " + TABLE_MESSAGES_FTS + "(" + TABLE_MESSAGES_FTS + ") VALUES ('rebuild')");
+    }
+
+    /**
+     * Version 4: adds the rolling summary of older messages to every conversation.
+     *
+     * @param db The SQLite database instance.
+     */
+    private static void migrateToVersion4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_CONVERSATIONS + " ADD COLUMN " + COLUMN_SUMMARY + " TEXT");
+        db.execSQL("ALTER TABLE " + TABLE_CONVERSATIONS + " ADD COLUMN " + COLUMN_SUMMARY_THROUGH_TIMESTAMP
+                + " INTEGER NOT NULL DEFAULT 0");
+        db.execSQL("ALTER TABLE " + TABLE_CONVERSATIONS + " ADD COLUMN " + COLUMN_SUMMARY_THROUGH_ID
+                + " INTEGER NOT NULL DEFAULT 0");
+    }
+
+    /**
+     * Version 5: adds the outbox of user messages waiting for a reply.
+     *
+     * @param db The SQLite database instance.
+     */
+    private static void migrateToVersion5(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_OUTBOX + "("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + COLUMN_MESSAGE_ID + " INTEGER NOT NULL UNIQUE,"
+                + COLUMN_IDEMPOTENCY_KEY + " TEXT NOT NULL UNIQUE,"
+                + COLUMN_STATUS + " INTEGER NOT NULL,"
+                + COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0,"
+                + COLUMN_NEXT_ATTEMPT_AT + " INTEGER NOT NULL DEFAULT 0,"
+                + COLUMN_LAST_ERROR + " TEXT"
+                + ")");
+        db.execSQL("CREATE INDEX " + INDEX_OUTBOX_DUE + " ON " + TABLE_OUTBOX
+                + " (" + COLUMN_STATUS + ", " + COLUMN_NEXT_ATTEMPT_AT + ")");
+    }
+
+    /**
+     * Version 6: adds the archive of compressed message texts. Archiving or restoring a text
+     * moves it between the messages table and a block without changing it, so the full-text
+     * index is no longer updated when archive_block changes; archived messages stay searchable.
+     *
+     * @param db The SQLite database instance.
+     */
+    private static void migrateToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN " + COLUMN_ARCHIVE_BLOCK + " INTEGER");
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGE_ARCHIVE + "("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                + COLUMN_CONVERSATION_ID + " INTEGER NOT NULL,"
+                + COLUMN_FIRST_TIMESTAMP + " INTEGER NOT NULL,"
+                + COLUMN_FIRST_ID + " INTEGER NOT NULL,"
+                + COLUMN_LAST_TIMESTAMP + " INTEGER NOT NULL,"
+                + COLUMN_LAST_ID + " INTEGER NOT NULL,"
+                + COLUMN_MESSAGE_COUNT + " INTEGER NOT NULL,"
+                + COLUMN_DATA + " BLOB NOT NULL"
+                + ")");
+        db.execSQL("CREATE INDEX " + INDEX_ARCHIVE_CONVERSATION + " ON " + TABLE_MESSAGE_ARCHIVE
+                + " (" + COLUMN_CONVERSATION_ID + ", " + COLUMN_LAST_TIMESTAMP + ", " + COLUMN_LAST_ID + ")");
+
+        String unchangedBlock = " WHEN new." + COLUMN_ARCHIVE_BLOCK + " IS old." + COLUMN_ARCHIVE_BLOCK;
+        db.execSQL("DROP TRIGGER messages_fts_before_update");
+        db.execSQL("DROP TRIGGER messages_fts_after_update");
+        db.execSQL("CREATE TRIGGER messages_fts_before_update BEFORE UPDATE ON " + TABLE_MESSAGES + unchangedBlock
+                + " BEGIN DELETE FROM " + TABLE_MESSAGES_FTS + " WHERE " + COLUMN_DOCID + " = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER messages_fts_after_update AFTER UPDATE ON " + TABLE_MESSAGES + unchangedBlock
+                + " BEGIN INSERT INTO " + TABLE_MESSAGES_FTS + "(" + COLUMN_DOCID + ", " + COLUMN_CONTENT + ")"
+                + " VALUES (new." + COLUMN_ID + ", new." + COLUMN_CONTENT + "); END");
+    }
+
+    /**
+     * Version 7: links user messages to the reply that answers them, which may answer several
+     * messages sent in a burst. Setting the link leaves the text alone, so the full-text index is
+     * now only updated when the text itself changes.
+     *
+     * @param db The SQLite database instance.
+     */
+    private static void migrateToVersion7(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_MESSAGES + " ADD COLUMN " + COLUMN_REPLY_ID + " INTEGER");
+
+        String textChanged = " WHEN new." + COLUMN_CONTENT + " IS NOT old." + COLUMN_CONTENT
+                + " AND new." + COLUMN_ARCHIVE_BLOCK + " IS old." + COLUMN_ARCHIVE_BLOCK;
+        db.execSQL("DROP TRIGGER messages_fts_before_update");
+        db.execSQL("DROP TRIGGER messages_fts_after_update");
+        db.execSQL("CREATE TRIGGER messages_fts_before_update BEFORE UPDATE ON " + TABLE_MESSAGES + textChanged
+                + " BEGIN DELETE FROM " + TABLE_MESSAGES_FTS + " WHERE " + COLUMN_DOCID + " = old." + COLUMN_ID + "; END");
+        db.execSQL("CREATE TRIGGER messages_fts_after_update AFTER UPDATE ON " + TABLE_MESSAGES + textChanged
+                + " BEGIN INSERT INTO " + TABLE_MESSAGES_FTS + "(" + COLUMN_DOCID + ", " + COLUMN_CONTENT + ")"
+                + " VALUES (new." + COLUMN_ID + ", new." + COLUMN_CONTENT + "); END");
+    }
+
+    /**
+     * Returns outbox entries that were in flight when the process died to the queue.
+     * Runs once per process, when the shared connection is opened, before anything is claimed.
+     *
+     * @param db The SQLite database instance.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!db.isReadOnly()) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_STATUS, OutboxItem.STATUS_PENDING);
+            db.update(TABLE_OUTBOX, values, COLUMN_STATUS + " = " + OutboxItem.STATUS_IN_FLIGHT, null);
+        }
+    }
+
+    /**
+     * Creates a new, empty conversation.
+     *
+     * @param title The display title of the conversation.
+     * @return The id of the new conversation.
+     */
+    @Override
+    public long createConversation(String title) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_TITLE, title);
+        values.put(COLUMN_CREATED_AT, System.currentTimeMillis());
+        return this.getWritableDatabase().insertOrThrow(TABLE_CONVERSATIONS, null, values);
+    }
+
+    /**
+     * Retrieves the titles of all conversations.
+     *
+     * @return The titles by conversation id, in id order.
+     */
+    @Override
+    public Map<Long, String> getConversationTitles() {
+        Map<Long, String> titles = new LinkedHashMap<>();
+        Cursor cursor = this.getReadableDatabase().rawQuery("SELECT " + COLUMN_ID + ", " + COLUMN_TITLE
+                + " FROM " + TABLE_CONVERSATIONS + " ORDER BY " + COLUMN_ID, null);
+        while (cursor.moveToNext()) {
+            titles.put(cursor.getLong(0), cursor.getString(1));
+        }
+        cursor.close();
+        return titles;
     }
 
     /**
-     * Inserts a new message into the database.
+     * Hands out the id of a message that is about to be inserted, so it can be displayed and
+     * referenced before the insert commits. Ids increase and are never reused, not even after
+     * the history is cleared. Only the first call reads the database.
+     *
+     * @return A new, unused message id.
+     */
+    public int allocateMessageId() {
+        if (lastMessageId.get() < 0) {
+            loadLastMessageId();
+        }
+        return lastMessageId.incrementAndGet();
+    }
+
+    /**
+     * Reads the highest message id ever assigned, unless it has been read already. Called on a
+     * background thread before ids are allocated on the UI thread, so allocating never reads.
+     */
+    synchronized void loadLastMessageId() {
+        if (lastMessageId.get() < 0) {
+            // The sequence remembers ids of deleted messages; MAX(id) covers a missing sequence row
+            lastMessageId.set((int) DatabaseUtils.longForQuery(getReadableDatabase(),
+                    "SELECT MAX(IFNULL((SELECT seq FROM sqlite_sequence WHERE name = '" + TABLE_MESSAGES + "'), 0),"
+                            + " IFNULL((SELECT MAX(" + COLUMN_ID + ") FROM " + TABLE_MESSAGES + "), 0))", null));
+        }
+    }
+
+    /**
+     * Runs several writes in one transaction, so they share a single commit. The writes must
+     * use this helper; if one of them throws, none of them is stored.
+     *
+     * @param writes The writes to run, in order.
+     */
+    public synchronized void runInTransaction(Runnable writes) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            writes.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts a new message into the database and stores the assigned id in the message.
      *
      * @param message The message object to insert.
      */
-    public void addMessage(Message message) {
+    public synchronized void addMessage(Message message) {
+        insert(getInsertStatement(), message);
+    }
+
+    /**
+     * Inserts several messages in a single transaction and stores the assigned ids.
+     *
+     * @param messages The message objects to insert, in order.
+     */
+    @Override
+    public synchronized void addMessages(List<Message> messages) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        SQLiteStatement statement = getInsertStatement();
+        db.beginTransaction();
+        try {
+            for (Message message : messages) {
+                insert(statement, message);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the compiled insert statement, compiling it on first use.
+     *
+     * @return The reusable insert statement.
+     */
+    private SQLiteStatement getInsertStatement() {
+        if (insertStatement == null) {
+            insertStatement = this.getWritableDatabase().compileStatement("INSERT INTO " + TABLE_MESSAGES
+                    + " (" + COLUMN_ID + ", " + COLUMN_CONTENT + ", " + COLUMN_IS_USER + ", " + COLUMN_TIMESTAMP
+                    + ", " + COLUMN_CONVERSATION_ID + ")"
+                    + " VALUES (?, ?, ?, ?, ?)");
+        }
+        return insertStatement;
+    }
+
+    private void insert(SQLiteStatement statement, Message message) {
+        if (message.id == 0) {
+            message.id = allocateMessageId(); // Not assigned up front by the caller
+        }
+        statement.bindLong(1, message.id);
+        if (message.content != null) {
+            statement.bindString(2, message.content);
+        } else {
+            statement.bindNull(2);
+        }
+        statement.bindLong(3, message.isUser ? 1 : 0);
+        statement.bindLong(4, message.timestamp);
+        statement.bindLong(5, message.conversationId);
+        statement.executeInsert();
+    }
+
+    /**
+     * Stores a user message together with its outbox entry in one transaction. The entry is
+     * created in flight, because the caller sends the message right away.
+     *
+     * @param prompt The user message; its id is set.
+     * @return The claimed outbox entry.
+     */
+    @Override
+    public synchronized OutboxItem enqueue(Message prompt) {
         SQLiteDatabase db = this.getWritableDatabase();
+        OutboxItem item = new OutboxItem();
+        item.idempotencyKey = UUID.randomUUID().toString();
+        item.prompt = prompt;
+        db.beginTransaction();
+        try {
+            insert(getInsertStatement(), prompt);
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_MESSAGE_ID, prompt.id);
+            values.put(COLUMN_IDEMPOTENCY_KEY, item.idempotencyKey);
+            values.put(COLUMN_STATUS, OutboxItem.STATUS_IN_FLIGHT);
+            item.id = db.insertOrThrow(TABLE_OUTBOX, null, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return item;
+    }
+
+    /**
+     * Claims the oldest pending outbox entries that are due, marking them in flight.
+     *
+     * @param limit The maximum number of entries to claim.
+     * @param now   The current time in milliseconds.
+     * @return The claimed entries with their user messages, oldest first.
+     */
+    @Override
+    public synchronized List<OutboxItem> claim(int limit, long now) {
+        List<OutboxItem> items = new ArrayList<>();
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            String selectQuery = "SELECT o." + COLUMN_ID + " AS " + COLUMN_OUTBOX_ID
+                    + ", o." + COLUMN_IDEMPOTENCY_KEY + ", o." + COLUMN_ATTEMPTS + ", m.*"
+                    + " FROM " + TABLE_OUTBOX + " o JOIN " + TABLE_MESSAGES + " m"
+                    + " ON m." + COLUMN_ID + " = o." + COLUMN_MESSAGE_ID
+                    + " WHERE o." + COLUMN_STATUS + " = " + OutboxItem.STATUS_PENDING
+                    + " AND o." + COLUMN_NEXT_ATTEMPT_AT + " <= ?"
+                    + " ORDER BY o." + COLUMN_ID + " ASC"
+                    + " LIMIT " + limit;
+            Cursor cursor = db.rawQuery(selectQuery, new String[]{String.valueOf(now)});
+            List<Message> prompts = new ArrayList<>();
+            readMessages(cursor, prompts);
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                OutboxItem item = new OutboxItem();
+                item.id = cursor.getLong(0);
+                item.idempotencyKey = cursor.getString(1);
+                item.attempts = cursor.getInt(2);
+                item.prompt = prompts.get(i);
+                items.add(item);
+            }
+            cursor.close();
+
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_STATUS, OutboxItem.STATUS_IN_FLIGHT);
+            for (OutboxItem item : items) {
+                db.update(TABLE_OUTBOX, values, COLUMN_ID + " = ?", new String[]{String.valueOf(item.id)});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return items;
+    }
+
+    /**
+     * Removes an answered outbox entry and stores its reply in the same transaction.
+     * The idempotency key makes a second completion of the same entry a no-op.
+     *
+     * @param item  The claimed entry.
+     * @param reply The reply to store, or null if the message was answered some other way.
+     * @return False if the entry was already completed, in which case nothing is stored.
+     */
+    @Override
+    public boolean complete(OutboxItem item, Message reply) {
+        return complete(Collections.singletonList(item), reply);
+    }
+
+    /**
+     * Removes the answered outbox entries of a burst, stores their common reply and links every
+     * prompt to it, in the same transaction. The idempotency keys make a second completion of
+     * the same entries a no-op.
+     *
+     * @param items The claimed entries.
+     * @param reply The reply to store, or null if the messages were answered some other way.
+     * @return False if any entry was already completed, in which case nothing is changed.
+     */
+    @Override
+    public synchronized boolean complete(List<OutboxItem> items, Message reply) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        String[] keys = new String[items.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = items.get(i).idempotencyKey;
+        }
+        String selection = COLUMN_IDEMPOTENCY_KEY + " IN (" + placeholders(keys.length) + ")";
+        db.beginTransaction();
+        try {
+            if (DatabaseUtils.queryNumEntries(db, TABLE_OUTBOX, selection, keys) < keys.length) {
+                db.setTransactionSuccessful(); // Nothing changed; keeps an enclosing transaction intact
+                return false;
+            }
+            db.delete(TABLE_OUTBOX, selection, keys);
+            if (reply != null) {
+                insert(getInsertStatement(), reply);
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_REPLY_ID, reply.id);
+                for (OutboxItem item : items) {
+                    db.update(TABLE_MESSAGES, values, COLUMN_ID + " = ?",
+                            new String[]{String.valueOf(item.prompt.id)});
+                }
+            }
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder marks = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            marks.append(i == 0 ? "?" : ", ?");
+        }
+        return marks.toString();
+    }
+
+    /**
+     * Returns an outbox entry to the queue after a failed attempt.
+     *
+     * @param item          The claimed entry; the stored attempt count is one more than its own.
+     * @param error         The reason of the failure.
+     * @param nextAttemptAt The earliest time of the next attempt, in milliseconds.
+     */
+    @Override
+    public synchronized void release(OutboxItem item, String error, long nextAttemptAt) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATUS, OutboxItem.STATUS_PENDING);
+        // Not counted on the item, so a write that is rolled back and run again counts once
+        values.put(COLUMN_ATTEMPTS, item.attempts + 1);
+        values.put(COLUMN_NEXT_ATTEMPT_AT, nextAttemptAt);
+        values.put(COLUMN_LAST_ERROR, error);
+        this.getWritableDatabase().update(TABLE_OUTBOX, values,
+                COLUMN_ID + " = ?", new String[]{String.valueOf(item.id)});
+    }
+
+    /**
+     * Returns an outbox entry to the queue without counting an attempt.
+     *
+     * @param item          The claimed entry; its attempt count is kept.
+     * @param error         The reason the send stopped.
+     * @param nextAttemptAt The earliest time of the next attempt, in milliseconds.
+     */
+    @Override
+    public synchronized void requeue(OutboxItem item, String error, long nextAttemptAt) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_STATUS, OutboxItem.STATUS_PENDING);
+        values.put(COLUMN_NEXT_ATTEMPT_AT, nextAttemptAt);
+        values.put(COLUMN_LAST_ERROR, error);
+        this.getWritableDatabase().update(TABLE_OUTBOX, values,
+                COLUMN_ID + " = ?", new String[]{String.valueOf(item.id)});
+    }
+
+    /**
+     * Marks an outbox entry as failed for good.
+     *
+     * @param item  The claimed entry.
+     * @param error The reason of the last failure.
+     */
+    @Override
+    public synchronized void fail(OutboxItem item, String error) {
         ContentValues values = new ContentValues();
-        values.put(COLUMN_CONTENT, message.content);
-        values.put(COLUMN_IS_USER, message.isUser ? 1 : 0);
-        values.put(COLUMN_TIMESTAMP, message.timestamp);
+        values.put(COLUMN_STATUS, OutboxItem.STATUS_FAILED);
+        values.put(COLUMN_ATTEMPTS, item.attempts + 1);
+        values.put(COLUMN_LAST_ERROR, error);
+        this.getWritableDatabase().update(TABLE_OUTBOX, values,
+                COLUMN_ID + " = ?", new String[]{String.valueOf(item.id)});
+    }
 
-        db.insert(TABLE_MESSAGES, null, values);
-        db.close();
+    /**
+     * @return The earliest time a pending outbox entry is due, or -1 if none is pending.
+     */
+    @Override
+    public long getNextAttemptAt() {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT MIN(" + COLUMN_NEXT_ATTEMPT_AT + ") FROM " + TABLE_OUTBOX
+                + " WHERE " + COLUMN_STATUS + " = " + OutboxItem.STATUS_PENDING, null);
+        long nextAttemptAt = cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        cursor.close();
+        return nextAttemptAt;
     }
 
     /**
@@ -91,31 +692,666 @@ public class MessageDatabaseHelper extends SQLiteOpenHelper {
         String selectQuery = "SELECT * FROM " + TABLE_MESSAGES + " ORDER BY " + COLUMN_TIMESTAMP + " ASC";
         SQLiteDatabase db = this.getReadableDatabase();
         Cursor cursor = db.rawQuery(selectQuery, null);
+        readMessages(cursor, messages);
+        cursor.close();
 
-        if (cursor.moveToFirst()) {
-            do {
-                Message message = new Message();
-                message.id = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID));
-                message.content = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CONTENT));
-                message.isUser = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_IS_USER)) == 1;
-                message.timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP));
+        return messages;
+    }
 
-                messages.add(message);
-            } while (cursor.moveToNext());
+    /**
+     * Retrieves the newest page of messages of a conversation.
+     *
+     * @param conversationId The conversation to read.
+     * @param limit          The maximum number of messages to return.
+     * @return Up to {@code limit} of the newest messages, ordered by timestamp (ascending).
+     */
+    public List<Message> getLatestMessages(long conversationId, int limit) {
+        String selectQuery = "SELECT * FROM " + TABLE_MESSAGES
+                + " WHERE " + COLUMN_CONVERSATION_ID + " = ?"
+                + " ORDER BY " + COLUMN_TIMESTAMP + " DESC, " + COLUMN_ID + " DESC"
+                + " LIMIT " + limit;
+        return queryPage(selectQuery, new String[]{String.valueOf(conversationId)});
+    }
+
+    /**
+     * Retrieves the page of messages directly older than the given message, within its conversation.
+     * The (timestamp, id) pair of that message is used as the keyset cursor and is resolved
+     * through the conversation index, so a page costs O(log n + page) however far back it is.
+     *
+     * @param oldest The oldest message currently loaded.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to {@code limit} older messages, ordered by timestamp (ascending).
+     */
+    @Override
+    public List<Message> getMessagesBefore(Message oldest, int limit) {
+        String selectQuery = "SELECT * FROM " + TABLE_MESSAGES
+                + " WHERE " + COLUMN_CONVERSATION_ID + " = ?"
+                + " AND (" + COLUMN_TIMESTAMP + " < ?"
+                + " OR (" + COLUMN_TIMESTAMP + " = ? AND " + COLUMN_ID + " < ?))"
+                + " ORDER BY " + COLUMN_TIMESTAMP + " DESC, " + COLUMN_ID + " DESC"
+                + " LIMIT " + limit;
+        String timestamp = String.valueOf(oldest.timestamp);
+        return queryPage(selectQuery, new String[]{
+                String.valueOf(oldest.conversationId), timestamp, timestamp, String.valueOf(oldest.id)});
+    }
+
+    /**
+     * Retrieves the page of messages directly newer than a (timestamp, id) position, within a conversation.
+     *
+     * @param conversationId The conversation to read.
+     * @param timestamp      The timestamp of the position.
+     * @param id             The message id of the position.
+     * @param limit          The maximum number of messages to return.
+     * @return Up to {@code limit} newer messages, ordered by timestamp (ascending).
+     */
+    @Override
+    public List<Message> getMessagesAfter(long conversationId, long timestamp, int id, int limit) {
+        List<Message> messages = new ArrayList<>();
+
+        String selectQuery = "SELECT * FROM " + TABLE_MESSAGES
+                + " WHERE " + COLUMN_CONVERSATION_ID + " = ?"
+                + " AND (" + COLUMN_TIMESTAMP + " > ?"
+                + " OR (" + COLUMN_TIMESTAMP + " = ? AND " + COLUMN_ID + " > ?))"
+                + " ORDER BY " + COLUMN_TIMESTAMP + " ASC, " + COLUMN_ID + " ASC"
+                + " LIMIT " + limit;
+        String position = String.valueOf(timestamp);
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(selectQuery, new String[]{
+                String.valueOf(conversationId), position, position, String.valueOf(id)});
+        readMessages(cursor, messages);
+        cursor.close();
+
+        return messages;
+    }
+
+    /**
+     * Reads the rolling summary of a conversation.
+     *
+     * @param conversationId The conversation to read.
+     * @return The stored summary; empty if none was saved yet or the conversation does not exist.
+     */
+    @Override
+    public ConversationSummary getConversationSummary(long conversationId) {
+        ConversationSummary summary = new ConversationSummary();
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.query(TABLE_CONVERSATIONS,
+                new String[]{COLUMN_SUMMARY, COLUMN_SUMMARY_THROUGH_TIMESTAMP, COLUMN_SUMMARY_THROUGH_ID},
+                COLUMN_ID + " = ?", new String[]{String.valueOf(conversationId)}, null, null, null);
+        if (cursor.moveToFirst() && !cursor.isNull(0)) {
+            summary.text = cursor.getString(0);
+            summary.throughTimestamp = cursor.getLong(1);
+            summary.throughId = cursor.getInt(2);
         }
+        cursor.close();
 
+        return summary;
+    }
+
+    /**
+     * Stores the rolling summary of a conversation, replacing the previous one.
+     *
+     * @param conversationId The conversation to update.
+     * @param summary        The new summary.
+     */
+    @Override
+    public void saveConversationSummary(long conversationId, ConversationSummary summary) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_SUMMARY, summary.text);
+        values.put(COLUMN_SUMMARY_THROUGH_TIMESTAMP, summary.throughTimestamp);
+        values.put(COLUMN_SUMMARY_THROUGH_ID, summary.throughId);
+        this.getWritableDatabase().update(TABLE_CONVERSATIONS, values,
+                COLUMN_ID + " = ?", new String[]{String.valueOf(conversationId)});
+    }
+
+    /**
+     * Runs a newest-first page query and returns its rows in ascending order.
+     *
+     * @param selectQuery   The query, ordered by timestamp and id (descending).
+     * @param selectionArgs The query arguments, or null.
+     * @return The page, ordered by timestamp (ascending).
+     */
+    private List<Message> queryPage(String selectQuery, String[] selectionArgs) {
+        List<Message> messages = new ArrayList<>();
+
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery(selectQuery, selectionArgs);
+        readMessages(cursor, messages);
         cursor.close();
-        db.close();
 
+        Collections.reverse(messages);
         return messages;
     }
 
     /**
-     * Deletes all messages from the database.
+     * Reads all rows of a cursor into Message objects, resolving the column indices once.
+     * The texts of archived messages are taken from their decompressed blocks.
+     *
+     * @param cursor   The cursor positioned before its first row.
+     * @param messages The list to append the messages to.
+     */
+    private void readMessages(Cursor cursor, List<Message> messages) {
+        int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+        int contentIndex = cursor.getColumnIndexOrThrow(COLUMN_CONTENT);
+        int isUserIndex = cursor.getColumnIndexOrThrow(COLUMN_IS_USER);
+        int timestampIndex = cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP);
+        int conversationIdIndex = cursor.getColumnIndexOrThrow(COLUMN_CONVERSATION_ID);
+        int archiveBlockIndex = cursor.getColumnIndexOrThrow(COLUMN_ARCHIVE_BLOCK);
+        int replyIdIndex = cursor.getColumnIndexOrThrow(COLUMN_REPLY_ID);
+
+        while (cursor.moveToNext()) {
+            Message message = new Message();
+            message.id = cursor.getInt(idIndex);
+            if (cursor.isNull(archiveBlockIndex)) {
+                message.content = cursor.getString(contentIndex);
+            } else {
+                ArchiveBlock block = getArchiveBlock(cursor.getLong(archiveBlockIndex));
+                // Without its block, the message was deleted by retention after its row was read
+                message.content = block != null ? block.getContent(message.id) : "";
+            }
+            message.isUser = cursor.getInt(isUserIndex) == 1;
+            message.timestamp = cursor.getLong(timestampIndex);
+            message.conversationId = cursor.getLong(conversationIdIndex);
+            message.replyId = cursor.getInt(replyIdIndex); // 0 while unanswered
+
+            messages.add(message);
+        }
+    }
+
+    /**
+     * Returns a decompressed archive block, reading it only if it is not in the cache.
+     * Blocks never change once written and their ids are not reused, so cached blocks stay valid.
+     *
+     * @param blockId The id of the block.
+     * @return The block, or null if it has been deleted.
+     */
+    private ArchiveBlock getArchiveBlock(long blockId) {
+        ArchiveBlock block = archiveCache.get(blockId);
+        if (block != null) {
+            return block;
+        }
+        Cursor cursor = this.getReadableDatabase().rawQuery("SELECT " + COLUMN_DATA + " FROM " + TABLE_MESSAGE_ARCHIVE
+                + " WHERE " + COLUMN_ID + " = ?", new String[]{String.valueOf(blockId)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            block = ArchiveBlock.decode(cursor.getBlob(0));
+        } catch (IOException e) {
+            throw new SQLiteDatabaseCorruptException("Archive block " + blockId + " is damaged: " + e.getMessage());
+        } finally {
+            cursor.close();
+        }
+        archiveCache.put(blockId, block);
+        return block;
+    }
+
+    /**
+     * Searches the whole history for messages containing all words of the query.
+     * The last word also matches as a prefix, so results appear while the user is typing.
+     * <p>
+     * Matches are ranked by BM25 computed from the index statistics only; message rows and
+     * highlighted snippets are loaded for the requested page alone.
+     *
+     * @param query  The text typed by the user.
+     * @param offset The number of best matches to skip.
+     * @param limit  The maximum number of results to return.
+     * @return The page of results, best match first.
+     */
+    public List<SearchResult> searchMessages(String query, int offset, int limit) {
+        List<SearchResult> results = new ArrayList<>();
+        String matchQuery = toMatchQuery(query);
+        if (matchQuery == null || limit <= 0) {
+            return results;
+        }
+
+        // Rank every match from its matchinfo statistics, keeping only the best offset + limit
+        SQLiteDatabase db = this.getReadableDatabase();
+        PriorityQueue<RankedMatch> best = new PriorityQueue<>();
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_DOCID + ", matchinfo(" + TABLE_MESSAGES_FTS + ", 'pcnalx')"
+                + " FROM " + TABLE_MESSAGES_FTS + " WHERE " + TABLE_MESSAGES_FTS + " MATCH ?",
+                new String[]{matchQuery});
+        while (cursor.moveToNext()) {
+            RankedMatch match = new RankedMatch(cursor.getLong(0), bm25(cursor.getBlob(1)));
+            if (best.size() < offset + limit) {
+                best.add(match);
+            } else if (match.compareTo(best.peek()) > 0) {
+                best.poll();
+                best.add(match);
+            }
+        }
+        cursor.close();
+
+        List<RankedMatch> ranked = new ArrayList<>(best);
+        Collections.sort(ranked, Collections.reverseOrder());
+        if (ranked.size() <= offset) {
+            return results;
+        }
+        ranked = ranked.subList(offset, ranked.size());
+
+        // Load the rows and snippets of the page only
+        StringBuilder ids = new StringBuilder();
+        for (RankedMatch match : ranked) {
+            if (ids.length() > 0) {
+                ids.append(',');
+            }
+            ids.append(match.docid);
+        }
+        cursor = db.rawQuery("SELECT m.*, snippet(" + TABLE_MESSAGES_FTS + ", ?, ?, '\u2026', -1, " + SNIPPET_TOKENS + ")"
+                + " FROM " + TABLE_MESSAGES_FTS + " JOIN " + TABLE_MESSAGES + " m"
+                + " ON m." + COLUMN_ID + " = " + TABLE_MESSAGES_FTS + "." + COLUMN_DOCID
+                + " WHERE " + TABLE_MESSAGES_FTS + " MATCH ?"
+                + " AND " + TABLE_MESSAGES_FTS + "." + COLUMN_DOCID + " IN (" + ids + ")",
+                new String[]{String.valueOf(SearchResult.MATCH_START), String.valueOf(SearchResult.MATCH_END), matchQuery});
+        List<Message> messages = new ArrayList<>();
+        readMessages(cursor, messages);
+        int snippetIndex = cursor.getColumnCount() - 1;
+        Map<Long, Integer> rowPositions = new HashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            rowPositions.put((long) messages.get(i).id, i);
+        }
+
+        for (RankedMatch match : ranked) {
+            Integer position = rowPositions.get(match.docid);
+            if (position != null && cursor.moveToPosition(position)) {
+                Message message = messages.get(position);
+                // snippet() reads the text from the messages table, which archived messages leave empty
+                String snippet = cursor.isNull(snippetIndex)
+                        ? buildSnippet(message.content, query) : cursor.getString(snippetIndex);
+                results.add(new SearchResult(message, snippet, match.score));
+            }
+        }
+        cursor.close();
+        return results;
+    }
+
+    /**
+     * Converts free text into an FTS query that matches all of its words.
+     * Every word is quoted, so punctuation typed by the user cannot break the query syntax.
+     *
+     * @param query The text typed by the user.
+     * @return The MATCH expression, or null if the text contains no words.
+     */
+    private static String toMatchQuery(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : query.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                matchQuery.append('"').append(word).append("\" ");
+            }
+        }
+        if (matchQuery.length() == 0) {
+            return null;
+        }
+        // Let the last word match as a prefix
+        matchQuery.setLength(matchQuery.length() - 1);
+        return matchQuery.append('*').toString();
+    }
+
+    /**
+     * Builds a snippet the way the FTS snippet() function does, for a text that is not in the
+     * messages table: the words around the first match, with every matched word marked.
+     *
+     * @param text  The text of the message.
+     * @param query The text typed by the user.
+     * @return The highlighted excerpt.
      */
-    public void clearAllMessages() {
+    private static String buildSnippet(String text, String query) {
+        if (text == null) {
+            return "";
+        }
+        List<String> words = new ArrayList<>();
+        for (String word : query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        List<int[]> tokens = new ArrayList<>();
+        Matcher matcher = SNIPPET_TOKEN.matcher(text);
+        while (matcher.find()) {
+            tokens.add(new int[]{matcher.start(), matcher.end()});
+        }
+
+        int firstMatch = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            if (isQueryWord(text.substring(tokens.get(i)[0], tokens.get(i)[1]), words)) {
+                firstMatch = i;
+                break;
+            }
+        }
+        int start = Math.max(0, firstMatch - 2); // Keep a little context before the match
+        int end = Math.min(tokens.size(), start + SNIPPET_TOKENS);
+
+        StringBuilder snippet = new StringBuilder();
+        if (start > 0) {
+            snippet.append('\u2026');
+        }
+        int position = start < end ? tokens.get(start)[0] : 0;
+        for (int i = start; i < end; i++) {
+            int[] token = tokens.get(i);
+            String word = text.substring(token[0], token[1]);
+            snippet.append(text, position, token[0]);
+            if (isQueryWord(word, words)) {
+                snippet.append(SearchResult.MATCH_START).append(word).append(SearchResult.MATCH_END);
+            } else {
+                snippet.append(word);
+            }
+            position = token[1];
+        }
+        if (end < tokens.size()) {
+            snippet.append('\u2026');
+        }
+        return snippet.toString();
+    }
+
+    /**
+     * @param token A word of a message.
+     * @param words The lower-case words of the query; the last one also matches as a prefix.
+     * @return True if the word is matched by the query.
+     */
+    private static boolean isQueryWord(String token, List<String> words) {
+        String word = token.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < words.size(); i++) {
+            if (word.equals(words.get(i)) || (i == words.size() - 1 && word.startsWith(words.get(i)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the BM25 score of one match from an FTS4 matchinfo blob in "pcnalx" format.
+     *
+     * @param matchinfo The matchinfo blob of the row.
+     * @return The relevance score.
+     */
+    private static double bm25(byte[] matchinfo) {
+        IntBuffer info = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = info.get(0);
+        int columnCount = info.get(1);
+        int documentCount = info.get(2);
+        int averageLengthOffset = 3;
+        int lengthOffset = averageLengthOffset + columnCount;
+        int hitsOffset = lengthOffset + columnCount;
+
+        double score = 0;
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int hits = hitsOffset + 3 * (column + phrase * columnCount);
+                int termFrequency = info.get(hits);
+                if (termFrequency == 0) {
+                    continue;
+                }
+                int documentsWithHits = info.get(hits + 2);
+                double idf = Math.log(1 + (documentCount - documentsWithHits + 0.5) / (documentsWithHits + 0.5));
+                double lengthRatio = (double) info.get(lengthOffset + column)
+                        / Math.max(1, info.get(averageLengthOffset + column));
+                score += idf * termFrequency * (BM25_K1 + 1)
+                        / (termFrequency + BM25_K1 * (1 - BM25_B + BM25_B * lengthRatio));
+            }
+        }
+        return score;
+    }
+
+    /**
+     * A search hit before its row is loaded. Orders by score, then by recency.
+     */
+    private static final class RankedMatch implements Comparable<RankedMatch> {
+        final long docid;
+        final double score;
+
+        RankedMatch(long docid, double score) {
+            this.docid = docid;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(RankedMatch other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : Long.compare(docid, other.docid);
+        }
+    }
+
+    /**
+     * Compresses the texts of the oldest uncompressed messages of one conversation into a block.
+     * Each conversation continues after its newest block, through the conversation index, so a
+     * step costs the same however much is archived already. Messages stored later with an
+     * older timestamp stay uncompressed.
+     *
+     * @param sentBefore Only messages sent before this time, in milliseconds, are compressed.
+     * @param blockSize  The number of messages compressed together.
+     * @return The number of messages compressed; 0 once no conversation has a full block due.
+     */
+    @Override
+    public synchronized int archiveMessages(long sentBefore, int blockSize) {
         SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_MESSAGES, null, null);
-        db.close();
+        for (long conversationId : getConversationIds(db)) {
+            int archived = archiveBlock(db, conversationId, sentBefore, blockSize);
+            if (archived > 0) {
+                return archived;
+            }
+        }
+        return 0;
+    }
+
+    private int archiveBlock(SQLiteDatabase db, long conversationId, long sentBefore, int blockSize) {
+        String conversation = String.valueOf(conversationId);
+        db.beginTransaction();
+        try {
+            long afterTimestamp = Long.MIN_VALUE;
+            int afterId = 0;
+            Cursor cursor = db.rawQuery("SELECT " + COLUMN_LAST_TIMESTAMP + ", " + COLUMN_LAST_ID
+                    + " FROM " + TABLE_MESSAGE_ARCHIVE + " WHERE " + COLUMN_CONVERSATION_ID + " = ?"
+                    + " ORDER BY " + COLUMN_LAST_TIMESTAMP + " DESC, " + COLUMN_LAST_ID + " DESC LIMIT 1",
+                    new String[]{conversation});
+            if (cursor.moveToFirst()) {
+                afterTimestamp = cursor.getLong(0);
+                afterId = cursor.getInt(1);
+            }
+            cursor.close();
+
+            // The separate lower bound lets SQLite seek to the end of the archive in the index
+            String after = String.valueOf(afterTimestamp);
+            cursor = db.rawQuery("SELECT * FROM " + TABLE_MESSAGES
+                    + " WHERE " + COLUMN_CONVERSATION_ID + " = ?"
+                    + " AND " + COLUMN_TIMESTAMP + " >= ? AND " + COLUMN_TIMESTAMP + " < ?"
+                    + " AND (" + COLUMN_TIMESTAMP + " > ? OR " + COLUMN_ID + " > ?)"
+                    + " AND " + COLUMN_ARCHIVE_BLOCK + " IS NULL"
+                    + " ORDER BY " + COLUMN_TIMESTAMP + " ASC, " + COLUMN_ID + " ASC"
+                    + " LIMIT " + blockSize,
+                    new String[]{conversation, after, String.valueOf(sentBefore), after, String.valueOf(afterId)});
+            List<Message> messages = new ArrayList<>();
+            readMessages(cursor, messages);
+            cursor.close();
+            if (messages.size() < blockSize) {
+                db.setTransactionSuccessful();
+                return 0; // A small block would compress poorly; wait until a full one is due
+            }
+
+            Message first = messages.get(0);
+            Message last = messages.get(messages.size() - 1);
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CONVERSATION_ID, conversationId);
+            values.put(COLUMN_FIRST_TIMESTAMP, first.timestamp);
+            values.put(COLUMN_FIRST_ID, first.id);
+            values.put(COLUMN_LAST_TIMESTAMP, last.timestamp);
+            values.put(COLUMN_LAST_ID, last.id);
+            values.put(COLUMN_MESSAGE_COUNT, messages.size());
+            values.put(COLUMN_DATA, ArchiveBlock.encode(messages));
+            long blockId = db.insertOrThrow(TABLE_MESSAGE_ARCHIVE, null, values);
+
+            SQLiteStatement detach = db.compileStatement("UPDATE " + TABLE_MESSAGES
+                    + " SET " + COLUMN_CONTENT + " = NULL, " + COLUMN_ARCHIVE_BLOCK + " = ?"
+                    + " WHERE " + COLUMN_ID + " = ?");
+            for (Message message : messages) {
+                detach.bindLong(1, blockId);
+                detach.bindLong(2, message.id);
+                detach.executeUpdateDelete();
+            }
+            detach.close();
+            db.setTransactionSuccessful();
+            return messages.size();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Deletes the oldest messages of one conversation, compressed or not, together with their
+     * outbox entries and the blocks that no longer hold any message.
+     *
+     * @param sentBefore Only messages sent before this time, in milliseconds, are deleted.
+     * @param limit      The maximum number of messages to delete.
+     * @return The number of messages deleted; 0 once no message is due.
+     */
+    @Override
+    public synchronized int deleteMessages(long sentBefore, int limit) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        for (long conversationId : getConversationIds(db)) {
+            int deleted = deleteOldest(db, conversationId, sentBefore, limit);
+            if (deleted > 0) {
+                return deleted;
+            }
+        }
+        return 0;
+    }
+
+    private int deleteOldest(SQLiteDatabase db, long conversationId, long sentBefore, int limit) {
+        String conversation = String.valueOf(conversationId);
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("SELECT * FROM " + TABLE_MESSAGES
+                    + " WHERE " + COLUMN_CONVERSATION_ID + " = ? AND " + COLUMN_TIMESTAMP + " < ?"
+                    + " ORDER BY " + COLUMN_TIMESTAMP + " ASC, " + COLUMN_ID + " ASC"
+                    + " LIMIT " + limit,
+                    new String[]{conversation, String.valueOf(sentBefore)});
+            List<Message> messages = new ArrayList<>();
+            readMessages(cursor, messages);
+            cursor.moveToPosition(-1);
+            boolean[] archived = new boolean[messages.size()];
+            int archiveBlockIndex = cursor.getColumnIndexOrThrow(COLUMN_ARCHIVE_BLOCK);
+            for (int i = 0; cursor.moveToNext(); i++) {
+                archived[i] = !cursor.isNull(archiveBlockIndex);
+            }
+            cursor.close();
+            if (messages.isEmpty()) {
+                db.setTransactionSuccessful();
+                return 0;
+            }
+
+            // The full-text index finds the words to remove in the stored text, so archived
+            // texts are put back first; clearing archive_block keeps the index untouched
+            SQLiteStatement restore = db.compileStatement("UPDATE " + TABLE_MESSAGES
+                    + " SET " + COLUMN_CONTENT + " = ?, " + COLUMN_ARCHIVE_BLOCK + " = NULL"
+                    + " WHERE " + COLUMN_ID + " = ?");
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                if (archived[i]) {
+                    if (message.content != null) {
+                        restore.bindString(1, message.content);
+                    } else {
+                        restore.bindNull(1);
+                    }
+                    restore.bindLong(2, message.id);
+                    restore.executeUpdateDelete();
+                }
+                String[] id = {String.valueOf(message.id)};
+                db.delete(TABLE_OUTBOX, COLUMN_MESSAGE_ID + " = ?", id);
+                db.delete(TABLE_MESSAGES, COLUMN_ID + " = ?", id);
+            }
+            restore.close();
+
+            // Every message up to the last deleted one is gone, so are blocks that end there
+            Message last = messages.get(messages.size() - 1);
+            String lastTimestamp = String.valueOf(last.timestamp);
+            db.delete(TABLE_MESSAGE_ARCHIVE, COLUMN_CONVERSATION_ID + " = ? AND (" + COLUMN_LAST_TIMESTAMP + " < ?"
+                            + " OR (" + COLUMN_LAST_TIMESTAMP + " = ? AND " + COLUMN_LAST_ID + " <= ?))",
+                    new String[]{conversation, lastTimestamp, lastTimestamp, String.valueOf(last.id)});
+            db.setTransactionSuccessful();
+            return messages.size();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Returns unused pages at the end of the database file to the file system.
+     * <p>
+     * That needs the database in incremental auto-vacuum mode, which only a full VACUUM can
+     * switch on. The switch is made once, while the database is small or once a quarter of it
+     * is unused, since a full VACUUM rewrites the whole file.
+     *
+     * @param maxPages The maximum number of pages to return.
+     * @return The number of unused pages left, or 0 if they cannot be returned step by step yet.
+     */
+    @Override
+    public synchronized int vacuum(int maxPages) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+            long pages = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            if (pages <= SMALL_DATABASE_PAGES || freePages * 4 >= pages) {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            }
+            return 0;
+        }
+        if (freePages > 0) {
+            // Every row of this pragma returns one page, so all of them have to be read
+            Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+            cursor.getCount();
+            cursor.close();
+        }
+        return (int) DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+    }
+
+    private static List<Long> getConversationIds(SQLiteDatabase db) {
+        List<Long> ids = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_ID + " FROM " + TABLE_CONVERSATIONS
+                + " ORDER BY " + COLUMN_ID, null);
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    /**
+     * Deletes all messages from the database, together with the summaries of them
+     * and the outbox entries waiting for replies.
+     */
+    public synchronized void clearAllMessages() {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_MESSAGES, null, null);
+            db.delete(TABLE_OUTBOX, null, null);
+            db.delete(TABLE_MESSAGE_ARCHIVE, null, null);
+            // Archived messages have no text to remove their words with; rebuilding from the
+            // now empty table clears the index completely
+            db.execSQL("INSERT INTO " + TABLE_MESSAGES_FTS + "(" + TABLE_MESSAGES_FTS + ") VALUES ('rebuild')");
+            ContentValues values = new ContentValues();
+            values.putNull(COLUMN_SUMMARY);
+            values.put(COLUMN_SUMMARY_THROUGH_TIMESTAMP, 0);
+            values.put(COLUMN_SUMMARY_THROUGH_ID, 0);
+            db.update(TABLE_CONVERSATIONS, values, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Releases the compiled statement and closes the shared connection.
+     */
+    @Override
+    public synchronized void close() {
+        if (insertStatement != null) {
+            insertStatement.close();
+            insertStatement = null;
+        }
+        super.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,146 @@
+package uz.iqbolshoh.socialchat;
+
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Renders message text on a background thread and keeps the results, so binding a row on
+ * the UI thread neither parses Markdown nor measures glyphs.
+ * <p>
+ * Bot replies are rendered from Markdown to spans and then precomputed with
+ * {@link PrecomputedTextCompat}, which measures the text for the bubbles' text style. The
+ * results are kept in an LRU cache keyed by message id, which is stable because saved
+ * messages never change and ids are never reused. The cache is shared process-wide, so it
+ * survives activity recreation.
+ */
+public class MessageTextCache {
+    private static final int MAX_CACHED_CHARS = 512 * 1024; // Total text length kept in the cache
+
+    private static MessageTextCache instance;
+
+    private final LruCache<Integer, PrecomputedTextCompat> cache = new LruCache<Integer, PrecomputedTextCompat>(MAX_CACHED_CHARS) {
+        @Override
+        protected int sizeOf(Integer id, PrecomputedTextCompat text) {
+            return Math.max(1, text.length());
+        }
+    };
+    private final Map<Integer, Future<PrecomputedTextCompat>> pending = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-text");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private PrecomputedTextCompat.Params params;
+
+    /**
+     * @return The process-wide cache.
+     */
+    public static synchronized MessageTextCache getInstance() {
+        if (instance == null) {
+            instance = new MessageTextCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Renders the text of a message without precomputing it, for text that is still changing.
+     *
+     * @param message The message to render.
+     * @return Styled text for bot replies, the plain content for user messages.
+     */
+    public static CharSequence render(Message message) {
+        String content = message.content != null ? message.content : "";
+        return message.isUser ? content : MarkdownRenderer.render(content);
+    }
+
+    /**
+     * Sets the text style that precomputed text is measured for. A different style than before
+     * drops everything cached, e.g. after the font scale changed.
+     *
+     * @param newParams The metrics parameters of the bubble text views.
+     */
+    public synchronized void setParams(PrecomputedTextCompat.Params newParams) {
+        if (!newParams.equals(params)) {
+            params = newParams;
+            cache.evictAll();
+            pending.clear();
+        }
+    }
+
+    /**
+     * @return True once {@link #setParams} has been called.
+     */
+    public synchronized boolean hasParams() {
+        return params != null;
+    }
+
+    /**
+     * @param message A saved message.
+     * @return Its precomputed text, or null if it is not cached yet.
+     */
+    public PrecomputedTextCompat get(Message message) {
+        return cache.get(message.id);
+    }
+
+    /**
+     * Returns the precomputed text of a saved message, rendering it in the background if
+     * it is not cached yet. Concurrent requests for the same message share one task.
+     *
+     * @param message A saved message.
+     * @return A future of the precomputed text.
+     */
+    public synchronized Future<PrecomputedTextCompat> getTextFuture(Message message) {
+        PrecomputedTextCompat cached = cache.get(message.id);
+        if (cached != null) {
+            FutureTask<PrecomputedTextCompat> done = new FutureTask<>(() -> cached);
+            done.run();
+            return done;
+        }
+        Future<PrecomputedTextCompat> future = pending.get(message.id);
+        if (future != null) {
+            return future;
+        }
+
+        PrecomputedTextCompat.Params taskParams = params;
+        FutureTask<PrecomputedTextCompat> task = new FutureTask<>(() -> {
+            PrecomputedTextCompat text = PrecomputedTextCompat.create(render(message), taskParams);
+            synchronized (this) {
+                if (taskParams.equals(params)) {
+                    cache.put(message.id, text);
+                }
+                pending.remove(message.id);
+            }
+            return text;
+        });
+        pending.put(message.id, task);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Starts rendering messages that are about to be displayed, newest first.
+     * Does nothing until the text style is known.
+     *
+     * @param messages Saved messages, ordered by timestamp (ascending).
+     */
+    public void prefetch(List<Message> messages) {
+        if (!hasParams()) {
+            return;
+        }
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            Message message = messages.get(i);
+            if (message.id != 0 && cache.get(message.id) == null) {
+                getTextFuture(message);
+            }
+        }
+    }
+}
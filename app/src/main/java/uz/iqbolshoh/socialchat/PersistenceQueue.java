@@ -0,0 +1,417 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Writes messages to the database on a single background thread, so the UI thread never waits
+ * for the disk.
+ * <p>
+ * Writes run in the order they were submitted. Whatever has queued up while a transaction was
+ * committing is written together in the next one, so a burst of writes shares one commit.
+ * Message ids are assigned when a write is submitted, which lets the UI show and reference a
+ * message right away; the returned future completes once the write is committed and would
+ * survive the process being killed.
+ * <p>
+ * It is the only writer of the database: the outbox drainer, storage maintenance, history
+ * import and context summaries write through {@link #getStore()}, so their writes are ordered
+ * and committed together with the UI's.
+ */
+public class PersistenceQueue {
+
+    private static final int MAX_BATCH_SIZE = 64; // Writes committed in one transaction at most
+
+    private final MessageDatabaseHelper dbHelper;
+    private final BlockingQueue<Write<?>> writes = new LinkedBlockingQueue<>();
+    private final Write<Void> stop = new Write<>(() -> null, true); // Marks the end of the queue
+    private final Thread writer;
+    private final Store store = new Store();
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a queue and starts its writer thread, which first reads the highest message id.
+     *
+     * @param dbHelper The database to write to.
+     */
+    public PersistenceQueue(MessageDatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+        writer = new Thread(this::run, "chat-writer");
+        writer.setDaemon(true);
+        writer.start();
+        submit(() -> {
+            dbHelper.loadLastMessageId();
+            return null;
+        });
+    }
+
+    /**
+     * Stores a user message together with its outbox entry. The message id is set right away.
+     *
+     * @param prompt The user message.
+     * @return Completes with the claimed outbox entry once it is committed.
+     */
+    public CompletableFuture<OutboxItem> enqueue(Message prompt) {
+        assignId(prompt);
+        return submit(() -> dbHelper.enqueue(prompt));
+    }
+
+    /**
+     * Closes an answered outbox entry and stores its reply. The reply id is set right away.
+     *
+     * @param item  The claimed entry.
+     * @param reply The reply to store, or null if the message was answered some other way.
+     * @return Completes with false if the entry was already completed and nothing was stored.
+     */
+    public CompletableFuture<Boolean> complete(OutboxItem item, Message reply) {
+        if (reply != null) {
+            assignId(reply);
+        }
+        return submit(() -> dbHelper.complete(item, reply));
+    }
+
+    /**
+     * Closes the answered outbox entries of a burst and stores their common reply.
+     * The reply id is set right away.
+     *
+     * @param items The claimed entries.
+     * @param reply The reply to store, or null if the messages were answered some other way.
+     * @return Completes with false if any entry was already completed and nothing was stored.
+     */
+    public CompletableFuture<Boolean> complete(List<OutboxItem> items, Message reply) {
+        if (reply != null) {
+            assignId(reply);
+        }
+        return submit(() -> dbHelper.complete(items, reply));
+    }
+
+    /**
+     * Returns an outbox entry to the queue after a failed attempt.
+     *
+     * @param item          The claimed entry.
+     * @param error         The reason of the failure.
+     * @param nextAttemptAt The earliest time of the next attempt, in milliseconds.
+     * @return Completes once the entry is committed.
+     */
+    public CompletableFuture<Void> release(OutboxItem item, String error, long nextAttemptAt) {
+        return submit(() -> {
+            dbHelper.release(item, error, nextAttemptAt);
+            return null;
+        });
+    }
+
+    /**
+     * Returns an outbox entry to the queue without counting an attempt, e.g. after a cancelled send.
+     *
+     * @param item          The claimed entry.
+     * @param error         The reason the send stopped.
+     * @param nextAttemptAt The earliest time of the next attempt, in milliseconds.
+     * @return Completes once the entry is committed.
+     */
+    public CompletableFuture<Void> requeue(OutboxItem item, String error, long nextAttemptAt) {
+        return submit(() -> {
+            dbHelper.requeue(item, error, nextAttemptAt);
+            return null;
+        });
+    }
+
+    /**
+     * Deletes all messages, after the writes submitted before.
+     *
+     * @return Completes once the deletion is committed.
+     */
+    public CompletableFuture<Void> clearAllMessages() {
+        return submit(() -> {
+            dbHelper.clearAllMessages();
+            return null;
+        });
+    }
+
+    /**
+     * @return Completes once every write submitted before is committed.
+     */
+    public CompletableFuture<Void> flush() {
+        return submit(() -> null);
+    }
+
+    /**
+     * Returns the stores of the database for background components. Reads go straight to the
+     * database; writes are queued like any other and block until they are committed, except
+     * summaries, which are only cached. Must not be used on the writer thread.
+     *
+     * @return The queued stores.
+     */
+    public Store getStore() {
+        return store;
+    }
+
+    /**
+     * Stops the writer after the writes submitted so far. Later writes fail.
+     */
+    public void shutdown() {
+        shutdown = true;
+        writes.add(stop);
+    }
+
+    private void assignId(Message message) {
+        if (message.id == 0) {
+            message.id = dbHelper.allocateMessageId();
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> operation) {
+        return submit(operation, true);
+    }
+
+    /**
+     * @param operation     The write.
+     * @param inTransaction False for writes that SQLite cannot run inside a transaction; they
+     *                      are run on their own, between two batches.
+     * @return Completes with the result of the write once it is committed.
+     */
+    private <T> CompletableFuture<T> submit(Supplier<T> operation, boolean inTransaction) {
+        Write<T> write = new Write<>(operation, inTransaction);
+        if (shutdown) {
+            write.future.completeExceptionally(new IllegalStateException("Persistence queue is shut down"));
+        } else {
+            writes.add(write);
+        }
+        return write.future;
+    }
+
+    private void run() {
+        List<Write<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            writes.drainTo(batch, MAX_BATCH_SIZE - 1);
+            List<Write<?>> afterStop = null; // Writes that raced with shutdown(); they are not run
+            int stopAt = batch.indexOf(stop);
+            if (stopAt >= 0) {
+                afterStop = new ArrayList<>(batch.subList(stopAt + 1, batch.size()));
+                batch.subList(stopAt, batch.size()).clear();
+            }
+
+            int start = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (!batch.get(i).inTransaction) {
+                    if (i > start) {
+                        write(batch.subList(start, i));
+                    }
+                    writeAlone(batch.get(i));
+                    start = i + 1;
+                }
+            }
+            if (start < batch.size()) {
+                write(batch.subList(start, batch.size()));
+            }
+            batch.clear();
+            if (afterStop != null) {
+                writes.drainTo(afterStop);
+                for (Write<?> write : afterStop) {
+                    write.future.completeExceptionally(new IllegalStateException("Persistence queue is shut down"));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes a batch in one transaction and completes the futures once it is committed. If the
+     * transaction fails, every write of the batch runs again, so a write must not change its
+     * arguments in a way that a rollback does not undo.
+     *
+     * @param batch The writes, in submission order.
+     */
+    private void write(List<Write<?>> batch) {
+        try {
+            dbHelper.runInTransaction(() -> {
+                for (Write<?> write : batch) {
+                    write.run();
+                }
+            });
+            for (Write<?> write : batch) {
+                write.succeed();
+            }
+        } catch (RuntimeException batchError) {
+            // Nothing of the batch was stored; write one at a time, so only the faulty write fails
+            for (Write<?> write : batch) {
+                try {
+                    dbHelper.runInTransaction(write::run);
+                    write.succeed();
+                } catch (RuntimeException e) {
+                    write.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private static void writeAlone(Write<?> write) {
+        try {
+            write.run();
+            write.succeed();
+        } catch (RuntimeException e) {
+            write.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Waits for a queued write of a blocking store method.
+     *
+     * @param future The queued write.
+     * @return The result of the write.
+     */
+    private <T> T await(CompletableFuture<T> future) {
+        if (Thread.currentThread() == writer) {
+            throw new IllegalStateException("The writer thread cannot wait for its own queue");
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause(); // What the database threw
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The database as seen by background components, with every write going through the queue.
+     */
+    public final class Store implements HistoryStore, OutboxStore, ArchiveStore {
+
+        private Store() {}
+
+        @Override
+        public List<Message> getMessagesBefore(Message oldest, int limit) {
+            return dbHelper.getMessagesBefore(oldest, limit);
+        }
+
+        @Override
+        public List<Message> getMessagesAfter(long conversationId, long timestamp, int id, int limit) {
+            return dbHelper.getMessagesAfter(conversationId, timestamp, id, limit);
+        }
+
+        @Override
+        public ConversationSummary getConversationSummary(long conversationId) {
+            return dbHelper.getConversationSummary(conversationId);
+        }
+
+        @Override
+        public void saveConversationSummary(long conversationId, ConversationSummary summary) {
+            // Not waited for: a summary that is lost or late is recomputed on the next request
+            submit(() -> {
+                dbHelper.saveConversationSummary(conversationId, summary);
+                return null;
+            });
+        }
+
+        @Override
+        public Map<Long, String> getConversationTitles() {
+            return dbHelper.getConversationTitles();
+        }
+
+        @Override
+        public long createConversation(String title) {
+            return await(submit(() -> dbHelper.createConversation(title)));
+        }
+
+        @Override
+        public void addMessages(List<Message> messages) {
+            await(submit(() -> {
+                dbHelper.addMessages(messages);
+                return null;
+            }));
+        }
+
+        @Override
+        public OutboxItem enqueue(Message prompt) {
+            return await(PersistenceQueue.this.enqueue(prompt));
+        }
+
+        @Override
+        public List<OutboxItem> claim(int limit, long now) {
+            return await(submit(() -> dbHelper.claim(limit, now)));
+        }
+
+        @Override
+        public boolean complete(OutboxItem item, Message reply) {
+            return await(PersistenceQueue.this.complete(item, reply));
+        }
+
+        @Override
+        public boolean complete(List<OutboxItem> items, Message reply) {
+            return await(PersistenceQueue.this.complete(items, reply));
+        }
+
+        @Override
+        public void release(OutboxItem item, String error, long nextAttemptAt) {
+            await(PersistenceQueue.this.release(item, error, nextAttemptAt));
+        }
+
+        @Override
+        public void requeue(OutboxItem item, String error, long nextAttemptAt) {
+            await(PersistenceQueue.this.requeue(item, error, nextAttemptAt));
+        }
+
+        @Override
+        public void fail(OutboxItem item, String error) {
+            await(submit(() -> {
+                dbHelper.fail(item, error);
+                return null;
+            }));
+        }
+
+        @Override
+        public long getNextAttemptAt() {
+            return dbHelper.getNextAttemptAt();
+        }
+
+        @Override
+        public int archiveMessages(long sentBefore, int blockSize) {
+            return await(submit(() -> dbHelper.archiveMessages(sentBefore, blockSize)));
+        }
+
+        @Override
+        public int deleteMessages(long sentBefore, int limit) {
+            return await(submit(() -> dbHelper.deleteMessages(sentBefore, limit)));
+        }
+
+        @Override
+        public int vacuum(int maxPages) {
+            // A full VACUUM cannot run inside a transaction
+            return await(submit(() -> dbHelper.vacuum(maxPages), false));
+        }
+    }
+
+    /**
+     * A submitted write and the future of its result.
+     */
+    private static final class Write<T> {
+        final Supplier<T> operation;
+        final boolean inTransaction; // False if the write is run on its own, outside a transaction
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result; // Only accessed on the writer thread
+
+        Write(Supplier<T> operation, boolean inTransaction) {
+            this.operation = operation;
+            this.inTransaction = inTransaction;
+        }
+
+        void run() {
+            result = operation.get();
+        }
+
+        void succeed() {
+            future.complete(result);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package uz.iqbolshoh.socialchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures {@link ArchiveBlock} on a block of 64 messages, alternating short prompts and
+ * replies of about 500 characters.
+ */
+@State(Scope.Benchmark)
+public class ArchiveBlockBenchmark {
+
+    private List<Message> messages;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        messages = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            boolean isUser = i % 2 == 0;
+            messages.add(new Message(i + 1, BenchmarkData.sentence(i, isUser ? 12 : 90), isUser, i));
+        }
+        encoded = ArchiveBlock.encode(messages);
+    }
+
+    @Benchmark
+    public byte[] encodeBlock() {
+        return ArchiveBlock.encode(messages);
+    }
+
+    @Benchmark
+    public ArchiveBlock decodeBlock() throws IOException {
+        return ArchiveBlock.decode(encoded);
+    }
+}
@@ -0,0 +1,26 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * Deterministic chat-like text for the benchmarks.
+ */
+final class BenchmarkData {
+    private static final String[] WORDS = {
+            "the", "weather", "in", "Tashkent", "is", "sunny", "and", "warm", "during", "spring",
+            "we", "should", "pack", "light", "clothes", "for", "our", "trip", "to", "Samarkand",
+    };
+
+    private BenchmarkData() {}
+
+    /**
+     * @param seed  Varies the word order.
+     * @param words The number of words.
+     * @return A sentence ending with a period.
+     */
+    static String sentence(int seed, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(i > 0 ? " " : "").append(WORDS[(seed * 7 + i * 3) % WORDS.length]);
+        }
+        return text.append('.').toString();
+    }
+}
@@ -0,0 +1,76 @@
+package uz.iqbolshoh.socialchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures packing the context of the newest message of a long conversation, with the rolling
+ * summary already caught up, as happens for every prompt sent in a busy chat.
+ */
+@State(Scope.Benchmark)
+public class ContextBuilderBenchmark {
+
+    @Param({"100", "10000"})
+    public int conversationLength;
+
+    private ContextBuilder builder;
+    private Message prompt;
+
+    @Setup
+    public void setUp() {
+        InMemoryHistory history = new InMemoryHistory();
+        for (int i = 0; i < conversationLength; i++) {
+            history.messages.add(new Message(i + 1, BenchmarkData.sentence(i, 25), i % 2 == 0, i + 1));
+        }
+        builder = new ContextBuilder(history, 2000, 300, 40);
+        prompt = history.messages.get(conversationLength - 1);
+        for (int i = 0; i <= conversationLength / 100; i++) {
+            builder.build(prompt); // Fold the older history, one page per build
+        }
+    }
+
+    @Benchmark
+    public ChatContext packHistory() {
+        return builder.build(prompt);
+    }
+
+    /**
+     * A single conversation kept in a list; ids and timestamps both equal the position plus one.
+     */
+    private static final class InMemoryHistory implements ConversationHistory {
+        final List<Message> messages = new ArrayList<>();
+        ConversationSummary summary = new ConversationSummary();
+
+        @Override
+        public List<Message> getMessagesBefore(Message oldest, int limit) {
+            int end = oldest.id - 1;
+            return new ArrayList<>(messages.subList(Math.max(0, end - limit), end));
+        }
+
+        @Override
+        public List<Message> getMessagesAfter(long conversationId, long timestamp, int id, int limit) {
+            return new ArrayList<>(messages.subList(Math.min(id, messages.size()),
+                    Math.min(id + limit, messages.size())));
+        }
+
+        @Override
+        public ConversationSummary getConversationSummary(long conversationId) {
+            ConversationSummary copy = new ConversationSummary();
+            copy.text = summary.text;
+            copy.throughTimestamp = summary.throughTimestamp;
+            copy.throughId = summary.throughId;
+            return copy;
+        }
+
+        @Override
+        public void saveConversationSummary(long conversationId, ConversationSummary summary) {
+            this.summary = summary;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package uz.iqbolshoh.socialchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures folding a batch of messages that left the verbatim window into a full summary.
+ */
+@State(Scope.Benchmark)
+public class ConversationSummarizerBenchmark {
+
+    private String summary;
+    private List<Message> batch;
+
+    @Setup
+    public void setUp() {
+        summary = ConversationSummarizer.extend("", messages(0, 40), 300);
+        batch = messages(40, 10);
+    }
+
+    @Benchmark
+    public String foldBatchIntoFullSummary() {
+        return ConversationSummarizer.extend(summary, batch, 300);
+    }
+
+    private static List<Message> messages(int first, int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = first; i < first + count; i++) {
+            messages.add(new Message(i + 1, BenchmarkData.sentence(i, 12) + " " + BenchmarkData.sentence(i + 3, 12),
+                    i % 2 == 0, i + 1));
+        }
+        return messages;
+    }
+}
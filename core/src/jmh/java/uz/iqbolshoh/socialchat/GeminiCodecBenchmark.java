@@ -0,0 +1,87 @@
+package uz.iqbolshoh.socialchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures request serialization and response parsing of {@link GeminiCodec}.
+ */
+@State(Scope.Benchmark)
+public class GeminiCodecBenchmark {
+
+    private ChatContext singlePrompt;
+    private ChatContext fortyTurns;
+    private String response;
+    private final CountingWriter sink = new CountingWriter();
+
+    @Setup
+    public void setUp() {
+        singlePrompt = ChatContext.of("What is the weather like in Tashkent in spring?");
+
+        List<Message> turns = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            turns.add(new Message(i + 1, BenchmarkData.sentence(i, 30), i % 2 == 0, i + 1));
+        }
+        fortyTurns = new ChatContext(BenchmarkData.sentence(99, 200), turns);
+
+        // A reply of about 512 tokens, split into parts like the API sends it
+        StringBuilder json = new StringBuilder("{\"candidates\":[{\"content\":{\"parts\":[");
+        for (int i = 0; i < 8; i++) {
+            json.append(i > 0 ? "," : "").append("{\"text\":\"").append(BenchmarkData.sentence(i, 64)).append("\"}");
+        }
+        json.append("],\"role\":\"model\"},\"finishReason\":\"STOP\",\"safetyRatings\":[")
+                .append("{\"category\":\"HARM_CATEGORY_HARASSMENT\",\"probability\":\"NEGLIGIBLE\"}]}],")
+                .append("\"usageMetadata\":{\"promptTokenCount\":12,\"candidatesTokenCount\":512}}");
+        response = json.toString();
+    }
+
+    @Benchmark
+    public long writeSinglePrompt() throws IOException {
+        sink.count = 0;
+        GeminiCodec.writeRequest(sink, singlePrompt, 0.7, 512);
+        return sink.count;
+    }
+
+    @Benchmark
+    public long writeFortyTurnContext() throws IOException {
+        sink.count = 0;
+        GeminiCodec.writeRequest(sink, fortyTurns, 0.7, 512);
+        return sink.count;
+    }
+
+    @Benchmark
+    public GeminiResult readFullResponse() throws IOException {
+        return GeminiCodec.readResponse(new StringReader(response));
+    }
+
+    /**
+     * Discards written characters, so only the encoding is measured.
+     */
+    private static final class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+}
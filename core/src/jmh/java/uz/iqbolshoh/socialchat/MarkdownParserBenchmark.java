@@ -0,0 +1,37 @@
+package uz.iqbolshoh.socialchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link MarkdownParser} on a 512-token reply that mixes prose, lists and code.
+ */
+@State(Scope.Benchmark)
+public class MarkdownParserBenchmark {
+
+    private String reply;
+
+    @Setup
+    public void setUp() {
+        StringBuilder markdown = new StringBuilder("## Answer\n\n");
+        for (int i = 0; i < 4; i++) {
+            markdown.append("Use **").append(BenchmarkData.sentence(i, 3)).append("** with *")
+                    .append(BenchmarkData.sentence(i + 1, 2)).append("* and `code_").append(i).append("`. ")
+                    .append(BenchmarkData.sentence(i + 2, 40)).append("\n\n- ")
+                    .append(BenchmarkData.sentence(i + 3, 12)).append("\n- ")
+                    .append(BenchmarkData.sentence(i + 4, 12)).append("\n\n```java\n");
+            for (int line = 0; line < 6; line++) {
+                markdown.append("int value_").append(line).append(" = compute(a * b, \"").append(i).append("\");\n");
+            }
+            markdown.append("```\n\n");
+        }
+        reply = markdown.toString();
+    }
+
+    @Benchmark
+    public MarkdownText parseReply() {
+        return MarkdownParser.parse(reply);
+    }
+}
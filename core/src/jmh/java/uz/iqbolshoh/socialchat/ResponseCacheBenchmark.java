@@ -0,0 +1,66 @@
+package uz.iqbolshoh.socialchat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Measures key derivation and lookups in the memory and disk tiers of {@link ResponseCache}.
+ */
+@State(Scope.Benchmark)
+public class ResponseCacheBenchmark {
+
+    private File directory;
+    private ResponseCache memoryCache;
+    private ResponseCache diskCache;
+    private String prompt;
+    private String key;
+    private String missingKey;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("response-cache-bench").toFile();
+        prompt = BenchmarkData.sentence(1, 20);
+        key = ResponseCache.key(prompt, 0.7, 512);
+        missingKey = ResponseCache.key("not cached", 0.7, 512);
+
+        memoryCache = new ResponseCache(new File(directory, "memory"), 64, 4 * 1024 * 1024, Long.MAX_VALUE);
+        memoryCache.put(key, BenchmarkData.sentence(2, 400));
+
+        // No memory tier, so every hit is read from disk
+        diskCache = new ResponseCache(new File(directory, "disk"), 0, 4 * 1024 * 1024, Long.MAX_VALUE);
+        diskCache.put(key, BenchmarkData.sentence(2, 400));
+    }
+
+    @TearDown
+    public void tearDown() {
+        memoryCache.clear();
+        diskCache.clear();
+    }
+
+    @Benchmark
+    public String deriveKey() {
+        return ResponseCache.key(prompt, 0.7, 512);
+    }
+
+    @Benchmark
+    public String memoryHit() {
+        return memoryCache.get(key);
+    }
+
+    @Benchmark
+    public String diskHit() {
+        return diskCache.get(key);
+    }
+
+    @Benchmark
+    public String miss() {
+        return memoryCache.get(missingKey);
+    }
+}
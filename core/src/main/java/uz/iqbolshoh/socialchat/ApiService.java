@@ -0,0 +1,674 @@
+package uz.iqbolshoh.socialchat;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+
+/**
+ * Handles communication with the Gemini API to send prompts and retrieve responses.
+ * Provides error handling, streaming JSON encoding via {@link GeminiCodec}, and a resilience
+ * layer: a client-side {@link TokenBucket} paces requests, transient failures (429, 5xx,
+ * timeouts, dropped connections) are retried with jittered backoff that honors Retry-After,
+ * and a {@link CircuitBreaker} fails fast while the endpoint is degraded. Retrying is safe
+ * because generating content has no side effects on the server.
+ * <p>
+ * Request bodies larger than {@link Config#gzipThresholdChars} are gzip-compressed while they
+ * stream out, and responses are requested with gzip and inflated as they are read. The bytes
+ * before and after compression are counted in {@link TransferStats}, and the time spent in each
+ * phase of a request is recorded in a {@link LatencyRecorder} while it is enabled.
+ * <p>
+ * With a fallback model configured, a {@link HedgingRouter} sends a duplicate request to it
+ * when the primary model is slower than usual, and retries there when the primary fails.
+ * Every request can be abandoned through a {@link CancelToken}.
+ * <p>
+ * An instance owns a long-lived HTTP client whose connection pool keeps sockets alive
+ * between prompts, so create it once and share it (see {@link #getDefault}). Replies to
+ * repeated prompts are answered from the {@link ResponseCache} without a network round trip.
+ */
+public class ApiService {
+    // API configuration constants
+    private static final String API_KEY = "API_KEY";
+    private static final String GEMINI_MODEL_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-1.5-flash";
+    private static final String GEMINI_FALLBACK_MODEL_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-1.5-flash-8b";
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json; charset=utf-8");
+    private static final double TEMPERATURE = 0.7;        // Controls randomness of response
+    private static final int MAX_OUTPUT_TOKENS = 512;     // Limits response length
+    private static final String SSE_DATA_PREFIX = "data:"; // Prefix of server-sent event payload lines
+    private static final int CACHE_MEMORY_ENTRIES = 64;              // Replies kept in the memory tier
+    private static final long CACHE_DISK_BYTES = 4 * 1024 * 1024;    // Size budget of the disk tier
+    private static final long CACHE_TTL_MS = 24 * 60 * 60 * 1000L;   // Lifetime of a cached reply
+    private static final String REQUEST_CANCELLED = "Request cancelled";
+
+    private static ApiService defaultInstance;
+
+    private final OkHttpClient client;
+    private final ResponseCache responseCache;
+    private final TransferStats transferStats = new TransferStats();
+    private final LatencyRecorder latencyRecorder;
+    private final int gzipThresholdChars;
+    private final TokenBucket rateLimiter;
+    private final int maxAttempts;
+    private final long retryBaseDelayMs;
+    private final long retryMaxDelayMs;
+    private final Route primaryRoute;
+    private final Route fallbackRoute;  // Null without a fallback model
+    private final HedgingRouter router; // Null without a fallback model
+
+    /**
+     * Tunable settings of the HTTP transport. The defaults match the production endpoint.
+     */
+    public static class Config {
+        public String modelUrl = GEMINI_MODEL_URL;       // Model endpoint without the ":method" suffix
+        public String apiKey = API_KEY;                  // Key appended to every request
+        public long connectTimeoutMs = 10000;            // Connection timeout in milliseconds
+        public long readTimeoutMs = 30000;               // Read timeout in milliseconds
+        public long writeTimeoutMs = 10000;              // Write timeout in milliseconds
+        public int maxIdleConnections = 5;               // Upper bound of idle sockets kept in the pool
+        public long keepAliveMs = 5 * 60 * 1000;         // Idle sockets older than this are evicted
+        public boolean http2Enabled = true;              // Negotiate HTTP/2 multiplexing over TLS when possible
+        public ResponseCache responseCache;              // Cache for repeated prompts, or null to disable
+        public int maxAttempts = 4;                      // Attempts per request, including the first
+        public long retryBaseDelayMs = 500;              // Smallest delay between attempts
+        public long retryMaxDelayMs = 20000;             // Largest delay; a longer Retry-After fails the request
+        public double requestsPerSecond = 0.25;          // Sustained client-side request rate (15 per minute)
+        public int requestBurst = 5;                     // Requests that may be sent back to back
+        public int circuitFailureThreshold = 5;          // Consecutive failures that open the circuit
+        public long circuitOpenMs = 30000;               // How long an open circuit rejects requests
+        public int gzipThresholdChars = 1024;            // Request bodies of at least this many characters are gzipped
+        public LatencyRecorder latencyRecorder;          // Stage timings and request counters, or null to keep them off
+        public String fallbackModelUrl;                  // Secondary model for hedging and fallback, or null to disable
+        public double hedgePercentile = 95;              // Primary latency percentile after which a request is hedged
+        public long hedgeMinDelayMs = 1000;              // Shortest wait before hedging
+        public long hedgeMaxDelayMs = 8000;              // Longest wait before hedging, used until latencies are known
+        public double hedgeBudget = 0.1;                 // Largest fraction of requests that may be hedged or fall back
+    }
+
+    /**
+     * Receives the incremental output of a streaming Gemini request.
+     * Callbacks are invoked on the thread that called {@link #streamGeminiResponse}.
+     */
+    public interface StreamCallback {
+        /**
+         * Called for every chunk of text received from the API.
+         *
+         * @param chunk The newly generated text (not the accumulated text).
+         */
+        void onPartialText(String chunk);
+
+        /**
+         * Called once after the stream has finished successfully.
+         *
+         * @param fullText The complete generated text.
+         */
+        void onComplete(String fullText);
+
+        /**
+         * Called once if the request fails. No further callbacks follow.
+         *
+         * @param message A human-readable error message.
+         */
+        void onError(String message);
+    }
+
+    /**
+     * Creates a service with its own connection pool.
+     *
+     * @param config The transport settings to use.
+     */
+    public ApiService(Config config) {
+        latencyRecorder = config.latencyRecorder != null ? config.latencyRecorder : new LatencyRecorder(false);
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.maxIdleConnections,
+                        config.keepAliveMs, TimeUnit.MILLISECONDS))
+                .connectTimeout(config.connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(config.readTimeoutMs, TimeUnit.MILLISECONDS)
+                .writeTimeout(config.writeTimeoutMs, TimeUnit.MILLISECONDS)
+                // Count bodies before compression, then compress, then count what hits the socket
+                .addInterceptor(transferStats.contentInterceptor())
+                .addInterceptor(new GzipRequestInterceptor())
+                .addNetworkInterceptor(transferStats.wireInterceptor())
+                .eventListenerFactory(LatencyEventListener.factory(latencyRecorder));
+        builder.protocols(config.http2Enabled
+                ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : Collections.singletonList(Protocol.HTTP_1_1));
+        client = builder.build();
+        responseCache = config.responseCache;
+        rateLimiter = new TokenBucket(config.requestBurst, config.requestsPerSecond);
+        maxAttempts = config.maxAttempts;
+        retryBaseDelayMs = config.retryBaseDelayMs;
+        retryMaxDelayMs = config.retryMaxDelayMs;
+        gzipThresholdChars = config.gzipThresholdChars;
+
+        // Each model has its own circuit, so an outage of one sends requests to the other
+        primaryRoute = new Route(config, config.modelUrl);
+        if (config.fallbackModelUrl != null) {
+            fallbackRoute = new Route(config, config.fallbackModelUrl);
+            router = new HedgingRouter(config.hedgePercentile, config.hedgeMinDelayMs,
+                    config.hedgeMaxDelayMs, config.hedgeBudget, latencyRecorder);
+        } else {
+            fallbackRoute = null;
+            router = null;
+        }
+    }
+
+    /**
+     * Returns the process-wide service, creating it with the default settings on first use.
+     *
+     * @param cacheDirectory The directory for the on-disk tier of the response cache.
+     * @return The shared ApiService instance.
+     */
+    public static synchronized ApiService getDefault(File cacheDirectory) {
+        if (defaultInstance == null) {
+            Config config = new Config();
+            config.responseCache = new ResponseCache(cacheDirectory,
+                    CACHE_MEMORY_ENTRIES, CACHE_DISK_BYTES, CACHE_TTL_MS);
+            config.fallbackModelUrl = GEMINI_FALLBACK_MODEL_URL;
+            defaultInstance = new ApiService(config);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * @return The response cache, or null if caching is disabled.
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return The counters of body bytes before and after compression.
+     */
+    public TransferStats getTransferStats() {
+        return transferStats;
+    }
+
+    /**
+     * @return The recorder of request phase timings and counters; disabled unless configured.
+     */
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    /**
+     * Sends a prompt to the Gemini API and returns the generated text.
+     * Retries transient failures and handles various error scenarios.
+     *
+     * @param prompt The user's input prompt to send to the API.
+     * @return The API response text or an error message.
+     */
+    public GeminiResult getGeminiResponse(String prompt) {
+        return getGeminiResponse(ChatContext.of(prompt));
+    }
+
+    /**
+     * Sends a conversation to the Gemini API and returns the reply to its last turn.
+     *
+     * @param context The summary and recent turns; see {@link ContextBuilder}.
+     * @return The API response text or an error message.
+     */
+    public GeminiResult getGeminiResponse(ChatContext context) {
+        return getGeminiResponse(context, new CancelToken());
+    }
+
+    /**
+     * Sends a conversation to the Gemini API and returns the reply to its last turn, unless
+     * the request is cancelled first.
+     *
+     * @param context The summary and recent turns; see {@link ContextBuilder}.
+     * @param token   Aborts the request, including retries and hedges, when cancelled.
+     * @return The API response text or an error message.
+     */
+    public GeminiResult getGeminiResponse(ChatContext context, CancelToken token) {
+        // Validate input prompt
+        String prompt = context.getPrompt();
+        if (prompt == null || prompt.trim().isEmpty()) {
+            return GeminiResult.error("Please enter a prompt");
+        }
+
+        // Answer repeated prompts from the cache; the key covers the history the reply depends on
+        String cacheKey = ResponseCache.key(context.getCacheText(), TEMPERATURE, MAX_OUTPUT_TOKENS);
+        String cachedText = responseCache != null ? responseCache.get(cacheKey) : null;
+        if (cachedText != null) {
+            latencyRecorder.increment(LatencyRecorder.Counter.CACHE_HITS);
+            return GeminiResult.success(cachedText);
+        }
+
+        // Send the JSON request over a pooled connection; the whole exchange is hedged,
+        // because the non-streaming endpoint only answers once the reply is generated
+        long requestStart = latencyRecorder.start();
+        CancelToken requestToken = token.newChild();
+        try {
+            GeminiResult result = route(requestToken, (route, attemptToken) -> {
+                try (Response response = execute(route, false, context, attemptToken)) {
+                    // Pull the text straight from the body; consuming it returns the socket to the pool.
+                    // Parsing pulls the body as it goes, so this time includes reading it.
+                    long parseStart = latencyRecorder.start();
+                    GeminiResult parsed = GeminiCodec.readResponse(response.body().charStream());
+                    latencyRecorder.stop(LatencyRecorder.Stage.PARSE, parseStart);
+                    return parsed;
+                }
+            }, null);
+            latencyRecorder.stop(LatencyRecorder.Stage.REQUEST_TOTAL, requestStart);
+            if (result.isSuccess() && responseCache != null) {
+                responseCache.put(cacheKey, result.text);
+            }
+            return result;
+
+        } catch (RequestFailedException e) {
+            return GeminiResult.error(e.getMessage());
+        } catch (IOException e) {
+            return GeminiResult.error(token.isCancelled() ? REQUEST_CANCELLED : "Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return GeminiResult.error("Request interrupted");
+        } finally {
+            requestToken.release();
+        }
+    }
+
+    /**
+     * Sends a prompt to the streaming Gemini endpoint and delivers the generated text
+     * chunk by chunk as server-sent events arrive. Blocks until the stream has ended.
+     * Failures are retried the same way as in {@link #getGeminiResponse}.
+     *
+     * @param prompt   The user's input prompt to send to the API.
+     * @param callback Receives partial text, the final text or an error.
+     */
+    public void streamGeminiResponse(String prompt, StreamCallback callback) {
+        streamGeminiResponse(ChatContext.of(prompt), callback);
+    }
+
+    /**
+     * Streams the reply to the last turn of a conversation, like {@link #streamGeminiResponse(String, StreamCallback)}.
+     *
+     * @param context  The summary and recent turns; see {@link ContextBuilder}.
+     * @param callback Receives partial text, the final text or an error.
+     */
+    public void streamGeminiResponse(ChatContext context, StreamCallback callback) {
+        streamGeminiResponse(context, new CancelToken(), callback);
+    }
+
+    /**
+     * Streams the reply to the last turn of a conversation, unless the request is cancelled.
+     * Cancelling aborts the socket read mid-stream and reports {@code onError}.
+     *
+     * @param context  The summary and recent turns; see {@link ContextBuilder}.
+     * @param token    Aborts the request, including retries and hedges, when cancelled.
+     * @param callback Receives partial text, the final text or an error.
+     */
+    public void streamGeminiResponse(ChatContext context, CancelToken token, StreamCallback callback) {
+        // Validate input prompt
+        String prompt = context.getPrompt();
+        if (prompt == null || prompt.trim().isEmpty()) {
+            callback.onError("Please enter a prompt");
+            return;
+        }
+
+        // Answer repeated prompts from the cache in a single chunk
+        String cacheKey = ResponseCache.key(context.getCacheText(), TEMPERATURE, MAX_OUTPUT_TOKENS);
+        String cachedText = responseCache != null ? responseCache.get(cacheKey) : null;
+        if (cachedText != null) {
+            latencyRecorder.increment(LatencyRecorder.Counter.CACHE_HITS);
+            callback.onPartialText(cachedText);
+            callback.onComplete(cachedText);
+            return;
+        }
+
+        // Send the JSON request over a pooled connection; retries happen before any text is delivered.
+        // Hedging races the attempts up to the response headers, then the winner is streamed
+        long requestStart = latencyRecorder.start();
+        CancelToken requestToken = token.newChild();
+        try (Response response = route(requestToken,
+                (route, attemptToken) -> execute(route, true, context, attemptToken), Response::close);
+             BufferedReader reader = new BufferedReader(response.body().charStream())) {
+            // Read server-sent events; every "data:" line carries one JSON chunk
+            StringBuilder fullText = new StringBuilder();
+            long parseNanos = 0; // Summed over all chunks, excluding the wait for the network
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith(SSE_DATA_PREFIX)) {
+                    continue; // Skip blank separators and comments
+                }
+                long parseStart = latencyRecorder.start();
+                String chunk = GeminiCodec.readChunkText(
+                        new StringReader(line.substring(SSE_DATA_PREFIX.length())));
+                if (parseStart != 0) {
+                    parseNanos += System.nanoTime() - parseStart;
+                }
+                if (!chunk.isEmpty()) {
+                    fullText.append(chunk);
+                    callback.onPartialText(chunk);
+                }
+            }
+            latencyRecorder.record(LatencyRecorder.Stage.PARSE, parseNanos);
+            latencyRecorder.stop(LatencyRecorder.Stage.REQUEST_TOTAL, requestStart);
+            if (fullText.length() == 0) {
+                callback.onError("No response parts received");
+            } else {
+                if (responseCache != null) {
+                    responseCache.put(cacheKey, fullText.toString());
+                }
+                callback.onComplete(fullText.toString());
+            }
+
+        } catch (RequestFailedException e) {
+            callback.onError(e.getMessage());
+        } catch (IOException e) {
+            callback.onError(token.isCancelled() ? REQUEST_CANCELLED : "Error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.onError("Request interrupted");
+        } finally {
+            requestToken.release();
+        }
+    }
+
+    /**
+     * Runs an exchange against the primary model, through the {@link HedgingRouter} when a
+     * fallback model is configured.
+     *
+     * @param token    Cancels every attempt.
+     * @param exchange The exchange to run against a model.
+     * @param discard  Releases the result of a hedged attempt that lost, or null.
+     * @param <T>      The result type.
+     * @return The result of the first successful attempt.
+     * @throws RequestFailedException If every attempt failed; the message is user-facing.
+     * @throws IOException            If reading the winning response failed.
+     * @throws InterruptedException   If the thread is interrupted while waiting.
+     */
+    private <T> T route(CancelToken token, Exchange<T> exchange, Consumer<T> discard)
+            throws RequestFailedException, IOException, InterruptedException {
+        if (router == null) {
+            return exchange.run(primaryRoute, token);
+        }
+        try {
+            return router.route(new HedgingRouter.Attempt<T>() {
+                @Override
+                public T run(boolean primary, CancelToken attemptToken) throws Exception {
+                    return exchange.run(primary ? primaryRoute : fallbackRoute, attemptToken);
+                }
+
+                @Override
+                public boolean canFallBack(Throwable failure) {
+                    return failure instanceof IOException
+                            || (failure instanceof RequestFailedException && ((RequestFailedException) failure).serverSide);
+                }
+
+                @Override
+                public void discard(T result) {
+                    if (discard != null) {
+                        discard.accept(result);
+                    }
+                }
+            }, token);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RequestFailedException) {
+                throw (RequestFailedException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RequestFailedException("Error: " + cause);
+        }
+    }
+
+    /**
+     * Sends a request through the resilience layer and returns the successful response.
+     * Waits for the rate limiter before every attempt and retries transient failures with
+     * jittered backoff until the attempts are used up.
+     *
+     * @param route   The model to send the request to.
+     * @param stream  True for the streaming endpoint, false for the blocking one.
+     * @param context The conversation to send.
+     * @param token   Stops retrying and aborts the call in flight when cancelled.
+     * @return A response with status 200; the caller must close it.
+     * @throws RequestFailedException If the request failed for good or was cancelled; the message is user-facing.
+     * @throws InterruptedException   If the thread is interrupted while waiting.
+     */
+    private Response execute(Route route, boolean stream, ChatContext context, CancelToken token)
+            throws RequestFailedException, InterruptedException {
+        String endpoint = stream ? route.streamUrl : route.generateUrl;
+        String accept = stream ? "text/event-stream" : "application/json";
+        CircuitBreaker circuitBreaker = route.circuitBreaker;
+        RetryBackoff backoff = new RetryBackoff(retryBaseDelayMs, retryMaxDelayMs);
+        for (int attempt = 1; ; attempt++) {
+            boolean lastAttempt = attempt >= maxAttempts;
+            if (token.isCancelled()) {
+                throw new RequestFailedException(REQUEST_CANCELLED);
+            }
+            if (!circuitBreaker.allowRequest()) {
+                throw new RequestFailedException("Service is temporarily unavailable. Please try again later.", true);
+            }
+
+            Response response;
+            try {
+                // A request cleared while waiting for the rate limiter does not use up a token
+                if (!rateLimiter.acquire(token) || token.isCancelled()) {
+                    throw new RequestFailedException(REQUEST_CANCELLED);
+                }
+                latencyRecorder.increment(LatencyRecorder.Counter.REQUESTS);
+                if (attempt > 1) {
+                    latencyRecorder.increment(LatencyRecorder.Counter.RETRIES);
+                }
+                Call call = client.newCall(newRequest(endpoint, accept, context));
+                token.attach(call);
+                response = call.execute();
+            } catch (RequestFailedException | InterruptedException e) {
+                circuitBreaker.recordCancelled(); // Gives a trial request back, so the route is tried again
+                throw e;
+            } catch (IOException e) {
+                if (token.isCancelled()) {
+                    circuitBreaker.recordCancelled(); // Not the endpoint's fault
+                    throw new RequestFailedException(REQUEST_CANCELLED);
+                }
+                circuitBreaker.recordFailure();
+                if (lastAttempt || !isTransient(e)) {
+                    throw new RequestFailedException("Error: " + e.getMessage(), true);
+                }
+                token.sleep(backoff.nextDelayMs(0)); // Wait before retrying
+                continue;
+            }
+
+            // Check response status; only server-side failures count against the circuit
+            int statusCode = response.code();
+            if (statusCode >= 500) {
+                circuitBreaker.recordFailure();
+                latencyRecorder.increment(LatencyRecorder.Counter.SERVER_ERRORS);
+            } else {
+                circuitBreaker.recordSuccess();
+            }
+            if (statusCode == 200) {
+                return response;
+            }
+            if (statusCode == 429) {
+                rateLimiter.drain(); // Slow down every sender, not just this one
+                latencyRecorder.increment(LatencyRecorder.Counter.RATE_LIMITED);
+            }
+
+            if (isRetryable(statusCode)) {
+                long retryAfterMs = parseRetryAfterMs(response);
+                if (!lastAttempt && retryAfterMs <= backoff.getMaxDelayMs()) {
+                    response.close(); // Release the connection before waiting
+                    token.sleep(backoff.nextDelayMs(retryAfterMs)); // Wait before retrying
+                    continue;
+                }
+                if (statusCode == 429) {
+                    response.close();
+                    throw new RequestFailedException("Rate limit exceeded. Please try again later.");
+                }
+            }
+
+            // Handle non-retryable status codes
+            String errorResponse = readErrorBody(response);
+            response.close();
+            throw new RequestFailedException("API error (" + statusCode + "): " + errorResponse, statusCode >= 500);
+        }
+    }
+
+    /**
+     * @param statusCode An HTTP status code.
+     * @return True if the status signals a transient condition worth retrying.
+     */
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502
+                || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * @param e An I/O failure of a request.
+     * @return True for timeouts and refused or dropped connections, which are worth retrying.
+     */
+    private static boolean isTransient(IOException e) {
+        return e instanceof SocketTimeoutException || e instanceof SocketException
+                || e.getCause() instanceof EOFException;
+    }
+
+    /**
+     * Reads the Retry-After header, given either in seconds or as an HTTP date.
+     *
+     * @param response The response to inspect.
+     * @return The requested delay in milliseconds, or 0 if there is none.
+     */
+    private static long parseRetryAfterMs(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : 0;
+        }
+    }
+
+    /**
+     * Builds a POST request whose JSON body is encoded directly into the socket.
+     * Large bodies are marked for compression by {@link GzipRequestInterceptor}.
+     *
+     * @param endpoint The endpoint URL to send the request to.
+     * @param accept   The value of the Accept header.
+     * @param context  The conversation to encode.
+     * @return The request, ready to be executed by the pooled client.
+     */
+    private Request newRequest(String endpoint, String accept, ChatContext context) {
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON_MEDIA_TYPE;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                Writer writer = new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8);
+                GeminiCodec.writeRequest(writer, context, TEMPERATURE, MAX_OUTPUT_TOKENS);
+            }
+        };
+
+        Request.Builder builder = new Request.Builder()
+                .url(endpoint)
+                .header("Accept", accept)
+                .post(body);
+        if (estimateBodyChars(context) >= gzipThresholdChars) {
+            builder.header("Content-Encoding", "gzip");
+        }
+        return builder.build();
+    }
+
+    /**
+     * Estimates the size of the encoded request from the text it carries, without encoding it.
+     *
+     * @param context The conversation to send.
+     * @return The number of text characters in the request.
+     */
+    private static int estimateBodyChars(ChatContext context) {
+        int chars = context.summary.length();
+        for (Message turn : context.turns) {
+            chars += turn.content != null ? turn.content.length() : 0;
+        }
+        return chars;
+    }
+
+    /**
+     * Reads the body of an HTTP error response to extract error details.
+     *
+     * @param response The HTTP response with an error status.
+     * @return The error message as a string, or a default message if unavailable.
+     */
+    private static String readErrorBody(Response response) {
+        try {
+            ResponseBody body = response.body();
+            if (body != null) {
+                return body.string();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return "No error details available";
+    }
+
+    /**
+     * The URLs and health of one model.
+     */
+    private static class Route {
+        final String generateUrl;
+        final String streamUrl;
+        final CircuitBreaker circuitBreaker;
+
+        Route(Config config, String modelUrl) {
+            generateUrl = modelUrl + ":generateContent?key=" + config.apiKey;
+            streamUrl = modelUrl + ":streamGenerateContent?alt=sse&key=" + config.apiKey;
+            circuitBreaker = new CircuitBreaker(config.circuitFailureThreshold, config.circuitOpenMs);
+        }
+    }
+
+    /**
+     * One exchange with a model, from sending the request to the result.
+     */
+    private interface Exchange<T> {
+        T run(Route route, CancelToken token) throws RequestFailedException, IOException, InterruptedException;
+    }
+
+    /**
+     * Signals that a request failed for good. The message is shown to the user.
+     */
+    private static class RequestFailedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final boolean serverSide; // The model or the network failed, not the request itself
+
+        RequestFailedException(String message) {
+            this(message, false);
+        }
+
+        RequestFailedException(String message, boolean serverSide) {
+            super(message);
+            this.serverSide = serverSide;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package uz.iqbolshoh.socialchat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The texts of consecutive old messages, deflate-compressed together.
+ * <p>
+ * Archived messages keep their database row, so paging, search ranking and the outbox see them
+ * as before; only their text moves into a block. Compressing a few dozen chat messages
+ * together finds far more repetition than compressing each one on its own. A block is written
+ * once and read back whole.
+ */
+public final class ArchiveBlock {
+
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5;             // Version and uncompressed length
+    private static final int MAX_RAW_BYTES = 64 << 20;    // Sanity limit for reading a damaged block
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int[] ids;
+    private final String[] contents;
+
+    private ArchiveBlock(int[] ids, String[] contents) {
+        this.ids = ids;
+        this.contents = contents;
+    }
+
+    /**
+     * Compresses the texts of messages into a block.
+     *
+     * @param messages The messages, each with its id set.
+     * @return The encoded block.
+     */
+    public static byte[] encode(List<Message> messages) {
+        ByteBuffer raw = ByteBuffer.allocate(rawSize(messages));
+        raw.putInt(messages.size());
+        for (Message message : messages) {
+            raw.putInt(message.id);
+            if (message.content == null) {
+                raw.putInt(-1);
+            } else {
+                byte[] content = message.content.getBytes(StandardCharsets.UTF_8);
+                raw.putInt(content.length);
+                raw.put(content);
+            }
+        }
+
+        // Blocks are written once and read many times, so spend the time on a smaller block
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.position() / 2 + 16);
+        out.write(VERSION);
+        writeInt(out, raw.position());
+        deflater.setInput(raw.array(), 0, raw.position());
+        deflater.finish();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a block.
+     *
+     * @param data The encoded block.
+     * @return The block.
+     * @throws IOException If the block is damaged or was written by a newer version.
+     */
+    public static ArchiveBlock decode(byte[] data) throws IOException {
+        if (data.length < HEADER_SIZE || data[0] != VERSION) {
+            throw new IOException("Unknown archive block version");
+        }
+        int rawLength = ByteBuffer.wrap(data, 1, 4).getInt();
+        if (rawLength < 4 || rawLength > MAX_RAW_BYTES) {
+            throw new IOException("Invalid block length " + rawLength);
+        }
+
+        // The length is known, so the whole block is inflated in one call
+        byte[] rawBytes = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+            if (inflater.inflate(rawBytes) != rawLength || !inflater.finished()) {
+                throw new IOException("Truncated archive block");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged archive block", e);
+        } finally {
+            inflater.end();
+        }
+
+        try {
+            ByteBuffer raw = ByteBuffer.wrap(rawBytes);
+            int count = raw.getInt();
+            if (count < 0 || count > rawLength / 8) {
+                throw new IOException("Invalid message count " + count);
+            }
+            int[] ids = new int[count];
+            String[] contents = new String[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = raw.getInt();
+                int length = raw.getInt();
+                if (length >= 0) {
+                    contents[i] = new String(rawBytes, raw.position(), length, StandardCharsets.UTF_8);
+                    raw.position(raw.position() + length);
+                } else if (length != -1) {
+                    throw new IOException("Invalid content length " + length);
+                }
+            }
+            return new ArchiveBlock(ids, contents);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Damaged archive block", e);
+        }
+    }
+
+    private static int rawSize(List<Message> messages) {
+        int size = 4;
+        for (Message message : messages) {
+            size += 8;
+            if (message.content != null) {
+                size += utf8Length(message.content);
+            }
+        }
+        return size;
+    }
+
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3; // Unpaired surrogates are encoded as '?', which is shorter
+            }
+        }
+        return length;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * @return The number of messages in the block.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param index The position of a message in the block.
+     * @return The id of the message.
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Looks up the text of a message in the block.
+     *
+     * @param messageId The id of the message.
+     * @return The text, or null if the message is not in the block.
+     */
+    public String getContent(int messageId) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == messageId) {
+                return contents[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * Storage that old messages can be compressed in and pruned from, a small step at a time, so
+ * the work can run in the background between foreground writes. Every step is a single
+ * transaction. Implemented by {@link MessageDatabaseHelper}.
+ */
+public interface ArchiveStore {
+
+    /**
+     * Compresses the texts of the oldest uncompressed messages of one conversation into a block.
+     * Nothing is compressed while fewer than a block of messages are due.
+     *
+     * @param sentBefore Only messages sent before this time, in milliseconds, are compressed.
+     * @param blockSize  The number of messages compressed together.
+     * @return The number of messages compressed; 0 once no conversation has a full block due.
+     */
+    int archiveMessages(long sentBefore, int blockSize);
+
+    /**
+     * Deletes the oldest messages of one conversation, compressed or not, together with their
+     * outbox entries.
+     *
+     * @param sentBefore Only messages sent before this time, in milliseconds, are deleted.
+     * @param limit      The maximum number of messages to delete.
+     * @return The number of messages deleted; 0 once no message is due.
+     */
+    int deleteMessages(long sentBefore, int limit);
+
+    /**
+     * Returns unused pages at the end of the database file to the file system.
+     *
+     * @param maxPages The maximum number of pages to return.
+     * @return The number of unused pages left, or 0 if they cannot be returned step by step.
+     */
+    int vacuum(int maxPages);
+}
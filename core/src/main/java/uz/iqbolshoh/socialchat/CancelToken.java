@@ -0,0 +1,119 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Call;
+
+/**
+ * Lets a request be abandoned from another thread. Cancelling aborts the HTTP call that is
+ * in flight, wakes up a pending retry delay and stops further attempts.
+ * <p>
+ * Tokens can be chained: cancelling a parent also cancels every child created with
+ * {@link #newChild()}, while a child can be cancelled on its own.
+ */
+public class CancelToken {
+    private final CancelToken parent;                      // The token this one was created from, or null
+    private final List<CancelToken> children = new ArrayList<>();
+    private boolean cancelled;
+    private Call call;                                     // The call in flight, or null
+
+    /**
+     * Creates a token that is not cancelled.
+     */
+    public CancelToken() {
+        this(null);
+    }
+
+    private CancelToken(CancelToken parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Cancels the request: aborts its call in flight and wakes up a pending delay.
+     * Does nothing if it is already cancelled.
+     */
+    public void cancel() {
+        Call toCancel;
+        List<CancelToken> toCancelChildren;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toCancel = call;
+            toCancelChildren = new ArrayList<>(children);
+            notifyAll(); // Wake up sleep()
+        }
+        // Cancel outside the lock; OkHttp may call back into listeners
+        if (toCancel != null) {
+            toCancel.cancel();
+        }
+        for (CancelToken child : toCancelChildren) {
+            child.cancel();
+        }
+    }
+
+    /**
+     * @return True once {@link #cancel()} has been called.
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return A token that is cancelled together with this one, and can be cancelled alone.
+     */
+    public synchronized CancelToken newChild() {
+        CancelToken child = new CancelToken(this);
+        if (cancelled) {
+            child.cancelled = true;
+        } else {
+            children.add(child);
+        }
+        return child;
+    }
+
+    /**
+     * Detaches this token from its parent once its request has finished, so long-lived
+     * parents do not keep finished children.
+     */
+    public void release() {
+        if (parent != null) {
+            synchronized (parent) {
+                parent.children.remove(this);
+            }
+        }
+    }
+
+    /**
+     * Makes a call the one that {@link #cancel()} aborts. A call attached after cancelling
+     * is aborted right away.
+     *
+     * @param newCall The call about to be executed.
+     */
+    public void attach(Call newCall) {
+        synchronized (this) {
+            if (!cancelled) {
+                call = newCall;
+                return;
+            }
+        }
+        newCall.cancel();
+    }
+
+    /**
+     * Waits for a delay, returning early if the token is cancelled.
+     *
+     * @param delayMs The delay in milliseconds.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public synchronized void sleep(long delayMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + delayMs;
+        long remaining = delayMs;
+        while (!cancelled && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything sent to the model for one reply: a summary of the older part of the conversation
+ * and the most recent turns verbatim, ending with the message to answer.
+ */
+public class ChatContext {
+    public final String summary;        // Summary of older turns, or an empty string
+    public final List<Message> turns;   // Recent turns, ordered by timestamp (ascending)
+
+    /**
+     * Creates a context.
+     *
+     * @param summary The summary of the turns that were left out, or an empty string.
+     * @param turns   The recent turns, ordered by timestamp (ascending); the last one is answered.
+     */
+    public ChatContext(String summary, List<Message> turns) {
+        this.summary = summary;
+        this.turns = turns;
+    }
+
+    /**
+     * Creates a context holding a single prompt and no history.
+     *
+     * @param prompt The user's input prompt.
+     * @return The single-turn context.
+     */
+    public static ChatContext of(String prompt) {
+        Message message = new Message();
+        message.content = prompt;
+        message.isUser = true;
+        return new ChatContext("", Collections.singletonList(message));
+    }
+
+    /**
+     * @return The text of the last turn, i.e. the prompt being answered, or null if there are no turns.
+     */
+    public String getPrompt() {
+        return turns.isEmpty() ? null : turns.get(turns.size() - 1).content;
+    }
+
+    /**
+     * Returns the text the reply depends on, used to build the response cache key.
+     * A single prompt without history yields the prompt itself, so it shares its cache entry
+     * with the same prompt sent on its own.
+     *
+     * @return The canonical text of this context.
+     */
+    public String getCacheText() {
+        if (summary.isEmpty() && turns.size() == 1) {
+            return getPrompt();
+        }
+        StringBuilder text = new StringBuilder(summary);
+        for (Message turn : turns) {
+            text.append(turn.isUser ? "\nuser: " : "\nmodel: ").append(turn.content);
+        }
+        return text.toString();
+    }
+}
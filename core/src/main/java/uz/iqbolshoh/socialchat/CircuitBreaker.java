@@ -0,0 +1,81 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * Fails requests fast while the endpoint is degraded.
+ * <p>
+ * After a number of consecutive failures the breaker opens and rejects requests without
+ * sending them. Once the open period has passed, a single trial request is let through:
+ * its success closes the breaker again, its failure re-opens it. Every request let through
+ * must end in one of {@link #recordSuccess()}, {@link #recordFailure()} or
+ * {@link #recordCancelled()}.
+ */
+public class CircuitBreaker {
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openDurationMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    /**
+     * Creates a closed breaker.
+     *
+     * @param failureThreshold The number of consecutive failures that opens the breaker.
+     * @param openDurationMs   How long the breaker stays open before a trial request.
+     */
+    public CircuitBreaker(int failureThreshold, long openDurationMs) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationMs = openDurationMs;
+    }
+
+    /**
+     * @return True if a request may be sent now, false if it should fail immediately.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt >= openDurationMs) {
+                    state = State.HALF_OPEN; // Let exactly one trial request through
+                    return true;
+                }
+                return false;
+            default:
+                return false; // A trial request is already in flight
+        }
+    }
+
+    /**
+     * Records a request that reached a healthy endpoint.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a request that failed because the endpoint is unavailable or overloaded.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Records a request that was let through but abandoned before it had an outcome.
+     * A cancelled trial request says nothing about the endpoint, so it gives its turn back
+     * and the next request becomes the trial.
+     */
+    public synchronized void recordCancelled() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN; // The open period has already passed
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Packs a conversation into a request of bounded size.
+ * <p>
+ * The newest turns are sent verbatim, newest first, until the token budget is used up.
+ * Everything older is represented by a rolling summary that is stored with the conversation.
+ * Each build folds the messages that slid out of the verbatim window since the previous build
+ * into that summary, at most one page of them, so the work and the request size stay flat
+ * however long the conversation gets. A long history without a summary, e.g. after an import,
+ * is caught up over the following builds; until then its oldest part is left out.
+ */
+public class ContextBuilder {
+    private static final int CHARS_PER_TOKEN = 4;   // Rough average for English text
+    private static final int TOKENS_PER_TURN = 4;   // Overhead of the role and framing of a turn
+    private static final int FOLD_PAGE_SIZE = 100;  // Messages folded per build at most
+
+    private final ConversationHistory history;
+    private final int maxContextTokens;
+    private final int maxSummaryTokens;
+    private final int maxTurns;
+
+    /**
+     * Creates a builder.
+     *
+     * @param history          The stored conversations.
+     * @param maxContextTokens The token budget of a whole request, summary included.
+     * @param maxSummaryTokens The part of the budget reserved for the summary.
+     * @param maxTurns         The maximum number of turns sent verbatim.
+     */
+    public ContextBuilder(ConversationHistory history, int maxContextTokens, int maxSummaryTokens, int maxTurns) {
+        this.history = history;
+        this.maxContextTokens = maxContextTokens;
+        this.maxSummaryTokens = maxSummaryTokens;
+        this.maxTurns = maxTurns;
+    }
+
+    /**
+     * Estimates the number of model tokens of a text without tokenizing it.
+     *
+     * @param text The text to measure.
+     * @return The estimated token count.
+     */
+    public static int estimateTokens(String text) {
+        return text == null ? 0 : (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /**
+     * Builds the context for answering a stored message, updating the conversation's rolling
+     * summary if older turns no longer fit. Synchronized because concurrent builds of the same
+     * conversation would fold the same messages twice.
+     *
+     * @param prompt The stored user message to answer.
+     * @return The summary and the recent turns, ending with {@code prompt}.
+     */
+    public synchronized ChatContext build(Message prompt) {
+        ConversationSummary summary = history.getConversationSummary(prompt.conversationId);
+
+        // Take the newest turns that are not summarized yet, as long as they fit the budget
+        int budget = maxContextTokens - maxSummaryTokens - estimateTokens(prompt.content) - TOKENS_PER_TURN;
+        List<Message> window = history.getMessagesBefore(prompt, maxTurns - 1);
+        List<Message> turns = new ArrayList<>();
+        turns.add(prompt); // The prompt is always sent, even if it alone exceeds the budget
+        for (int i = window.size() - 1; i >= 0; i--) {
+            Message turn = window.get(i);
+            int tokens = estimateTokens(turn.content) + TOKENS_PER_TURN;
+            if (summary.covers(turn) || tokens > budget) {
+                break;
+            }
+            turns.add(turn);
+            budget -= tokens;
+        }
+        Collections.reverse(turns);
+
+        fold(prompt.conversationId, summary, turns.get(0));
+        return new ChatContext(summary.text, turns);
+    }
+
+    /**
+     * Folds the messages between the summarized position and the oldest verbatim turn into the
+     * summary and stores it, one page at most; the next build continues from there. Each message
+     * is folded exactly once over the conversation's lifetime.
+     *
+     * @param conversationId The conversation being built.
+     * @param summary        The stored summary; updated in place.
+     * @param oldestTurn     The oldest turn sent verbatim.
+     */
+    private void fold(long conversationId, ConversationSummary summary, Message oldestTurn) {
+        List<Message> page = history.getMessagesAfter(conversationId,
+                summary.throughTimestamp, summary.throughId, FOLD_PAGE_SIZE);
+        List<Message> folded = new ArrayList<>();
+        for (Message message : page) {
+            if (message.timestamp > oldestTurn.timestamp
+                    || (message.timestamp == oldestTurn.timestamp && message.id >= oldestTurn.id)) {
+                break; // Reached the verbatim window
+            }
+            folded.add(message);
+        }
+        if (folded.isEmpty()) {
+            return;
+        }
+
+        Message newest = folded.get(folded.size() - 1);
+        summary.text = ConversationSummarizer.extend(summary.text, folded, maxSummaryTokens);
+        summary.throughTimestamp = newest.timestamp;
+        summary.throughId = newest.id;
+        history.saveConversationSummary(conversationId, summary);
+    }
+}
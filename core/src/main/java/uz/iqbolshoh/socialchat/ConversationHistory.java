@@ -0,0 +1,44 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.List;
+
+/**
+ * The stored messages and rolling summaries that {@link ContextBuilder} reads from.
+ * Implemented by {@link MessageDatabaseHelper}.
+ */
+public interface ConversationHistory {
+
+    /**
+     * Retrieves the page of messages directly older than the given message, within its conversation.
+     *
+     * @param oldest The message to page back from.
+     * @param limit  The maximum number of messages to return.
+     * @return Up to {@code limit} older messages, ordered by timestamp (ascending).
+     */
+    List<Message> getMessagesBefore(Message oldest, int limit);
+
+    /**
+     * Retrieves the page of messages directly newer than a position, within a conversation.
+     *
+     * @param conversationId The conversation to read.
+     * @param timestamp      The timestamp of the position.
+     * @param id             The message id of the position.
+     * @param limit          The maximum number of messages to return.
+     * @return Up to {@code limit} newer messages, ordered by timestamp (ascending).
+     */
+    List<Message> getMessagesAfter(long conversationId, long timestamp, int id, int limit);
+
+    /**
+     * @param conversationId The conversation to read.
+     * @return The stored rolling summary; empty if none was saved yet.
+     */
+    ConversationSummary getConversationSummary(long conversationId);
+
+    /**
+     * Stores the rolling summary of a conversation, replacing the previous one.
+     *
+     * @param conversationId The conversation to update.
+     * @param summary        The new summary.
+     */
+    void saveConversationSummary(long conversationId, ConversationSummary summary);
+}
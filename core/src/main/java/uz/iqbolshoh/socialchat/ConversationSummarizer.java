@@ -0,0 +1,139 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Builds an extractive summary of conversation turns on the device, without a model call.
+ * <p>
+ * The summary is a list of sentences taken from the messages, one per line and prefixed with
+ * the speaker. Extending a summary scores the existing lines together with the sentences of
+ * the new messages and keeps the most informative ones that fit the token budget, in their
+ * original order. Sentences that share words with many others score high, and user sentences
+ * and more recent sentences get a bonus.
+ */
+public final class ConversationSummarizer {
+    private static final Pattern SENTENCE_BREAK = Pattern.compile("(?<=[.!?])\\s+|\\n+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final String USER_PREFIX = "User: ";
+    private static final String MODEL_PREFIX = "Assistant: ";
+    private static final int MIN_SENTENCE_WORDS = 3;   // Shorter sentences carry too little to keep
+    private static final int MAX_SENTENCE_CHARS = 300; // Longer sentences are cut
+    private static final int MIN_KEYWORD_LENGTH = 4;   // Shorter words are mostly stop words
+    private static final double USER_BONUS = 1.25;     // User lines state what the conversation is about
+    private static final double RECENCY_BONUS = 0.5;   // Extra weight of the newest line over the oldest
+
+    private ConversationSummarizer() {}
+
+    /**
+     * Folds messages into a summary.
+     *
+     * @param summary   The current summary, or an empty string.
+     * @param messages  The messages to add, ordered by timestamp (ascending).
+     * @param maxTokens The token budget of the returned summary.
+     * @return The extended summary.
+     */
+    public static String extend(String summary, List<Message> messages, int maxTokens) {
+        List<String> lines = new ArrayList<>();
+        if (!summary.isEmpty()) {
+            lines.addAll(Arrays.asList(summary.split("\n")));
+        }
+        for (Message message : messages) {
+            if (message.content == null) {
+                continue;
+            }
+            for (String sentence : SENTENCE_BREAK.split(message.content.trim())) {
+                sentence = sentence.trim();
+                if (sentence.split("\\s+").length < MIN_SENTENCE_WORDS) {
+                    continue;
+                }
+                if (sentence.length() > MAX_SENTENCE_CHARS) {
+                    sentence = sentence.substring(0, MAX_SENTENCE_CHARS) + "…";
+                }
+                lines.add((message.isUser ? USER_PREFIX : MODEL_PREFIX) + sentence);
+            }
+        }
+
+        int totalTokens = 0;
+        for (String line : lines) {
+            totalTokens += ContextBuilder.estimateTokens(line);
+        }
+        if (totalTokens <= maxTokens) {
+            return String.join("\n", lines);
+        }
+        return String.join("\n", selectLines(lines, maxTokens));
+    }
+
+    /**
+     * Keeps the highest-scoring lines that fit the budget.
+     *
+     * @param lines     The candidate lines, oldest first.
+     * @param maxTokens The token budget.
+     * @return The kept lines, in their original order.
+     */
+    private static List<String> selectLines(List<String> lines, int maxTokens) {
+        // Count in how many lines every keyword occurs
+        List<Set<String>> keywords = new ArrayList<>(lines.size());
+        Map<String, Integer> lineFrequency = new HashMap<>();
+        for (String line : lines) {
+            Set<String> words = keywordsOf(line);
+            keywords.add(words);
+            for (String word : words) {
+                lineFrequency.merge(word, 1, Integer::sum);
+            }
+        }
+
+        double[] scores = new double[lines.size()];
+        Integer[] order = new Integer[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            double score = 0;
+            for (String word : keywords.get(i)) {
+                score += lineFrequency.get(word);
+            }
+            score /= Math.sqrt(1 + keywords.get(i).size()); // Do not simply favor long lines
+            if (lines.get(i).startsWith(USER_PREFIX)) {
+                score *= USER_BONUS;
+            }
+            score *= 1 + RECENCY_BONUS * i / lines.size();
+            scores[i] = score;
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+
+        boolean[] kept = new boolean[lines.size()];
+        int tokens = 0;
+        for (int index : order) {
+            int lineTokens = ContextBuilder.estimateTokens(lines.get(index));
+            if (tokens + lineTokens <= maxTokens) {
+                kept[index] = true;
+                tokens += lineTokens;
+            }
+        }
+
+        List<String> selected = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (kept[i]) {
+                selected.add(lines.get(i));
+            }
+        }
+        return selected;
+    }
+
+    private static Set<String> keywordsOf(String line) {
+        Set<String> words = new HashSet<>();
+        int start = line.indexOf(": ") + 2; // Skip the speaker prefix
+        for (String word : NON_WORD.split(line.substring(start).toLowerCase(Locale.ROOT))) {
+            if (word.length() >= MIN_KEYWORD_LENGTH) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+}
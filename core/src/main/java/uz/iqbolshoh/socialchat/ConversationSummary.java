@@ -0,0 +1,22 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * The rolling summary of a conversation's older messages. It covers every message up to and
+ * including the one identified by (throughTimestamp, throughId), in the order messages are paged.
+ */
+public class ConversationSummary {
+    public String text = "";       // Summary lines, or an empty string if nothing was summarized yet
+    public long throughTimestamp;  // Timestamp of the newest summarized message, 0 if none
+    public int throughId;          // Id of the newest summarized message, 0 if none
+
+    /**
+     * Checks whether a message is already covered by this summary.
+     *
+     * @param message The message to check.
+     * @return True if the message is at or before the summarized position.
+     */
+    public boolean covers(Message message) {
+        return message.timestamp < throughTimestamp
+                || (message.timestamp == throughTimestamp && message.id <= throughId);
+    }
+}
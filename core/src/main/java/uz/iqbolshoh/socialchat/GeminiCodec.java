@@ -0,0 +1,194 @@
+package uz.iqbolshoh.socialchat;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Streams Gemini request and response bodies without building a JSON object tree.
+ * Requests are written token by token to the output, and responses are pulled from the
+ * input keeping only {@code candidates[0].content.parts[*].text}; everything else is skipped.
+ */
+public final class GeminiCodec {
+
+    private static final String SUMMARY_INSTRUCTION = "Summary of the earlier conversation:\n";
+
+    private GeminiCodec() {}
+
+    /**
+     * Writes a generateContent request body for a single prompt.
+     *
+     * @param out             The writer to serialize the request to. It is flushed, not closed.
+     * @param prompt          The user's input prompt.
+     * @param temperature     Controls randomness of the response.
+     * @param maxOutputTokens Limits the response length.
+     * @throws IOException If writing fails.
+     */
+    public static void writeRequest(Writer out, String prompt, double temperature, int maxOutputTokens)
+            throws IOException {
+        writeRequest(out, ChatContext.of(prompt), temperature, maxOutputTokens);
+    }
+
+    /**
+     * Writes a generateContent request body for a conversation. The summary is sent as the
+     * system instruction, and consecutive turns of the same speaker are merged into one
+     * content entry, because the API expects user and model turns to alternate.
+     *
+     * @param out             The writer to serialize the request to. It is flushed, not closed.
+     * @param context         The summary and the recent turns to send.
+     * @param temperature     Controls randomness of the response.
+     * @param maxOutputTokens Limits the response length.
+     * @throws IOException If writing fails.
+     */
+    public static void writeRequest(Writer out, ChatContext context, double temperature, int maxOutputTokens)
+            throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+
+        // "systemInstruction": {"parts": [{"text": summary}]}
+        if (!context.summary.isEmpty()) {
+            writer.name("systemInstruction").beginObject().name("parts").beginArray();
+            writer.beginObject().name("text").value(SUMMARY_INSTRUCTION + context.summary).endObject();
+            writer.endArray().endObject();
+        }
+
+        // "contents": [{"role": role, "parts": [{"text": turn}, ...]}, ...]
+        writer.name("contents").beginArray();
+        Boolean currentIsUser = null;
+        for (Message turn : context.turns) {
+            if (currentIsUser == null || currentIsUser != turn.isUser) {
+                if (currentIsUser != null) {
+                    writer.endArray().endObject();
+                }
+                writer.beginObject().name("role").value(turn.isUser ? "user" : "model");
+                writer.name("parts").beginArray();
+                currentIsUser = turn.isUser;
+            }
+            writer.beginObject().name("text").value(turn.content != null ? turn.content : "").endObject();
+        }
+        if (currentIsUser != null) {
+            writer.endArray().endObject();
+        }
+        writer.endArray();
+
+        writer.name("generationConfig").beginObject()
+                .name("temperature").value(temperature)
+                .name("maxOutputTokens").value(maxOutputTokens)
+                .endObject();
+
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Reads a complete generateContent response.
+     *
+     * @param in The response body.
+     * @return The generated text, or an error if the response carries none.
+     * @throws IOException If reading fails or the JSON is malformed.
+     */
+    public static GeminiResult readResponse(Reader in) throws IOException {
+        String text = readCandidateText(in);
+        if (text == null) {
+            return GeminiResult.error("Unexpected API response format");
+        }
+        if (text.isEmpty()) {
+            return GeminiResult.error("No response parts received");
+        }
+        return GeminiResult.success(text);
+    }
+
+    /**
+     * Reads one streamed response chunk and returns its text.
+     *
+     * @param in The chunk payload.
+     * @return The text of the chunk, or an empty string if it carries none.
+     * @throws IOException If reading fails or the JSON is malformed.
+     */
+    public static String readChunkText(Reader in) throws IOException {
+        String text = readCandidateText(in);
+        return text != null ? text : "";
+    }
+
+    /**
+     * Pulls the concatenated part texts of the first candidate from a response object.
+     *
+     * @param in The response object to read.
+     * @return The text, an empty string if the candidate has no text parts,
+     * or null if the response has no candidates.
+     * @throws IOException If reading fails or the JSON is malformed.
+     */
+    private static String readCandidateText(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            String text = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (text == null && reader.nextName().equals("candidates")) {
+                    text = readFirstCandidate(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return text;
+        } catch (IllegalStateException | NumberFormatException e) {
+            // Thrown by the reader when a value has an unexpected type
+            throw new IOException("Malformed API response", e);
+        }
+    }
+
+    private static String readFirstCandidate(JsonReader reader) throws IOException {
+        StringBuilder text = null;
+        reader.beginArray();
+        if (reader.hasNext()) {
+            text = new StringBuilder();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("content") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readContent(reader, text);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue(); // Ignore the remaining candidates
+        }
+        reader.endArray();
+        return text != null ? text.toString() : null;
+    }
+
+    private static void readContent(JsonReader reader, StringBuilder text) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("parts") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readPart(reader, text);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readPart(JsonReader reader, StringBuilder text) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("text") && reader.peek() == JsonToken.STRING) {
+                text.append(reader.nextString());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,41 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * Represents the outcome of a Gemini request: either the generated text or an error message.
+ */
+public class GeminiResult {
+    public final String text;   // The generated text, or null if the request failed
+    public final String error;  // A human-readable error message, or null on success
+
+    private GeminiResult(String text, String error) {
+        this.text = text;
+        this.error = error;
+    }
+
+    /**
+     * Creates a successful result.
+     *
+     * @param text The generated text.
+     * @return A result carrying the text.
+     */
+    public static GeminiResult success(String text) {
+        return new GeminiResult(text, null);
+    }
+
+    /**
+     * Creates a failed result.
+     *
+     * @param message The error message to report.
+     * @return A result carrying the error.
+     */
+    public static GeminiResult error(String message) {
+        return new GeminiResult(null, message);
+    }
+
+    /**
+     * @return True if the request produced text, false if it failed.
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,52 @@
+package uz.iqbolshoh.socialchat;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Compresses the body of every request that carries {@code Content-Encoding: gzip}.
+ * The body is deflated while it streams to the socket, so it is never held in memory.
+ * Responses need no counterpart: OkHttp advertises gzip and inflates responses as they are read.
+ */
+public class GzipRequestInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.body() == null || !"gzip".equalsIgnoreCase(request.header("Content-Encoding"))) {
+            return chain.proceed(request);
+        }
+        return chain.proceed(request.newBuilder()
+                .method(request.method(), gzip(request.body()))
+                .build());
+    }
+
+    private static RequestBody gzip(RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public long contentLength() {
+                return -1; // The compressed length is unknown until the body has been written
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+                body.writeTo(gzipSink);
+                gzipSink.close(); // Writes the gzip trailer
+            }
+        };
+    }
+}
@@ -0,0 +1,233 @@
+package uz.iqbolshoh.socialchat;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes a request to a primary and a secondary model to cut tail latency.
+ * <p>
+ * The request goes to the primary first. If it has not succeeded after the hedge delay, a
+ * duplicate is sent to the secondary, the first success wins and the other one is
+ * cancelled. If the primary fails in a way the secondary might not, e.g. a dropped connection
+ * or a server error, the secondary is tried as a fallback. The hedge delay follows a
+ * percentile of recent primary latencies, so only the slowest requests are duplicated, and a
+ * budget caps hedges and fallbacks together to a fraction of all requests, so an outage does
+ * not double the upstream traffic.
+ */
+public class HedgingRouter {
+    private static final int MIN_SAMPLES = 20; // Primary latencies needed before the percentile is trusted
+
+    /**
+     * One attempt of the request against a model.
+     *
+     * @param <T> The result type.
+     */
+    public interface Attempt<T> {
+        /**
+         * Runs the attempt on a worker thread.
+         *
+         * @param primary True for the primary model, false for the secondary.
+         * @param token   Cancelled when the other attempt has won or the request is abandoned.
+         * @return The result; a thrown exception counts as a failure.
+         * @throws Exception If the attempt failed.
+         */
+        T run(boolean primary, CancelToken token) throws Exception;
+
+        /**
+         * Tells whether a failure of the primary is worth trying the secondary for. By default
+         * only I/O failures are; a rejected request would fail the same way on either model.
+         *
+         * @param failure What the primary attempt threw.
+         * @return True to fall back to the secondary.
+         */
+        default boolean canFallBack(Throwable failure) {
+            return failure instanceof IOException;
+        }
+
+        /**
+         * Releases the result of an attempt that finished after the other one had already won.
+         *
+         * @param result The unused result.
+         */
+        default void discard(T result) {}
+    }
+
+    private final double percentile;
+    private final long minDelayMs;
+    private final long maxDelayMs;
+    private final double budget;
+    private final LatencyRecorder recorder;
+    private final LatencyHistogram primaryLatency = new LatencyHistogram();
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "hedging-router");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long requests;          // Guarded by "this"
+    private long secondaryAttempts; // Hedges and fallbacks; guarded by "this"
+
+    /**
+     * Creates a router.
+     *
+     * @param percentile The percentile of primary latency after which a request is hedged.
+     * @param minDelayMs The shortest hedge delay.
+     * @param maxDelayMs The longest hedge delay, also used until enough latencies are known.
+     * @param budget     The largest fraction of requests that may be hedged or fall back,
+     *                   between 0 and 1.
+     * @param recorder   Counts hedges and fallbacks.
+     */
+    public HedgingRouter(double percentile, long minDelayMs, long maxDelayMs, double budget, LatencyRecorder recorder) {
+        this.percentile = percentile;
+        this.minDelayMs = minDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.budget = budget;
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return The current hedge delay in milliseconds.
+     */
+    public long getHedgeDelayMs() {
+        if (primaryLatency.getCount() < MIN_SAMPLES) {
+            return maxDelayMs;
+        }
+        long delayMs = primaryLatency.getPercentileMicros(percentile) / 1000;
+        return Math.max(minDelayMs, Math.min(maxDelayMs, delayMs));
+    }
+
+    /**
+     * Runs a request, hedging or falling back to the secondary model as needed. Blocks until
+     * an attempt has succeeded or both have failed.
+     *
+     * @param attempt The request to run against either model.
+     * @param token   Cancels both attempts when cancelled. The winner's call stays attached to
+     *                it, e.g. while its body is read; use a token per request.
+     * @param <T>     The result type.
+     * @return The result of the first successful attempt.
+     * @throws ExecutionException   If no attempt succeeded; the cause is the last failure.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public <T> T route(Attempt<T> attempt, CancelToken token) throws ExecutionException, InterruptedException {
+        synchronized (this) {
+            requests++;
+        }
+        BlockingQueue<Outcome<T>> outcomes = new LinkedBlockingQueue<>();
+        CancelToken primaryToken = token.newChild();
+        CancelToken secondaryToken = token.newChild();
+        long start = System.nanoTime();
+        start(attempt, true, primaryToken, outcomes);
+        int running = 1;
+        boolean secondaryStarted = false;
+
+        try {
+            // Give the primary until the hedge delay before duplicating the request
+            Outcome<T> outcome = outcomes.poll(getHedgeDelayMs(), TimeUnit.MILLISECONDS);
+            if (outcome == null && trySecondary()) {
+                recorder.increment(LatencyRecorder.Counter.HEDGES);
+                start(attempt, false, secondaryToken, outcomes);
+                secondaryStarted = true;
+                running++;
+            }
+
+            Throwable lastFailure = null;
+            while (true) {
+                if (outcome == null) {
+                    outcome = outcomes.take();
+                }
+                running--;
+                if (outcome.failure == null) {
+                    if (outcome.primary) {
+                        primaryLatency.record((System.nanoTime() - start) / 1000);
+                    } else if (running > 0) {
+                        // The primary took at least this long; leaving it out would bias the percentile low
+                        primaryLatency.record((System.nanoTime() - start) / 1000);
+                        recorder.increment(LatencyRecorder.Counter.HEDGE_WINS);
+                    }
+                    // Cancel the loser; a result it still produces is released
+                    (outcome.primary ? secondaryToken : primaryToken).cancel();
+                    if (running > 0) {
+                        discardLate(attempt, outcomes);
+                    }
+                    return outcome.result;
+                }
+
+                lastFailure = outcome.failure;
+                if (!secondaryStarted && !token.isCancelled() && attempt.canFallBack(lastFailure)
+                        && trySecondary()) {
+                    // The primary failed: fall back to the secondary
+                    recorder.increment(LatencyRecorder.Counter.FALLBACKS);
+                    start(attempt, false, secondaryToken, outcomes);
+                    secondaryStarted = true;
+                    running++;
+                }
+                if (running == 0) {
+                    throw new ExecutionException(lastFailure);
+                }
+                outcome = null;
+            }
+        } catch (InterruptedException e) {
+            primaryToken.cancel();
+            secondaryToken.cancel();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops starting new attempts. Attempts already running finish on their own.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private synchronized boolean trySecondary() {
+        if (secondaryAttempts + 1 > budget * requests) {
+            return false; // Over budget: the primary's outcome stands
+        }
+        secondaryAttempts++;
+        return true;
+    }
+
+    private <T> void start(Attempt<T> attempt, boolean primary, CancelToken token, BlockingQueue<Outcome<T>> outcomes) {
+        executor.execute(() -> {
+            try {
+                outcomes.add(new Outcome<>(primary, attempt.run(primary, token), null));
+            } catch (Throwable t) {
+                outcomes.add(new Outcome<>(primary, null, t));
+            }
+        });
+    }
+
+    private <T> void discardLate(Attempt<T> attempt, BlockingQueue<Outcome<T>> outcomes) {
+        // Wait for the loser off the caller's thread, so the winner is returned right away
+        executor.execute(() -> {
+            try {
+                Outcome<T> late = outcomes.take();
+                if (late.failure == null) {
+                    attempt.discard(late.result);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    /**
+     * The result or failure of one attempt.
+     */
+    private static class Outcome<T> {
+        final boolean primary;
+        final T result;
+        final Throwable failure;
+
+        Outcome(boolean primary, T result, Throwable failure) {
+            this.primary = primary;
+            this.result = result;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The stored conversations and messages that {@link HistoryTransfer} exports and imports.
+ * Messages are read through the keyset paging of {@link ConversationHistory}.
+ * Implemented by {@link MessageDatabaseHelper}.
+ */
+public interface HistoryStore extends ConversationHistory {
+
+    /**
+     * @return The titles of all conversations by id, in id order.
+     */
+    Map<Long, String> getConversationTitles();
+
+    /**
+     * Creates a new conversation.
+     *
+     * @param title The display title of the conversation.
+     * @return The id of the new conversation.
+     */
+    long createConversation(String title);
+
+    /**
+     * Inserts several messages in a single transaction and stores the assigned ids.
+     *
+     * @param messages The message objects to insert, in order.
+     */
+    void addMessages(List<Message> messages);
+}
@@ -0,0 +1,316 @@
+package uz.iqbolshoh.socialchat;
+
+import com.google.gson.Strictness;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backs up the chat history to a gzip-compressed NDJSON file and reads it back.
+ * <p>
+ * Every line is one JSON object: a header, then the conversations, then the messages of each
+ * conversation oldest first:
+ * <pre>
+ * {"type":"header","format":"socialchat-history","version":1}
+ * {"type":"conversation","id":1,"title":"Chat"}
+ * {"type":"message","conversation":1,"user":true,"timestamp":1700000000000,"content":"Hi"}
+ * </pre>
+ * Both directions stream: the export reads one page of messages at a time, and the import
+ * reuses one batch of message objects, so memory use does not grow with the history.
+ */
+public final class HistoryTransfer {
+
+    /**
+     * Is told how far a transfer got. Called on the transferring thread.
+     */
+    public interface Progress {
+        /**
+         * @param messages The number of messages transferred so far.
+         * @param bytes    The number of compressed bytes written or read so far.
+         */
+        void onProgress(long messages, long bytes);
+    }
+
+    static final String FORMAT = "socialchat-history";
+    static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final HistoryStore store;
+    private final int pageSize;
+    private final int batchSize;
+
+    /**
+     * @param store     The history to export from and import into.
+     * @param pageSize  The number of messages read from the store at a time while exporting.
+     * @param batchSize The number of messages inserted per transaction while importing.
+     */
+    public HistoryTransfer(HistoryStore store, int pageSize, int batchSize) {
+        this.store = store;
+        this.pageSize = pageSize;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Writes the whole history. Messages stored while the export runs may or may not be included.
+     *
+     * @param out      The file to write to. The compressed stream is finished, not closed.
+     * @param progress Told after every page of messages; may be null.
+     * @return The number of messages written.
+     * @throws IOException If writing fails.
+     */
+    public long exportTo(OutputStream out, Progress progress) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(out);
+        GZIPOutputStream gzip = new GZIPOutputStream(counter, BUFFER_SIZE) {
+            {
+                // Compression takes most of the export time; the fastest level is several times
+                // faster than the default and still shrinks chat text about four times
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), BUFFER_SIZE);
+        JsonWriter json = new JsonWriter(writer);
+        json.setStrictness(Strictness.LENIENT); // One top-level value per line
+
+        json.beginObject().name("type").value("header")
+                .name("format").value(FORMAT)
+                .name("version").value(VERSION).endObject();
+        writer.write('\n');
+        Map<Long, String> conversations = store.getConversationTitles();
+        for (Map.Entry<Long, String> conversation : conversations.entrySet()) {
+            json.beginObject().name("type").value("conversation")
+                    .name("id").value(conversation.getKey())
+                    .name("title").value(conversation.getValue()).endObject();
+            writer.write('\n');
+        }
+
+        long count = 0;
+        for (long conversationId : conversations.keySet()) {
+            long timestamp = Long.MIN_VALUE;
+            int id = 0;
+            List<Message> page;
+            do {
+                page = store.getMessagesAfter(conversationId, timestamp, id, pageSize);
+                for (Message message : page) {
+                    json.beginObject().name("type").value("message")
+                            .name("conversation").value(conversationId)
+                            .name("user").value(message.isUser)
+                            .name("timestamp").value(message.timestamp)
+                            .name("content").value(message.content).endObject();
+                    writer.write('\n');
+                }
+                if (!page.isEmpty()) {
+                    Message last = page.get(page.size() - 1);
+                    timestamp = last.timestamp;
+                    id = last.id;
+                    count += page.size();
+                    if (progress != null) {
+                        progress.onProgress(count, counter.count);
+                    }
+                }
+            } while (page.size() == pageSize);
+        }
+
+        writer.flush();
+        gzip.finish();
+        return count;
+    }
+
+    /**
+     * Adds the messages of an export to the history. They keep their timestamps and get new ids;
+     * each exported conversation other than the default one becomes a new conversation.
+     * Messages are inserted in batches, so if the file turns out to be damaged, the batches
+     * before the damage stay imported.
+     *
+     * @param in       The file to read from. It is not closed.
+     * @param progress Told after every batch of messages; may be null.
+     * @return The number of messages imported.
+     * @throws IOException If reading fails or the file is not a history export.
+     */
+    public long importFrom(InputStream in, Progress progress) throws IOException {
+        CountingInputStream counter = new CountingInputStream(in);
+        JsonReader json = new JsonReader(new InputStreamReader(
+                new GZIPInputStream(counter, BUFFER_SIZE), StandardCharsets.UTF_8));
+        json.setStrictness(Strictness.LENIENT); // One top-level value per line
+        readHeader(json);
+
+        Map<Long, Long> conversations = new HashMap<>(); // Exported id to stored id
+        Message[] batch = new Message[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            batch[i] = new Message();
+        }
+        List<Message> batchList = Arrays.asList(batch);
+        int batched = 0;
+        long count = 0;
+
+        while (json.peek() != JsonToken.END_DOCUMENT) {
+            String type = null;
+            long id = 0;
+            String title = null;
+            Message message = batch[batched];
+            message.id = 0;
+            message.content = null;
+            message.isUser = false;
+            message.timestamp = 0;
+            message.conversationId = -1;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "type":
+                        type = json.nextString();
+                        break;
+                    case "id":
+                        id = json.nextLong();
+                        break;
+                    case "title":
+                        title = readNullableString(json);
+                        break;
+                    case "conversation":
+                        message.conversationId = json.nextLong();
+                        break;
+                    case "user":
+                        message.isUser = json.nextBoolean();
+                        break;
+                    case "timestamp":
+                        message.timestamp = json.nextLong();
+                        break;
+                    case "content":
+                        message.content = readNullableString(json);
+                        break;
+                    default:
+                        json.skipValue(); // Written by a newer version
+                }
+            }
+            json.endObject();
+
+            if ("conversation".equals(type)) {
+                conversations.put(id, id == Message.DEFAULT_CONVERSATION_ID
+                        ? Message.DEFAULT_CONVERSATION_ID
+                        : store.createConversation(title != null ? title : "Chat"));
+            } else if ("message".equals(type)) {
+                Long conversationId = conversations.get(message.conversationId);
+                if (conversationId == null) {
+                    throw new IOException("Message of an unknown conversation " + message.conversationId);
+                }
+                message.conversationId = conversationId;
+                if (++batched == batchSize) {
+                    store.addMessages(batchList);
+                    count += batched;
+                    batched = 0;
+                    if (progress != null) {
+                        progress.onProgress(count, counter.count);
+                    }
+                }
+            }
+        }
+
+        if (batched > 0) {
+            store.addMessages(batchList.subList(0, batched));
+            count += batched;
+            if (progress != null) {
+                progress.onProgress(count, counter.count);
+            }
+        }
+        return count;
+    }
+
+    private static void readHeader(JsonReader json) throws IOException {
+        String type = null;
+        String format = null;
+        int version = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "type":
+                    type = json.nextString();
+                    break;
+                case "format":
+                    format = json.nextString();
+                    break;
+                case "version":
+                    version = json.nextInt();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (!"header".equals(type) || !FORMAT.equals(format)) {
+            throw new IOException("Not a chat history export");
+        }
+        if (version > VERSION) {
+            throw new IOException("Exported by a newer version of the app");
+        }
+    }
+
+    private static String readNullableString(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
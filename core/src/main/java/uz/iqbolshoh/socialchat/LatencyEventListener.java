@@ -0,0 +1,88 @@
+package uz.iqbolshoh.socialchat;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Times the network phases of one HTTP call into a {@link LatencyRecorder}: DNS, connect,
+ * TLS, time to first byte (request sent to response headers) and body read. Phases that a
+ * pooled connection skips are simply not recorded.
+ */
+public class LatencyEventListener extends EventListener {
+    private final LatencyRecorder recorder;
+    private long dnsStart;
+    private long connectStart;
+    private long tlsStart;
+    private long requestStart;
+    private long bodyStart;
+
+    /**
+     * @param recorder The recorder to report to.
+     * @return A factory creating one listener per call.
+     */
+    public static EventListener.Factory factory(LatencyRecorder recorder) {
+        return call -> recorder.isEnabled() ? new LatencyEventListener(recorder) : EventListener.NONE;
+    }
+
+    private LatencyEventListener(LatencyRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = recorder.start();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        recorder.stop(LatencyRecorder.Stage.DNS, dnsStart);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart = recorder.start();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        tlsStart = recorder.start();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        recorder.stop(LatencyRecorder.Stage.TLS, tlsStart);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        recorder.stop(LatencyRecorder.Stage.CONNECT, connectStart);
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        requestStart = recorder.start();
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        recorder.stop(LatencyRecorder.Stage.TIME_TO_FIRST_BYTE, requestStart);
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        bodyStart = recorder.start();
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        recorder.stop(LatencyRecorder.Stage.BODY_READ, bodyStart);
+    }
+}
@@ -0,0 +1,193 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects how long each stage of sending a message and rendering its reply takes, plus
+ * request counters, and reports p50/p95/p99 per stage.
+ * <p>
+ * Timing follows a start/stop pattern: {@link #start()} returns a timestamp and
+ * {@link #stop(Stage, long)} records the time since then. While disabled, {@code start()}
+ * returns 0 without reading the clock and {@code stop()} ignores it, so instrumented code
+ * costs a field read and a branch.
+ */
+public class LatencyRecorder {
+
+    /**
+     * The timed stages, in pipeline order.
+     */
+    public enum Stage {
+        CONTEXT_BUILD("Context build"),
+        DNS("DNS lookup"),
+        CONNECT("Connect (incl. TLS)"),
+        TLS("TLS handshake"),
+        TIME_TO_FIRST_BYTE("Time to first byte"),
+        BODY_READ("Body read"),
+        PARSE("JSON parse"),
+        REQUEST_TOTAL("Request total"),
+        DB_INSERT("SQLite insert"),
+        FIRST_CHUNK_RENDER("Send to first chunk shown"),
+        REPLY_RENDER("Send to reply shown"),
+        LOAD_MESSAGES("Load messages");
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * The counted events.
+     */
+    public enum Counter {
+        REQUESTS,       // Requests sent, retries included
+        RETRIES,        // Attempts after the first
+        RATE_LIMITED,   // Responses with status 429
+        SERVER_ERRORS,  // Responses with status 5xx
+        CACHE_HITS,     // Replies answered from the response cache
+        HEDGES,         // Duplicate requests sent to the secondary model because the primary was slow
+        HEDGE_WINS,     // Hedged requests answered first by the secondary model
+        FALLBACKS       // Requests sent to the secondary model because the primary failed
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private volatile boolean enabled;
+
+    /**
+     * Creates a recorder.
+     *
+     * @param enabled Whether to record from the start.
+     */
+    public LatencyRecorder(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @return True if timings and counters are being recorded.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param enabled Whether to record timings and counters.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return A start timestamp for {@link #stop}, or 0 while disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time elapsed since a timestamp returned by {@link #start()}.
+     *
+     * @param stage      The stage that was timed.
+     * @param startNanos The start timestamp; 0 is ignored.
+     */
+    public void stop(Stage stage, long startNanos) {
+        if (startNanos != 0 && enabled) {
+            record(stage, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Records a duration measured elsewhere.
+     *
+     * @param stage         The stage that was timed.
+     * @param durationNanos The duration in nanoseconds.
+     */
+    public void record(Stage stage, long durationNanos) {
+        if (enabled) {
+            histograms[stage.ordinal()].record(durationNanos / 1000);
+        }
+    }
+
+    /**
+     * Counts one event.
+     *
+     * @param counter The event to count.
+     */
+    public void increment(Counter counter) {
+        if (enabled) {
+            counters.incrementAndGet(counter.ordinal());
+        }
+    }
+
+    /**
+     * @param stage A timed stage.
+     * @return The histogram of that stage.
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * @param counter A counted event.
+     * @return How often it happened.
+     */
+    public long getCount(Counter counter) {
+        return counters.get(counter.ordinal());
+    }
+
+    /**
+     * Clears all timings and counters.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+    }
+
+    /**
+     * Formats all stages and counters as a plain-text table, in milliseconds.
+     *
+     * @return The report.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ROOT, "%-26s %6s %8s %8s %8s %8s%n",
+                "Stage (ms)", "n", "p50", "p95", "p99", "max"));
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format(Locale.ROOT, "%-26s %6d %8.1f %8.1f %8.1f %8.1f%n", stage.label,
+                    histogram.getCount(), millis(histogram.getPercentileMicros(50)),
+                    millis(histogram.getPercentileMicros(95)), millis(histogram.getPercentileMicros(99)),
+                    millis(histogram.getMaxMicros())));
+        }
+
+        long requests = getCount(Counter.REQUESTS);
+        report.append(String.format(Locale.ROOT, "%nRequests: %d, retries: %d, cache hits: %d%n",
+                requests, getCount(Counter.RETRIES), getCount(Counter.CACHE_HITS)));
+        report.append(String.format(Locale.ROOT, "429 rate: %.1f%%, 5xx rate: %.1f%%%n",
+                percent(getCount(Counter.RATE_LIMITED), requests),
+                percent(getCount(Counter.SERVER_ERRORS), requests)));
+        report.append(String.format(Locale.ROOT, "Hedges: %d (won %d), fallbacks: %d%n",
+                getCount(Counter.HEDGES), getCount(Counter.HEDGE_WINS), getCount(Counter.FALLBACKS)));
+        return report.toString();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : 100.0 * part / total;
+    }
+}
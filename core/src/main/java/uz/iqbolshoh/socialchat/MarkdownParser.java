@@ -0,0 +1,228 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the Markdown subset that Gemini replies use into {@link MarkdownText}: headings,
+ * bold, italic, inline code, fenced code blocks, bullet lists, block quotes and links.
+ * <p>
+ * Parsing is a single pass over the lines and never fails; markup that is not closed stays
+ * as literal text, and a code block that is still open (a reply being streamed) runs to the
+ * end. Underscores inside words, as in {@code snake_case}, are not treated as emphasis.
+ */
+public final class MarkdownParser {
+    private static final String FENCE = "```";
+    private static final String BULLET = "• ";
+
+    private MarkdownParser() {}
+
+    /**
+     * Parses Markdown into display text and style ranges.
+     *
+     * @param markdown The Markdown source, or null.
+     * @return The text without markup and its style ranges.
+     */
+    public static MarkdownText parse(String markdown) {
+        StringBuilder out = new StringBuilder(markdown != null ? markdown.length() : 0);
+        List<MarkdownText.Span> spans = new ArrayList<>();
+        if (markdown == null) {
+            return new MarkdownText("", spans);
+        }
+
+        int codeStart = -1;     // Start of the open code block, or -1 while none has content yet
+        boolean inCode = false;
+        boolean firstLine = true;
+        int lineStart = 0;
+        while (lineStart <= markdown.length()) {
+            int lineEnd = markdown.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = markdown.length();
+            }
+            String line = markdown.substring(lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+
+            if (line.trim().startsWith(FENCE)) {
+                if (inCode && codeStart >= 0) {
+                    spans.add(new MarkdownText.Span(MarkdownText.Style.CODE_BLOCK, codeStart, out.length(), 0, null));
+                }
+                inCode = !inCode;
+                codeStart = -1;
+                continue; // The fence and its language tag are not displayed
+            }
+
+            if (!firstLine) {
+                out.append('\n');
+            }
+            firstLine = false;
+            int start = out.length();
+
+            if (inCode) {
+                // Code is displayed verbatim
+                if (codeStart < 0) {
+                    codeStart = start;
+                }
+                out.append(line);
+            } else if (line.startsWith("#")) {
+                int level = 0;
+                while (level < line.length() && line.charAt(level) == '#') {
+                    level++;
+                }
+                if (level <= 6 && level < line.length() && line.charAt(level) == ' ') {
+                    parseInline(line, level + 1, line.length(), out, spans);
+                    spans.add(new MarkdownText.Span(MarkdownText.Style.HEADING, start, out.length(), level, null));
+                } else {
+                    parseInline(line, 0, line.length(), out, spans);
+                }
+            } else if (line.startsWith(">")) {
+                int from = line.startsWith("> ") ? 2 : 1;
+                parseInline(line, from, line.length(), out, spans);
+                spans.add(new MarkdownText.Span(MarkdownText.Style.QUOTE, start, out.length(), 0, null));
+            } else if (isBullet(line)) {
+                int indent = indentOf(line);
+                for (int i = 0; i < indent; i++) {
+                    out.append(' ');
+                }
+                out.append(BULLET);
+                parseInline(line, indent + 2, line.length(), out, spans);
+                spans.add(new MarkdownText.Span(MarkdownText.Style.BULLET, start, out.length(), 0, null));
+            } else {
+                parseInline(line, 0, line.length(), out, spans);
+            }
+        }
+
+        if (inCode && codeStart >= 0) {
+            // Unterminated block, e.g. while the reply is still streaming
+            spans.add(new MarkdownText.Span(MarkdownText.Style.CODE_BLOCK, codeStart, out.length(), 0, null));
+        }
+        return new MarkdownText(out.toString(), spans);
+    }
+
+    /**
+     * Appends a range of a line with inline markup resolved: code, bold, italic and links.
+     *
+     * @param line  The source line.
+     * @param from  The first character to parse.
+     * @param to    The character after the last one to parse.
+     * @param out   Receives the text without markup.
+     * @param spans Receives the style ranges.
+     */
+    private static void parseInline(String line, int from, int to, StringBuilder out, List<MarkdownText.Span> spans) {
+        int i = from;
+        while (i < to) {
+            char c = line.charAt(i);
+
+            // Backslash escapes the next punctuation character
+            if (c == '\\' && i + 1 < to && isPunctuation(line.charAt(i + 1))) {
+                out.append(line.charAt(i + 1));
+                i += 2;
+                continue;
+            }
+
+            // Inline code is literal, so it is resolved before emphasis
+            if (c == '`') {
+                int close = line.indexOf('`', i + 1);
+                if (close > i + 1 && close < to) {
+                    int start = out.length();
+                    out.append(line, i + 1, close);
+                    spans.add(new MarkdownText.Span(MarkdownText.Style.CODE, start, out.length(), 0, null));
+                    i = close + 1;
+                    continue;
+                }
+            }
+
+            // Bold: ** or __
+            if ((c == '*' || c == '_') && i + 1 < to && line.charAt(i + 1) == c
+                    && (c == '*' || !isWordChar(line, i - 1))) {
+                String marker = c == '*' ? "**" : "__";
+                int close = line.indexOf(marker, i + 2);
+                if (close > i + 2 && close + 2 <= to && line.charAt(i + 2) != ' ') {
+                    int start = out.length();
+                    int spanIndex = spans.size();
+                    parseInline(line, i + 2, close, out, spans);
+                    spans.add(spanIndex, new MarkdownText.Span(MarkdownText.Style.BOLD, start, out.length(), 0, null));
+                    i = close + 2;
+                    continue;
+                }
+            }
+
+            // Italic: * or _
+            if ((c == '*' || c == '_') && i + 1 < to && line.charAt(i + 1) != ' '
+                    && (c == '*' || !isWordChar(line, i - 1))) {
+                int close = findItalicClose(line, c, i + 1, to);
+                if (close > i + 1) {
+                    int start = out.length();
+                    int spanIndex = spans.size();
+                    parseInline(line, i + 1, close, out, spans);
+                    spans.add(spanIndex, new MarkdownText.Span(MarkdownText.Style.ITALIC, start, out.length(), 0, null));
+                    i = close + 1;
+                    continue;
+                }
+            }
+
+            // Link: [text](url)
+            if (c == '[') {
+                int textEnd = line.indexOf("](", i + 1);
+                int urlEnd = textEnd >= 0 ? line.indexOf(')', textEnd + 2) : -1;
+                if (textEnd > i + 1 && urlEnd >= 0 && urlEnd < to) {
+                    int start = out.length();
+                    int spanIndex = spans.size();
+                    parseInline(line, i + 1, textEnd, out, spans);
+                    spans.add(spanIndex, new MarkdownText.Span(MarkdownText.Style.LINK, start, out.length(), 0,
+                            line.substring(textEnd + 2, urlEnd)));
+                    i = urlEnd + 1;
+                    continue;
+                }
+            }
+
+            out.append(c);
+            i++;
+        }
+    }
+
+    /**
+     * Finds the single marker that closes an italic range, skipping doubled markers.
+     *
+     * @return The index of the closing marker, or -1 if there is none.
+     */
+    private static int findItalicClose(String line, char marker, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (line.charAt(i) != marker) {
+                continue;
+            }
+            if (i + 1 < to && line.charAt(i + 1) == marker) {
+                i++; // Part of a bold marker
+                continue;
+            }
+            if (line.charAt(i - 1) != ' ' && (marker == '*' || !isWordChar(line, i + 1))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isBullet(String line) {
+        int indent = indentOf(line);
+        if (indent + 1 >= line.length()) {
+            return false;
+        }
+        char c = line.charAt(indent);
+        return (c == '-' || c == '*' || c == '+') && line.charAt(indent + 1) == ' ';
+    }
+
+    private static int indentOf(String line) {
+        int indent = 0;
+        while (indent < line.length() && line.charAt(indent) == ' ') {
+            indent++;
+        }
+        return indent;
+    }
+
+    private static boolean isWordChar(String line, int index) {
+        return index >= 0 && index < line.length() && Character.isLetterOrDigit(line.charAt(index));
+    }
+
+    private static boolean isPunctuation(char c) {
+        return "\\`*_[]()#+-.!>".indexOf(c) >= 0;
+    }
+}
@@ -0,0 +1,67 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.List;
+
+/**
+ * Represents Markdown reduced to display text plus the style ranges that apply to it.
+ * The markup characters are removed from the text; the UI turns every {@link Span} into the
+ * matching platform span. See {@link MarkdownParser}.
+ */
+public class MarkdownText {
+
+    /**
+     * The styles a range of text can carry.
+     */
+    public enum Style {
+        BOLD,
+        ITALIC,
+        CODE,       // Inline code
+        CODE_BLOCK, // Fenced code block, without the fences
+        HEADING,    // See Span#level
+        QUOTE,
+        BULLET,     // List item, including the bullet character
+        LINK        // See Span#url
+    }
+
+    /**
+     * One styled range of the text.
+     */
+    public static class Span {
+        public final Style style;  // How the range is displayed
+        public final int start;    // First character of the range
+        public final int end;      // Character after the range
+        public final int level;    // Heading level from 1 to 6, otherwise 0
+        public final String url;   // Target of a link, otherwise null
+
+        /**
+         * Constructor for creating a Span object with specified values.
+         *
+         * @param style The style of the range.
+         * @param start The first character of the range.
+         * @param end   The character after the range.
+         * @param level The heading level, or 0.
+         * @param url   The link target, or null.
+         */
+        public Span(Style style, int start, int end, int level, String url) {
+            this.style = style;
+            this.start = start;
+            this.end = end;
+            this.level = level;
+            this.url = url;
+        }
+    }
+
+    public final String text;       // The text without markup
+    public final List<Span> spans;  // Style ranges, outer ranges before the ones nested in them
+
+    /**
+     * Constructor for creating a MarkdownText object with specified values.
+     *
+     * @param text  The text without markup.
+     * @param spans The style ranges.
+     */
+    public MarkdownText(String text, List<Span> spans) {
+        this.text = text;
+        this.spans = spans;
+    }
+}
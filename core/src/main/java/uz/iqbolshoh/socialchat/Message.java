@@ -5,10 +5,14 @@ package uz.iqbolshoh.socialchat;
  * Used for storing and retrieving messages in the database and displaying them in the UI.
  */
 public class Message {
+    public static final long DEFAULT_CONVERSATION_ID = 1; // Conversation that holds pre-existing history
+
     public int id;          // Unique identifier for the message
     public String content;  // The text content of the message
     public boolean isUser;  // Indicates if the message is from the user (true) or bot (false)
     public long timestamp;  // Timestamp of when the message was created
+    public long conversationId = DEFAULT_CONVERSATION_ID; // Conversation the message belongs to
+    public int replyId;     // For user messages, the id of the reply that answers them, or 0
 
     /**
      * Default constructor for creating an empty Message object.
@@ -0,0 +1,141 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects messages that a user sends in quick succession, so they are answered by one request.
+ * <p>
+ * A burst of a conversation is handed on once no message was added for the debounce window.
+ * It is handed on earlier when it reaches the maximum size, or when its first message has
+ * waited for the maximum delay, so a steady stream of messages still gets replies. Bursts of
+ * one conversation are handed on in order, on a single background thread.
+ *
+ * @param <T> The queued messages, together with whatever the sender needs to answer them.
+ */
+public class MessageCoalescer<T> {
+
+    /**
+     * Answers a burst. Called on the coalescer thread.
+     */
+    public interface Sink<T> {
+        /**
+         * @param conversationId The conversation of the burst.
+         * @param burst          The messages, in the order they were added.
+         */
+        void onBurst(long conversationId, List<T> burst);
+    }
+
+    private final long windowMs;
+    private final long maxDelayMs;
+    private final int maxMessages;
+    private final Sink<T> sink;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, Burst<T>> bursts = new HashMap<>(); // Guarded by this
+    private boolean stopped;                                     // Guarded by this
+
+    /**
+     * Creates a coalescer.
+     *
+     * @param windowMs    The debounce window: a burst ends once no message was added for this long.
+     * @param maxDelayMs  The longest time the first message of a burst waits.
+     * @param maxMessages The largest number of messages in a burst.
+     * @param sink        Answers the bursts.
+     */
+    public MessageCoalescer(long windowMs, long maxDelayMs, int maxMessages, Sink<T> sink) {
+        this.windowMs = windowMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxMessages = maxMessages;
+        this.sink = sink;
+    }
+
+    /**
+     * Adds a message to the current burst of its conversation, starting one if needed.
+     *
+     * @param conversationId The conversation of the message.
+     * @param message        The message.
+     * @throws IllegalStateException If the coalescer was shut down.
+     */
+    public synchronized void add(long conversationId, T message) {
+        if (stopped) {
+            throw new IllegalStateException("Coalescer is shut down");
+        }
+        long now = System.nanoTime();
+        Burst<T> burst = bursts.get(conversationId);
+        if (burst == null) {
+            burst = new Burst<>(now);
+            bursts.put(conversationId, burst);
+        } else {
+            burst.timer.cancel(false); // If it already fired, the burst is handed on with this message
+        }
+        burst.messages.add(message);
+
+        Burst<T> scheduled = burst;
+        if (burst.messages.size() >= maxMessages) {
+            // Full: later messages start the next burst
+            bursts.remove(conversationId);
+            timer.execute(() -> deliver(conversationId, scheduled));
+            return;
+        }
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(now - burst.startedAt);
+        long delayMs = Math.max(0, Math.min(windowMs, maxDelayMs - waitedMs));
+        burst.timer = timer.schedule(() -> handOn(conversationId, scheduled), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the coalescer. Bursts that were not handed on yet are returned instead.
+     *
+     * @return The messages of the waiting bursts, by conversation in the order they were added.
+     */
+    public synchronized List<T> shutdown() {
+        stopped = true;
+        List<T> waiting = new ArrayList<>();
+        for (Burst<T> burst : bursts.values()) {
+            burst.timer.cancel(false);
+            waiting.addAll(burst.messages);
+        }
+        bursts.clear();
+        timer.shutdown();
+        return waiting;
+    }
+
+    private void handOn(long conversationId, Burst<T> burst) {
+        synchronized (this) {
+            if (!bursts.remove(conversationId, burst)) {
+                return; // Already handed on by an earlier timer, or shut down
+            }
+        }
+        deliver(conversationId, burst);
+    }
+
+    private void deliver(long conversationId, Burst<T> burst) {
+        try {
+            sink.onBurst(conversationId, burst.messages);
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // Later bursts are still handed on
+        }
+    }
+
+    /**
+     * The messages of a conversation waiting for the window to end.
+     */
+    private static final class Burst<T> {
+        final long startedAt; // System.nanoTime() of the first message
+        final List<T> messages = new ArrayList<>();
+        ScheduledFuture<?> timer;
+
+        Burst(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package uz.iqbolshoh.socialchat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores the newest messages of a conversation in a small binary file, so the first frame
+ * after a cold start can be drawn without opening the database.
+ * <p>
+ * The snapshot is a cache: it is replaced atomically after writes, and a missing, stale or
+ * damaged file simply yields no messages until the database has been read.
+ */
+public final class MessageSnapshot {
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int VERSION = 1;
+    private static final int MAX_MESSAGES = 100;  // Upper bound when reading, guards against damaged files
+    private static final int MAX_CONTENT_BYTES = 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private MessageSnapshot() {}
+
+    /**
+     * Reads the snapshot of a conversation.
+     *
+     * @param file           The snapshot file.
+     * @param conversationId The conversation to read.
+     * @return The stored messages, ordered by timestamp (ascending), or an empty list if the
+     * file is missing, damaged or belongs to another conversation.
+     */
+    public static List<Message> read(File file, long conversationId) {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != conversationId) {
+                return Collections.emptyList();
+            }
+            int count = in.readInt();
+            if (count < 0 || count > MAX_MESSAGES) {
+                return Collections.emptyList();
+            }
+            List<Message> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Message message = new Message();
+                message.id = in.readInt();
+                message.timestamp = in.readLong();
+                message.isUser = in.readBoolean();
+                message.conversationId = conversationId;
+                int length = in.readInt();
+                if (length < 0 || length > MAX_CONTENT_BYTES) {
+                    return Collections.emptyList();
+                }
+                byte[] content = new byte[length];
+                in.readFully(content);
+                message.content = new String(content, StandardCharsets.UTF_8);
+                messages.add(message);
+            }
+            return messages;
+        } catch (IOException e) {
+            return Collections.emptyList(); // Truncated or partly written; a cache miss, not an error
+        }
+    }
+
+    /**
+     * Replaces the snapshot with the newest of the given messages.
+     *
+     * @param file           The snapshot file.
+     * @param conversationId The conversation the messages belong to.
+     * @param messages       Saved messages, ordered by timestamp (ascending); only the newest
+     *                       {@code limit} are stored.
+     * @param limit          The maximum number of messages to store.
+     * @return True if the snapshot was written.
+     */
+    public static boolean write(File file, long conversationId, List<Message> messages, int limit) {
+        int count = Math.min(Math.min(limit, MAX_MESSAGES), messages.size());
+        List<Message> newest = messages.subList(messages.size() - count, messages.size());
+
+        // Write next to the target and rename, so readers never see a partial file
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(conversationId);
+            out.writeInt(count);
+            for (Message message : newest) {
+                byte[] content = (message.content != null ? message.content : "").getBytes(StandardCharsets.UTF_8);
+                out.writeInt(message.id);
+                out.writeLong(message.timestamp);
+                out.writeBoolean(message.isUser);
+                out.writeInt(content.length);
+                out.write(content);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+}
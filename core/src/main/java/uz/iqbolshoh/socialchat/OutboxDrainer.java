@@ -0,0 +1,269 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the messages waiting in the {@link OutboxStore} and stores their replies.
+ * <p>
+ * A drain claims due entries in batches and sends each batch on a bounded pool. A failed entry
+ * goes back to the queue with an exponentially growing, jittered delay and is given up after a
+ * number of attempts. Drains are requested when connectivity returns or an entry becomes due;
+ * overlapping requests collapse into a single drain. While offline nothing is claimed, so
+ * waiting for the network does not use up attempts.
+ */
+public class OutboxDrainer {
+
+    /**
+     * Produces the reply to an outbox entry. Called on a pool thread.
+     */
+    public interface Sender {
+        /**
+         * @param item  The claimed entry to answer.
+         * @param token Cancelled by {@link #cancelInFlight()}.
+         * @return The reply, or an error.
+         */
+        GeminiResult send(OutboxItem item, CancelToken token);
+    }
+
+    /**
+     * Is told about entries that left the outbox. Called on a pool thread.
+     */
+    public interface Listener {
+        /**
+         * @param item  The answered entry.
+         * @param reply The stored reply.
+         */
+        void onReplySaved(OutboxItem item, Message reply);
+
+        /**
+         * @param item  The entry that was given up.
+         * @param error The reason of the last failure.
+         */
+        void onFailed(OutboxItem item, String error);
+    }
+
+    private final OutboxStore store;
+    private final Sender sender;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long baseRetryDelayMs;
+    private final long maxRetryDelayMs;
+    private final ScheduledExecutorService coordinator = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService senders;
+    private final AtomicBoolean drainQueued = new AtomicBoolean();
+    private volatile boolean online = true;
+    private ScheduledFuture<?> retryTimer; // Only accessed on the coordinator thread
+    private volatile Listener listener;
+    private volatile CancelToken sendToken = new CancelToken(); // Parent of the tokens of entries in flight
+
+    /**
+     * Creates a drainer. Nothing is sent until a drain is requested.
+     *
+     * @param store            The outbox to drain.
+     * @param sender           Produces the replies.
+     * @param maxConcurrent    The maximum number of entries sent at the same time.
+     * @param batchSize        The number of entries claimed at a time.
+     * @param maxAttempts      Attempts per entry before it is given up.
+     * @param baseRetryDelayMs The delay after the first failed attempt.
+     * @param maxRetryDelayMs  The largest delay between attempts.
+     */
+    public OutboxDrainer(OutboxStore store, Sender sender, int maxConcurrent, int batchSize,
+                         int maxAttempts, long baseRetryDelayMs, long maxRetryDelayMs) {
+        this.store = store;
+        this.sender = sender;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.baseRetryDelayMs = baseRetryDelayMs;
+        this.maxRetryDelayMs = maxRetryDelayMs;
+        senders = Executors.newFixedThreadPool(maxConcurrent);
+    }
+
+    /**
+     * @param listener Receives the outcome of drained entries, or null.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reports connectivity changes. Going online starts a drain.
+     *
+     * @param online True if a network is available.
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+        if (online) {
+            requestDrain();
+        }
+    }
+
+    /**
+     * Starts a drain in the background unless one is already waiting to start.
+     */
+    public void requestDrain() {
+        if (drainQueued.compareAndSet(false, true)) {
+            coordinator.execute(() -> {
+                drainQueued.set(false);
+                drain();
+            });
+        }
+    }
+
+    /**
+     * Drains every due entry on the calling thread and schedules the next drain for entries
+     * that are not due yet. Does nothing while offline.
+     *
+     * @return The number of replies stored.
+     */
+    public int drain() {
+        int saved = 0;
+        List<OutboxItem> batch;
+        while (online && !(batch = store.claim(batchSize, System.currentTimeMillis())).isEmpty()) {
+            List<Future<Boolean>> results = new ArrayList<>(batch.size());
+            for (OutboxItem item : batch) {
+                results.add(senders.submit(() -> process(item)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (results.get(i).get()) {
+                        saved++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return saved;
+                } catch (ExecutionException e) {
+                    // A crashed send counts as a failed attempt, so the entry does not stay in flight
+                    e.getCause().printStackTrace();
+                    retryLater(batch.get(i), "Error: " + e.getCause(), listener);
+                }
+            }
+        }
+        scheduleRetry();
+        return saved;
+    }
+
+    /**
+     * Tells the listener about a reply stored outside the drainer, e.g. by an activity that
+     * was recreated while the reply streamed in. Called on the calling thread.
+     *
+     * @param item  The answered entry.
+     * @param reply The stored reply.
+     */
+    public void notifyReplySaved(OutboxItem item, Message reply) {
+        Listener currentListener = listener;
+        if (currentListener != null) {
+            currentListener.onReplySaved(item, reply);
+        }
+    }
+
+    /**
+     * Aborts the entries being sent right now, e.g. because the history was cleared.
+     * Entries that are still stored return to the queue; later drains are not affected.
+     */
+    public void cancelInFlight() {
+        CancelToken cancelled = sendToken;
+        sendToken = new CancelToken();
+        cancelled.cancel();
+    }
+
+    /**
+     * Stops sending; entries in flight return to the queue on the next process start.
+     */
+    public void shutdown() {
+        coordinator.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    /**
+     * Sends one entry and records the outcome.
+     *
+     * @param item The claimed entry.
+     * @return True if a reply was stored.
+     */
+    private boolean process(OutboxItem item) {
+        CancelToken token = sendToken.newChild();
+        GeminiResult result;
+        try {
+            result = sender.send(item, token);
+        } finally {
+            token.release();
+        }
+        Listener currentListener = listener;
+        if (result.isSuccess()) {
+            Message reply = new Message();
+            reply.content = result.text;
+            reply.isUser = false;
+            reply.timestamp = System.currentTimeMillis();
+            reply.conversationId = item.prompt.conversationId;
+            if (!store.complete(item, reply)) {
+                return false; // Answered by someone else in the meantime
+            }
+            if (currentListener != null) {
+                currentListener.onReplySaved(item, reply);
+            }
+            return true;
+        }
+
+        if (token.isCancelled()) {
+            // Not a failure of the entry, so no attempt is used up; if it is still stored, it is sent again later
+            store.requeue(item, result.error, System.currentTimeMillis() + retryDelayMs(item.attempts));
+        } else {
+            retryLater(item, result.error, currentListener);
+        }
+        return false;
+    }
+
+    /**
+     * Returns an entry to the queue after a failed attempt, or gives it up after the last one.
+     *
+     * @param item            The claimed entry.
+     * @param error           The reason of the failure.
+     * @param currentListener Told if the entry is given up; may be null.
+     */
+    private void retryLater(OutboxItem item, String error, Listener currentListener) {
+        if (item.attempts + 1 >= maxAttempts) {
+            store.fail(item, error);
+            if (currentListener != null) {
+                currentListener.onFailed(item, error);
+            }
+        } else {
+            store.release(item, error, System.currentTimeMillis() + retryDelayMs(item.attempts));
+        }
+    }
+
+    /**
+     * @param attempts The failed attempts so far.
+     * @return A delay that doubles with every attempt, with full jitter over its upper half.
+     */
+    private long retryDelayMs(int attempts) {
+        long delay = Math.min(maxRetryDelayMs, baseRetryDelayMs << Math.min(attempts, 20));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void scheduleRetry() {
+        if (!online) {
+            return; // Going online drains again
+        }
+        long nextAttemptAt = store.getNextAttemptAt();
+        if (nextAttemptAt < 0) {
+            return;
+        }
+        coordinator.execute(() -> {
+            if (retryTimer != null) {
+                retryTimer.cancel(false);
+            }
+            long delayMs = Math.max(0, nextAttemptAt - System.currentTimeMillis());
+            retryTimer = coordinator.schedule(this::requestDrain, delayMs, TimeUnit.MILLISECONDS);
+        });
+    }
+}
@@ -0,0 +1,15 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * A user message waiting in the outbox for its reply.
+ */
+public class OutboxItem {
+    public static final int STATUS_PENDING = 0;   // Waiting to be sent
+    public static final int STATUS_IN_FLIGHT = 1; // Claimed by a sender
+    public static final int STATUS_FAILED = 2;    // Gave up after too many attempts
+
+    public long id;                // Unique identifier of the outbox entry
+    public String idempotencyKey;  // Identifies the request; its reply is saved at most once
+    public int attempts;           // Failed attempts so far
+    public Message prompt;         // The stored user message to answer
+}
@@ -0,0 +1,79 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.List;
+
+/**
+ * Durable storage of the messages waiting for a reply. Every state change is a single
+ * transaction, so after a crash an entry is either still queued or fully answered.
+ * Implemented by {@link MessageDatabaseHelper}.
+ */
+public interface OutboxStore {
+
+    /**
+     * Stores a user message together with its outbox entry, already claimed for an immediate send.
+     *
+     * @param prompt The user message; its id is set.
+     * @return The claimed outbox entry.
+     */
+    OutboxItem enqueue(Message prompt);
+
+    /**
+     * Claims the oldest pending entries that are due, marking them in flight.
+     *
+     * @param limit The maximum number of entries to claim.
+     * @param now   The current time in milliseconds.
+     * @return The claimed entries, oldest first.
+     */
+    List<OutboxItem> claim(int limit, long now);
+
+    /**
+     * Removes an answered entry and stores its reply in the same transaction.
+     *
+     * @param item  The claimed entry.
+     * @param reply The reply to store, or null if the message was answered some other way.
+     * @return False if the entry was already completed, in which case nothing is stored.
+     */
+    boolean complete(OutboxItem item, Message reply);
+
+    /**
+     * Removes the answered entries of a burst, stores their common reply and links every prompt
+     * to it, in the same transaction.
+     *
+     * @param items The claimed entries.
+     * @param reply The reply to store, or null if the messages were answered some other way.
+     * @return False if any entry was already completed, in which case nothing is changed.
+     */
+    boolean complete(List<OutboxItem> items, Message reply);
+
+    /**
+     * Returns an entry to the queue after a failed attempt.
+     *
+     * @param item          The claimed entry; the stored attempt count is one more than its own.
+     * @param error         The reason of the failure.
+     * @param nextAttemptAt The earliest time of the next attempt, in milliseconds.
+     */
+    void release(OutboxItem item, String error, long nextAttemptAt);
+
+    /**
+     * Returns an entry to the queue without counting an attempt, e.g. because its send was
+     * cancelled before the message could fail.
+     *
+     * @param item          The claimed entry; its attempt count is kept.
+     * @param error         The reason the send stopped.
+     * @param nextAttemptAt The earliest time of the next attempt, in milliseconds.
+     */
+    void requeue(OutboxItem item, String error, long nextAttemptAt);
+
+    /**
+     * Marks an entry as failed for good; it is not retried.
+     *
+     * @param item  The claimed entry.
+     * @param error The reason of the last failure.
+     */
+    void fail(OutboxItem item, String error);
+
+    /**
+     * @return The earliest time a pending entry is due, or -1 if none is pending.
+     */
+    long getNextAttemptAt();
+}
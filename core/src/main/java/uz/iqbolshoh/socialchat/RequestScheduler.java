@@ -0,0 +1,138 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs API requests on a bounded pool of worker threads.
+ * <p>
+ * Requests execute in parallel, so one slow reply no longer holds up the others, but the
+ * futures of one conversation complete strictly in the order the requests were submitted:
+ * every callback attached to a reply has run before the next reply of that conversation
+ * completes. A request whose key matches one that is still in flight is not executed again;
+ * the caller receives the future of the running request instead.
+ */
+public class RequestScheduler {
+
+    private final ExecutorService pool;
+    private final Map<Long, ArrayDeque<Pending<?>>> conversationQueues = new HashMap<>();
+    private final Set<Long> drainingConversations = new HashSet<>();
+    private final Map<String, CompletableFuture<?>> inFlight = new HashMap<>();
+
+    /**
+     * Creates a scheduler.
+     *
+     * @param parallelism The maximum number of requests executing at the same time.
+     */
+    public RequestScheduler(int parallelism) {
+        pool = Executors.newFixedThreadPool(parallelism);
+    }
+
+    /**
+     * Schedules a request.
+     *
+     * @param conversationId The conversation whose replies must be delivered in order.
+     * @param key            Identifies identical requests, e.g. the prompt text.
+     * @param task           The request to execute on a worker thread.
+     * @param <T>            The type of the request result.
+     * @return A future that completes with the result after all earlier requests of the same
+     * conversation have completed. Identical in-flight requests share the same future.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> CompletableFuture<T> submit(long conversationId, String key, Callable<T> task) {
+        String inFlightKey = conversationId + "\n" + key;
+        CompletableFuture<T> running = (CompletableFuture<T>) inFlight.get(inFlightKey);
+        if (running != null) {
+            return running;
+        }
+
+        Pending<T> pending = new Pending<>(inFlightKey);
+        ArrayDeque<Pending<?>> queue = conversationQueues.get(conversationId);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            conversationQueues.put(conversationId, queue);
+        }
+        queue.add(pending);
+        inFlight.put(inFlightKey, pending.future);
+
+        // Start the work right away; only its delivery waits for earlier requests
+        pool.execute(() -> {
+            try {
+                pending.result = task.call();
+            } catch (Throwable e) {
+                pending.error = e;
+            }
+            onWorkDone(conversationId, pending);
+        });
+        return pending.future;
+    }
+
+    /**
+     * Stops accepting work and lets the running requests finish.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Marks a request as executed and delivers every executed request at the head of its
+     * conversation queue. Only one thread delivers for a conversation at a time, and futures
+     * are completed outside the lock, so callbacks may submit new requests.
+     */
+    private void onWorkDone(long conversationId, Pending<?> done) {
+        synchronized (this) {
+            done.executed = true;
+            if (!drainingConversations.add(conversationId)) {
+                return; // Another thread is delivering this conversation and will pick it up
+            }
+        }
+
+        while (true) {
+            Pending<?> head;
+            synchronized (this) {
+                ArrayDeque<Pending<?>> queue = conversationQueues.get(conversationId);
+                head = queue != null ? queue.peek() : null;
+                if (head == null || !head.executed) {
+                    drainingConversations.remove(conversationId);
+                    return;
+                }
+                queue.poll();
+                if (queue.isEmpty()) {
+                    conversationQueues.remove(conversationId);
+                }
+                inFlight.remove(head.inFlightKey, head.future);
+            }
+            head.deliver();
+        }
+    }
+
+    /**
+     * A submitted request together with its outcome.
+     */
+    private static final class Pending<T> {
+        final String inFlightKey;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        volatile T result;
+        volatile Throwable error;
+        boolean executed; // Guarded by the scheduler
+
+        Pending(String inFlightKey) {
+            this.inFlightKey = inFlightKey;
+        }
+
+        void deliver() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package uz.iqbolshoh.socialchat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Caches generated replies for repeated prompts in two tiers: a small in-memory LRU map and
+ * a bounded directory on disk. Entries are keyed by a hash of the normalized prompt and the
+ * generation settings, expire after a time-to-live, and the disk tier evicts least recently
+ * used files once it exceeds its size budget.
+ */
+public class ResponseCache {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final int maxMemoryEntries;
+    private final long maxDiskBytes;
+    private final long ttlMs;
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private LinkedHashMap<String, Long> diskIndex; // File name to size, in access order; built lazily
+    private long diskBytes;
+
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+
+    /**
+     * Creates a cache. Nothing is read from disk until the first lookup.
+     *
+     * @param directory        The directory that holds the disk tier.
+     * @param maxMemoryEntries The maximum number of replies kept in memory.
+     * @param maxDiskBytes     The size budget of the disk tier in bytes.
+     * @param ttlMs            How long a reply stays valid, in milliseconds.
+     */
+    public ResponseCache(File directory, int maxMemoryEntries, long maxDiskBytes, long ttlMs) {
+        this.directory = directory;
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.maxDiskBytes = maxDiskBytes;
+        this.ttlMs = ttlMs;
+    }
+
+    /**
+     * Builds the cache key for a prompt. Case and runs of whitespace do not change the key.
+     *
+     * @param prompt          The user's input prompt.
+     * @param temperature     The temperature the reply was generated with.
+     * @param maxOutputTokens The output token limit the reply was generated with.
+     * @return A hex-encoded SHA-256 key.
+     */
+    public static String key(String prompt, double temperature, int maxOutputTokens) {
+        String normalized = prompt.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(normalized.getBytes(StandardCharsets.UTF_8));
+            digest.update(("\n" + temperature + "\n" + maxOutputTokens).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Looks up a cached reply, checking memory first and then disk.
+     * A disk hit is promoted into the memory tier.
+     *
+     * @param key The key built by {@link #key}.
+     * @return The cached reply, or null if there is no valid entry.
+     */
+    public synchronized String get(String key) {
+        long now = System.currentTimeMillis();
+
+        Entry entry = memory.get(key);
+        if (entry != null) {
+            if (now - entry.storedAt < ttlMs) {
+                memoryHits++;
+                return entry.text;
+            }
+            memory.remove(key);
+        }
+
+        ensureDiskIndex();
+        if (diskIndex.get(key) != null) {
+            File file = new File(directory, key);
+            if (now - file.lastModified() < ttlMs) {
+                try {
+                    String text = readFile(file);
+                    putInMemory(key, new Entry(text, file.lastModified()));
+                    diskHits++;
+                    return text;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            removeFromDisk(key);
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Stores a reply in both tiers, evicting older entries when a tier is full.
+     *
+     * @param key  The key built by {@link #key}.
+     * @param text The reply to cache.
+     */
+    public synchronized void put(String key, String text) {
+        putInMemory(key, new Entry(text, System.currentTimeMillis()));
+
+        ensureDiskIndex();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > maxDiskBytes) {
+            return;
+        }
+        File temp = new File(directory, key + TEMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(temp)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        removeFromDisk(key);
+        if (temp.renameTo(new File(directory, key))) {
+            diskIndex.put(key, (long) bytes.length);
+            diskBytes += bytes.length;
+            trimDisk();
+        } else {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Drops every entry from both tiers.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        ensureDiskIndex();
+        for (String key : diskIndex.keySet().toArray(new String[0])) {
+            removeFromDisk(key);
+        }
+    }
+
+    /**
+     * @return The number of lookups answered from memory.
+     */
+    public synchronized long getMemoryHits() {
+        return memoryHits;
+    }
+
+    /**
+     * @return The number of lookups answered from disk.
+     */
+    public synchronized long getDiskHits() {
+        return diskHits;
+    }
+
+    /**
+     * @return The number of lookups that found no valid entry.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void putInMemory(String key, Entry entry) {
+        memory.put(key, entry);
+        Iterator<String> eldest = memory.keySet().iterator();
+        while (memory.size() > maxMemoryEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Lists the disk tier once, oldest file first, and removes leftovers of interrupted writes.
+     */
+    private void ensureDiskIndex() {
+        if (diskIndex != null) {
+            return;
+        }
+        diskIndex = new LinkedHashMap<>(16, 0.75f, true);
+        diskBytes = 0;
+        directory.mkdirs();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else {
+                diskIndex.put(file.getName(), file.length());
+                diskBytes += file.length();
+            }
+        }
+        trimDisk();
+    }
+
+    private void trimDisk() {
+        Iterator<Map.Entry<String, Long>> eldest = diskIndex.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(directory, entry.getKey()).delete();
+            diskBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void removeFromDisk(String key) {
+        Long size = diskIndex.remove(key);
+        if (size != null) {
+            new File(directory, key).delete();
+            diskBytes -= size;
+        }
+    }
+
+    private static String readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A reply held in memory together with the time it was stored.
+     */
+    private static final class Entry {
+        final String text;
+        final long storedAt;
+
+        Entry(String text, long storedAt) {
+            this.text = text;
+            this.storedAt = storedAt;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when {@link StorageMaintainer} compresses and deletes old messages, and how much
+ * work it does per step.
+ */
+public class RetentionPolicy {
+    public long archiveAfterMs = TimeUnit.DAYS.toMillis(30); // Age at which messages are compressed; 0 never
+    public long deleteAfterMs = 0;                  // Age at which messages are deleted; 0 keeps them forever
+    public int blockSize = 64;                      // Messages compressed together
+    public int deleteBatchSize = 256;               // Messages deleted per step
+    public int vacuumPagesPerStep = 256;            // Unused pages returned to the file system per step
+    public long stepPauseMs = 50;                   // Pause between steps, so foreground writes are not held up
+    public long intervalMs = TimeUnit.HOURS.toMillis(6); // Time between maintenance runs
+}
@@ -0,0 +1,49 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes retry delays with decorrelated jitter: every delay is drawn at random between the
+ * base delay and three times the previous delay, capped at a maximum. Senders that failed
+ * together therefore retry at different moments instead of in lockstep.
+ * <p>
+ * One instance tracks the delays of a single request and is not thread-safe.
+ */
+public class RetryBackoff {
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private long previousDelayMs;
+
+    /**
+     * Creates a backoff for one request.
+     *
+     * @param baseDelayMs The smallest delay in milliseconds.
+     * @param maxDelayMs  The largest delay in milliseconds.
+     */
+    public RetryBackoff(long baseDelayMs, long maxDelayMs) {
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.previousDelayMs = baseDelayMs;
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     *
+     * @param retryAfterMs The delay requested by the server through Retry-After, or 0.
+     * @return The delay in milliseconds; never shorter than what the server asked for.
+     */
+    public long nextDelayMs(long retryAfterMs) {
+        long upper = Math.max(baseDelayMs + 1, Math.min(maxDelayMs, previousDelayMs * 3));
+        long jittered = Math.min(maxDelayMs, ThreadLocalRandom.current().nextLong(baseDelayMs, upper));
+        previousDelayMs = Math.max(jittered, baseDelayMs);
+        return Math.max(jittered, retryAfterMs);
+    }
+
+    /**
+     * @return The largest delay this backoff is allowed to wait.
+     */
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+}
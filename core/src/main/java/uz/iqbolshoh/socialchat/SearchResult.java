@@ -0,0 +1,28 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * Represents one hit of a full-text search over the chat history.
+ * The snippet marks every matched term with {@link #MATCH_START} and {@link #MATCH_END},
+ * so the UI can highlight them without the message text being interpreted as markup.
+ */
+public class SearchResult {
+    public static final char MATCH_START = '\u0002'; // Placed before every matched term in the snippet
+    public static final char MATCH_END = '\u0003';   // Placed after every matched term in the snippet
+
+    public final Message message;  // The matching message
+    public final String snippet;   // Excerpt of the message around the matches
+    public final double score;     // Relevance score; higher is more relevant
+
+    /**
+     * Constructor for creating a SearchResult object with specified values.
+     *
+     * @param message The matching message.
+     * @param snippet The highlighted excerpt of the message.
+     * @param score   The relevance score of the match.
+     */
+    public SearchResult(Message message, String snippet, double score) {
+        this.message = message;
+        this.snippet = snippet;
+        this.score = score;
+    }
+}
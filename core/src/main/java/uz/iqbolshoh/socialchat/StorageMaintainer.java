@@ -0,0 +1,96 @@
+package uz.iqbolshoh.socialchat;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the message history within its {@link RetentionPolicy} in the background.
+ * <p>
+ * A run first deletes messages past the retention age, then compresses messages past the
+ * archive age, then returns the freed pages to the file system. Each of these is split into
+ * small steps with a pause in between, so the database is never held for long and foreground
+ * writes are not held up. Runs repeat at the interval of the policy.
+ */
+public class StorageMaintainer {
+
+    private final ArchiveStore store;
+    private final RetentionPolicy policy;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "storage-maintenance");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private volatile boolean stopped;
+
+    /**
+     * Creates a maintainer. Nothing runs until {@link #start} is called.
+     *
+     * @param store  The storage to maintain.
+     * @param policy The ages and step sizes to apply.
+     */
+    public StorageMaintainer(ArchiveStore store, RetentionPolicy policy) {
+        this.store = store;
+        this.policy = policy;
+    }
+
+    /**
+     * Schedules the runs in the background.
+     *
+     * @param initialDelayMs The delay before the first run, e.g. to stay out of the app start.
+     */
+    public void start(long initialDelayMs) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // Tried again at the next interval
+            }
+        }, initialDelayMs, policy.intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs every step that is due on the calling thread.
+     */
+    public void run() {
+        long now = System.currentTimeMillis();
+        if (policy.deleteAfterMs > 0) {
+            // Deleted first, so nothing is compressed only to be deleted right after
+            while (!stopped && store.deleteMessages(now - policy.deleteAfterMs, policy.deleteBatchSize) > 0) {
+                pause();
+            }
+        }
+        if (policy.archiveAfterMs > 0) {
+            while (!stopped && store.archiveMessages(now - policy.archiveAfterMs, policy.blockSize) > 0) {
+                pause();
+            }
+        }
+        int previouslyFree = Integer.MAX_VALUE;
+        int free;
+        while (!stopped && (free = store.vacuum(policy.vacuumPagesPerStep)) > 0 && free < previouslyFree) {
+            previouslyFree = free;
+            pause();
+        }
+    }
+
+    /**
+     * Stops the runs; a step in progress is finished.
+     */
+    public void shutdown() {
+        stopped = true;
+        executor.shutdownNow();
+    }
+
+    private void pause() {
+        if (policy.stepPauseMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(policy.stepPauseMs);
+        } catch (InterruptedException e) {
+            stopped = true; // Shut down while pausing
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package uz.iqbolshoh.socialchat;
+
+/**
+ * Paces outgoing requests on the client side. Each request takes one token; tokens refill
+ * continuously up to a burst capacity, and a caller waits when the bucket is empty.
+ * Shared by all senders, so bursts are spread out before the server has to reject them.
+ */
+public class TokenBucket {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final double capacity;
+    private final double tokensPerNano;
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param capacity        The maximum burst of requests sent without waiting.
+     * @param tokensPerSecond The sustained request rate.
+     */
+    public TokenBucket(double capacity, double tokensPerSecond) {
+        this.capacity = capacity;
+        this.tokensPerNano = tokensPerSecond / NANOS_PER_SECOND;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes one token, waiting until one is available or the request is cancelled.
+     *
+     * @param token Ends the wait early when cancelled.
+     * @return True if a token was taken, false if the request was cancelled while waiting.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public boolean acquire(CancelToken token) throws InterruptedException {
+        while (!token.isCancelled()) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return true;
+                }
+                waitNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+            }
+            token.sleep(Math.max(1, (waitNanos + 999_999) / 1_000_000)); // Wakes up when cancelled
+        }
+        return false;
+    }
+
+    /**
+     * Empties the bucket, e.g. after the server reported a rate limit, so that every
+     * sender slows down instead of only the one that was rejected.
+     */
+    public synchronized void drain() {
+        refill();
+        tokens = Math.min(tokens, 0);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,144 @@
+package uz.iqbolshoh.socialchat;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Counts request and response body bytes twice: as seen by the application (uncompressed) and
+ * as sent over the wire (compressed, if the body was gzipped). The ratio of the two is the
+ * saving from compression.
+ * <p>
+ * Register {@link #contentInterceptor()} as an application interceptor and
+ * {@link #wireInterceptor()} as a network interceptor. Bodies are counted while they stream,
+ * so nothing is buffered.
+ */
+public class TransferStats {
+    private final AtomicLong requestContentBytes = new AtomicLong();
+    private final AtomicLong requestWireBytes = new AtomicLong();
+    private final AtomicLong responseContentBytes = new AtomicLong();
+    private final AtomicLong responseWireBytes = new AtomicLong();
+
+    /**
+     * @return An interceptor that counts bodies before request compression and after response decompression.
+     */
+    public Interceptor contentInterceptor() {
+        return chain -> count(chain, requestContentBytes, responseContentBytes);
+    }
+
+    /**
+     * @return An interceptor that counts bodies as they are written to and read from the socket.
+     */
+    public Interceptor wireInterceptor() {
+        return chain -> count(chain, requestWireBytes, responseWireBytes);
+    }
+
+    /**
+     * @return Uncompressed bytes of all request bodies.
+     */
+    public long getRequestContentBytes() {
+        return requestContentBytes.get();
+    }
+
+    /**
+     * @return Request body bytes sent over the wire.
+     */
+    public long getRequestWireBytes() {
+        return requestWireBytes.get();
+    }
+
+    /**
+     * @return Uncompressed bytes of all response bodies read so far.
+     */
+    public long getResponseContentBytes() {
+        return responseContentBytes.get();
+    }
+
+    /**
+     * @return Response body bytes received over the wire so far.
+     */
+    public long getResponseWireBytes() {
+        return responseWireBytes.get();
+    }
+
+    private static Response count(Interceptor.Chain chain, AtomicLong requestCounter,
+                                  AtomicLong responseCounter) throws IOException {
+        Request request = chain.request();
+        if (request.body() != null) {
+            request = request.newBuilder()
+                    .method(request.method(), new CountingRequestBody(request.body(), requestCounter))
+                    .build();
+        }
+
+        Response response = chain.proceed(request);
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+        ForwardingSource countingSource = new ForwardingSource(body.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    responseCounter.addAndGet(read);
+                }
+                return read;
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(countingSource), body.contentType(), body.contentLength()))
+                .build();
+    }
+
+    /**
+     * Forwards a request body and counts the bytes it writes.
+     */
+    private static class CountingRequestBody extends RequestBody {
+        private final RequestBody delegate;
+        private final AtomicLong counter;
+
+        CountingRequestBody(RequestBody delegate, AtomicLong counter) {
+            this.delegate = delegate;
+            this.counter = counter;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink countingSink = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    counter.addAndGet(byteCount);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush(); // The underlying sink belongs to the caller
+                }
+            });
+            delegate.writeTo(countingSink);
+            countingSink.close(); // Pushes the buffered tail; does nothing if the delegate closed it already
+        }
+    }
+}
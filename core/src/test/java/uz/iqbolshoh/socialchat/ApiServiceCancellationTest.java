@@ -0,0 +1,190 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cancels requests of {@link ApiService} through a {@link CancelToken} and checks that the
+ * socket is closed mid-stream and that no further attempts are made.
+ */
+public class ApiServiceCancellationTest {
+
+    private ServerSocket serverSocket;
+
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+    }
+
+    @Test
+    public void cancellingMidStream_dropsTheConnection() throws Exception {
+        // A raw server that sends one chunk and then keeps the stream open, watching the socket
+        CountDownLatch dropped = new CountDownLatch(1);
+        Thread server = new Thread(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                socket.setSoTimeout(10_000);
+                InputStream in = socket.getInputStream();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                    // Skip the request headers; the body is not needed
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n"
+                        + "Transfer-Encoding: chunked\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                writeChunk(out, "data: {\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hel\"}]}}]}\n\n");
+                // The client closes the socket when it cancels; reads then end
+                while (in.read() >= 0) {
+                    // Discard the rest of the request body
+                }
+                dropped.countDown();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        server.start();
+
+        ApiService apiService = new ApiService(newConfig("http://127.0.0.1:" + serverSocket.getLocalPort() + "/v1beta/models/test"));
+        CancelToken token = new CancelToken();
+        AtomicReference<String> error = new AtomicReference<>();
+        apiService.streamGeminiResponse(ChatContext.of("Hello"), token, new ApiService.StreamCallback() {
+            @Override
+            public void onPartialText(String chunk) {
+                token.cancel(); // Abort after the first chunk, while the server keeps the stream open
+            }
+
+            @Override
+            public void onComplete(String fullText) {
+                fail("Completed after cancelling");
+            }
+
+            @Override
+            public void onError(String message) {
+                error.set(message);
+            }
+        });
+
+        assertEquals("Request cancelled", error.get());
+        assertTrue("The server still has an open connection", dropped.await(3, TimeUnit.SECONDS));
+        server.join(1000);
+    }
+
+    @Test
+    public void cancellingDuringBackoff_stopsRetrying() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "10"));
+            ApiService.Config config = newConfig(server.url("/v1beta/models/test").toString());
+            config.retryMaxDelayMs = 20_000;
+            ApiService apiService = new ApiService(config);
+            CancelToken token = new CancelToken();
+            new Thread(() -> {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+                token.cancel();
+            }).start();
+
+            long start = System.nanoTime();
+            GeminiResult result = apiService.getGeminiResponse(ChatContext.of("Hello"), token);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals("Request cancelled", result.error);
+            assertTrue("Took " + elapsedMs + " ms", elapsedMs < 3000);
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void cancellingWhileRateLimited_sendsNothing() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            server.enqueue(new MockResponse().setBody("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hi\"}]}}]}"));
+            ApiService.Config config = newConfig(server.url("/v1beta/models/test").toString());
+            config.requestBurst = 1;
+            config.requestsPerSecond = 0.1; // The next token is ten seconds away
+            ApiService apiService = new ApiService(config);
+            assertEquals("Hi", apiService.getGeminiResponse("Hello").text);
+            CancelToken token = new CancelToken();
+            new Thread(() -> {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+                token.cancel();
+            }).start();
+
+            long start = System.nanoTime();
+            GeminiResult result = apiService.getGeminiResponse(ChatContext.of("Hello again"), token);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            assertEquals("Request cancelled", result.error);
+            assertTrue("Took " + elapsedMs + " ms", elapsedMs < 5000);
+            assertEquals(1, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelledToken_sendsNothing() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            ApiService apiService = new ApiService(newConfig(server.url("/v1beta/models/test").toString()));
+            CancelToken parent = new CancelToken();
+            CancelToken child = parent.newChild();
+            parent.cancel();
+
+            assertEquals("Request cancelled", apiService.getGeminiResponse(ChatContext.of("Hello"), child).error);
+            assertEquals(0, server.getRequestCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static ApiService.Config newConfig(String modelUrl) {
+        ApiService.Config config = new ApiService.Config();
+        config.modelUrl = modelUrl;
+        config.requestsPerSecond = 100;
+        config.retryBaseDelayMs = 10;
+        return config;
+    }
+
+    private static void writeChunk(OutputStream out, String data) throws Exception {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        out.write((Integer.toHexString(bytes.length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,154 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends prompts through {@link ApiService} to a local stub server and checks that large request
+ * bodies and responses travel gzip-compressed, decode to the original text, and are counted
+ * in {@link TransferStats}.
+ */
+public class ApiServiceCompressionTest {
+
+    private MockWebServer server;
+    private ApiService apiService;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+
+        ApiService.Config config = new ApiService.Config();
+        config.modelUrl = server.url("/v1beta/models/test").toString();
+        config.requestsPerSecond = 100;
+        apiService = new ApiService(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void largeRequestBody_isSentGzippedAndDecodesToTheOriginal() throws Exception {
+        String prompt = repeat("Please compare the weather in Tashkent and Samarkand in spring. ", 200);
+        server.enqueue(new MockResponse().setBody(reply("ok")));
+
+        assertEquals("ok", apiService.getGeminiResponse(prompt).text);
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        String json = gunzip(request.getBody());
+        assertTrue(json.contains(prompt));
+
+        TransferStats stats = apiService.getTransferStats();
+        assertEquals(json.length(), stats.getRequestContentBytes());
+        assertEquals(request.getBodySize(), stats.getRequestWireBytes());
+        assertTrue("Ratio " + ratio(stats.getRequestContentBytes(), stats.getRequestWireBytes()),
+                stats.getRequestWireBytes() * 10 < stats.getRequestContentBytes());
+    }
+
+    @Test
+    public void smallRequestBody_isSentUncompressed() throws Exception {
+        server.enqueue(new MockResponse().setBody(reply("ok")));
+
+        assertEquals("ok", apiService.getGeminiResponse("Hello").text);
+
+        RecordedRequest request = server.takeRequest();
+        assertNull(request.getHeader("Content-Encoding"));
+        assertTrue(request.getBody().readUtf8().contains("Hello"));
+        TransferStats stats = apiService.getTransferStats();
+        assertEquals(stats.getRequestContentBytes(), stats.getRequestWireBytes());
+    }
+
+    @Test
+    public void gzippedResponse_isAdvertisedDecodedAndCounted() throws Exception {
+        String text = repeat("Spring in Tashkent is warm and sunny. ", 300);
+        String json = reply(text);
+        server.enqueue(new MockResponse().setBody(gzip(json)).setHeader("Content-Encoding", "gzip"));
+
+        assertEquals(text, apiService.getGeminiResponse("Hello").text);
+
+        assertEquals("gzip", server.takeRequest().getHeader("Accept-Encoding"));
+        TransferStats stats = apiService.getTransferStats();
+        assertEquals(json.length(), stats.getResponseContentBytes());
+        assertTrue("Ratio " + ratio(stats.getResponseContentBytes(), stats.getResponseWireBytes()),
+                stats.getResponseWireBytes() * 10 < stats.getResponseContentBytes());
+    }
+
+    @Test
+    public void gzippedEventStream_isDecodedChunkByChunk() throws Exception {
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            events.append("data: ").append(reply("part" + i + " ")).append("\n\n");
+        }
+        server.enqueue(new MockResponse().setBody(gzip(events.toString()))
+                .setHeader("Content-Encoding", "gzip")
+                .setHeader("Content-Type", "text/event-stream"));
+
+        StringBuilder received = new StringBuilder();
+        String[] complete = new String[1];
+        apiService.streamGeminiResponse("Hello", new ApiService.StreamCallback() {
+            @Override
+            public void onPartialText(String chunk) {
+                received.append(chunk);
+            }
+
+            @Override
+            public void onComplete(String fullText) {
+                complete[0] = fullText;
+            }
+
+            @Override
+            public void onError(String message) {
+                fail(message);
+            }
+        });
+
+        assertTrue(received.toString().startsWith("part0 part1 "));
+        assertEquals(received.toString(), complete[0]);
+        TransferStats stats = apiService.getTransferStats();
+        assertTrue(stats.getResponseWireBytes() < stats.getResponseContentBytes());
+    }
+
+    private static String reply(String text) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}";
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    private static Buffer gzip(String text) throws IOException {
+        Buffer compressed = new Buffer();
+        try (okio.BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            sink.writeUtf8(text);
+        }
+        return compressed;
+    }
+
+    private static String gunzip(Buffer compressed) throws IOException {
+        return Okio.buffer(new GzipSource(compressed)).readUtf8();
+    }
+
+    private static String ratio(long contentBytes, long wireBytes) {
+        return contentBytes + " / " + wireBytes;
+    }
+}
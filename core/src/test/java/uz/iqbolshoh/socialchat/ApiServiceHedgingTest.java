@@ -0,0 +1,183 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends prompts through {@link ApiService} to two local stub servers, a primary and a fallback
+ * model with different latencies, and checks hedging, fallback and the hedge budget.
+ */
+public class ApiServiceHedgingTest {
+
+    private MockWebServer primary;
+    private MockWebServer secondary;
+    private LatencyRecorder recorder;
+    private ApiService.Config config;
+
+    @Before
+    public void setUp() throws Exception {
+        primary = new MockWebServer();
+        secondary = new MockWebServer();
+        primary.start();
+        secondary.start();
+
+        recorder = new LatencyRecorder(true);
+        config = new ApiService.Config();
+        config.modelUrl = primary.url("/v1beta/models/primary").toString();
+        config.fallbackModelUrl = secondary.url("/v1beta/models/secondary").toString();
+        config.retryBaseDelayMs = 10;
+        config.requestsPerSecond = 100;
+        config.hedgeMinDelayMs = 50;
+        config.hedgeMaxDelayMs = 200;
+        config.hedgeBudget = 1;
+        config.latencyRecorder = recorder;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        primary.shutdown();
+        secondary.shutdown();
+    }
+
+    @Test
+    public void slowPrimary_isHedgedAndTheFasterReplyWins() {
+        primary.enqueue(new MockResponse().setBody(reply("slow")).setHeadersDelay(2, TimeUnit.SECONDS));
+        secondary.enqueue(new MockResponse().setBody(reply("fast")));
+        ApiService apiService = new ApiService(config);
+
+        long start = System.nanoTime();
+        GeminiResult result = apiService.getGeminiResponse("Hello");
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals("fast", result.text);
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs < 1500);
+        assertEquals(1, recorder.getCount(LatencyRecorder.Counter.HEDGES));
+        assertEquals(1, recorder.getCount(LatencyRecorder.Counter.HEDGE_WINS));
+    }
+
+    @Test
+    public void fastPrimary_isNotHedged() throws Exception {
+        primary.enqueue(new MockResponse().setBody(reply("fast")));
+        ApiService apiService = new ApiService(config);
+
+        assertEquals("fast", apiService.getGeminiResponse("Hello").text);
+        Thread.sleep(300); // Longer than the hedge delay
+
+        assertEquals(0, secondary.getRequestCount());
+        assertEquals(0, recorder.getCount(LatencyRecorder.Counter.HEDGES));
+    }
+
+    @Test
+    public void failingPrimary_fallsBackToTheSecondary() {
+        config.maxAttempts = 1;
+        primary.enqueue(new MockResponse().setResponseCode(503));
+        secondary.enqueue(new MockResponse().setBody(reply("fallback")));
+        ApiService apiService = new ApiService(config);
+
+        assertEquals("fallback", apiService.getGeminiResponse("Hello").text);
+        assertEquals(1, recorder.getCount(LatencyRecorder.Counter.FALLBACKS));
+        assertEquals(0, recorder.getCount(LatencyRecorder.Counter.HEDGES));
+    }
+
+    @Test
+    public void rejectedRequests_doNotFallBack() {
+        config.maxAttempts = 1;
+        config.hedgeMaxDelayMs = 10_000; // Only fallbacks, no hedges
+        primary.enqueue(new MockResponse().setResponseCode(400).setBody("bad request"));
+        primary.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "3600"));
+        ApiService apiService = new ApiService(config);
+
+        assertEquals("API error (400): bad request", apiService.getGeminiResponse("Hello").error);
+        assertEquals("Rate limit exceeded. Please try again later.", apiService.getGeminiResponse("Hello").error);
+
+        assertEquals(0, secondary.getRequestCount());
+        assertEquals(0, recorder.getCount(LatencyRecorder.Counter.FALLBACKS));
+    }
+
+    @Test
+    public void fallbacks_countAgainstTheHedgeBudget() {
+        config.maxAttempts = 1;
+        config.circuitFailureThreshold = 100;
+        config.hedgeBudget = 0.5; // One request to the secondary per two requests
+        config.hedgeMaxDelayMs = 10_000;
+        primary.enqueue(new MockResponse().setResponseCode(503));
+        primary.enqueue(new MockResponse().setResponseCode(503));
+        secondary.enqueue(new MockResponse().setBody(reply("fallback")));
+        ApiService apiService = new ApiService(config);
+
+        assertFalse(apiService.getGeminiResponse("First").isSuccess());
+        assertEquals("fallback", apiService.getGeminiResponse("Second").text);
+
+        assertEquals(1, recorder.getCount(LatencyRecorder.Counter.FALLBACKS));
+        assertEquals(1, secondary.getRequestCount());
+    }
+
+    @Test
+    public void hedgeBudget_limitsDuplicates() {
+        config.hedgeBudget = 0.5; // One hedge per two requests
+        for (int i = 0; i < 2; i++) {
+            primary.enqueue(new MockResponse().setBody(reply("slow")).setHeadersDelay(600, TimeUnit.MILLISECONDS));
+        }
+        secondary.enqueue(new MockResponse().setBody(reply("fast")));
+        ApiService apiService = new ApiService(config);
+
+        assertEquals("slow", apiService.getGeminiResponse("First").text);
+        assertEquals("fast", apiService.getGeminiResponse("Second").text);
+
+        assertEquals(1, recorder.getCount(LatencyRecorder.Counter.HEDGES));
+        assertEquals(1, secondary.getRequestCount());
+    }
+
+    @Test
+    public void slowStream_isHedgedUntilTheHeadersArrive() {
+        primary.enqueue(new MockResponse().setBody(sse("slow")).setHeadersDelay(2, TimeUnit.SECONDS));
+        secondary.enqueue(new MockResponse().setBody(sse("fast")));
+        ApiService apiService = new ApiService(config);
+        StringBuilder text = new StringBuilder();
+
+        apiService.streamGeminiResponse("Hello", new ApiService.StreamCallback() {
+            @Override
+            public void onPartialText(String chunk) {
+                text.append(chunk);
+            }
+
+            @Override
+            public void onComplete(String fullText) {}
+
+            @Override
+            public void onError(String message) {
+                fail(message);
+            }
+        });
+
+        assertEquals("fast", text.toString());
+    }
+
+    @Test
+    public void hedgeDelay_followsThePrimaryLatencyPercentile() throws Exception {
+        HedgingRouter router = new HedgingRouter(95, 50, 5000, 0.1, recorder);
+        assertEquals(5000, router.getHedgeDelayMs()); // Unknown latency: wait the longest
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("ok", router.route((isPrimary, token) -> "ok", new CancelToken()));
+        }
+
+        assertEquals(50, router.getHedgeDelayMs()); // Fast primary: clamped to the shortest
+    }
+
+    private static String reply(String text) {
+        return "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}]}}]}";
+    }
+
+    private static String sse(String text) {
+        return "data: " + reply(text) + "\n\n";
+    }
+}
@@ -0,0 +1,172 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.*;
+
+/**
+ * Scripts rate limits, server errors and dropped connections on a local stub server and checks
+ * how {@link ApiService} retries, paces and fails fast.
+ */
+public class ApiServiceResilienceTest {
+    private static final String REPLY =
+            "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hi\"}]}}]}";
+
+    private MockWebServer server;
+    private ApiService.Config config;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+
+        config = new ApiService.Config();
+        config.modelUrl = server.url("/v1beta/models/test").toString();
+        config.retryBaseDelayMs = 10;
+        config.retryMaxDelayMs = 2000;
+        config.requestsPerSecond = 100;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void transientFailures_areRetriedUntilSuccess() {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(502));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        server.enqueue(new MockResponse().setBody(REPLY));
+
+        assertEquals("Hi", new ApiService(config).getGeminiResponse("Hello").text);
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    public void timeouts_areRetried() {
+        config.readTimeoutMs = 200;
+        server.enqueue(new MockResponse().setBody(REPLY).setHeadersDelay(1, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody(REPLY));
+
+        assertEquals("Hi", new ApiService(config).getGeminiResponse("Hello").text);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void clientErrors_areNotRetried() {
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("bad request"));
+
+        GeminiResult result = new ApiService(config).getGeminiResponse("Hello");
+
+        assertEquals("API error (400): bad request", result.error);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void retryAfter_isHonored() {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody(REPLY));
+
+        long start = System.nanoTime();
+        assertEquals("Hi", new ApiService(config).getGeminiResponse("Hello").text);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs >= 1000);
+    }
+
+    @Test
+    public void retryAfterBeyondTheMaximumDelay_failsWithoutWaiting() {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "3600"));
+
+        GeminiResult result = new ApiService(config).getGeminiResponse("Hello");
+
+        assertEquals("Rate limit exceeded. Please try again later.", result.error);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void openCircuit_failsFastWithoutSendingRequests() {
+        config.maxAttempts = 1;
+        config.circuitFailureThreshold = 3;
+        config.circuitOpenMs = 60_000;
+        ApiService apiService = new ApiService(config);
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503));
+            assertFalse(apiService.getGeminiResponse("Hello").isSuccess());
+        }
+
+        GeminiResult result = apiService.getGeminiResponse("Hello");
+
+        assertEquals("Service is temporarily unavailable. Please try again later.", result.error);
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void circuit_closesAgainAfterASuccessfulTrialRequest() throws Exception {
+        config.maxAttempts = 1;
+        config.circuitFailureThreshold = 1;
+        config.circuitOpenMs = 200;
+        ApiService apiService = new ApiService(config);
+        server.enqueue(new MockResponse().setResponseCode(503));
+        assertFalse(apiService.getGeminiResponse("Hello").isSuccess());
+
+        Thread.sleep(250);
+        server.enqueue(new MockResponse().setBody(REPLY));
+        server.enqueue(new MockResponse().setBody(REPLY));
+
+        assertEquals("Hi", apiService.getGeminiResponse("Hello").text);
+        assertEquals("Hi", apiService.getGeminiResponse("Hello again").text);
+    }
+
+    @Test
+    public void circuit_recoversAfterTheTrialRequestIsCancelled() throws Exception {
+        config.maxAttempts = 1;
+        config.circuitFailureThreshold = 1;
+        config.circuitOpenMs = 200;
+        ApiService apiService = new ApiService(config);
+        server.enqueue(new MockResponse().setResponseCode(503));
+        assertFalse(apiService.getGeminiResponse("Hello").isSuccess());
+        server.takeRequest();
+
+        // The trial request gets no response until it is cancelled
+        Thread.sleep(250);
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+        CancelToken token = new CancelToken();
+        Thread trial = new Thread(() -> apiService.getGeminiResponse(ChatContext.of("Hello"), token));
+        trial.start();
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        token.cancel();
+        trial.join(5000);
+
+        server.enqueue(new MockResponse().setBody(REPLY));
+        assertEquals("Hi", apiService.getGeminiResponse("Hello again").text);
+    }
+
+    @Test
+    public void tokenBucket_pacesBurstsBeyondItsCapacity() {
+        config.requestBurst = 2;
+        config.requestsPerSecond = 5;
+        ApiService apiService = new ApiService(config);
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setBody(REPLY));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            assertEquals("Hi", apiService.getGeminiResponse("Hello " + i).text);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Two requests go out at once; the other two wait 200 ms each for a token
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs >= 350);
+    }
+}
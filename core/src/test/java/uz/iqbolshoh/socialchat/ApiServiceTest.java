@@ -0,0 +1,85 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link ApiService} against a local stub server.
+ */
+public class ApiServiceTest {
+    private static final String REPLY = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hi\"}]}}]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private ApiService apiService;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+
+        ApiService.Config config = new ApiService.Config();
+        config.modelUrl = server.url("/v1beta/models/test").toString();
+        config.http2Enabled = false;
+        config.retryBaseDelayMs = 10;
+        config.requestsPerSecond = 100;
+        apiService = new ApiService(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void consecutiveRequests_reuseTheSameConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody(REPLY));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("Hi", apiService.getGeminiResponse("Hello " + i).text);
+        }
+
+        // The sequence number counts requests per connection, so 0, 1, 2 means one socket
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+    }
+
+    @Test
+    public void rateLimitRetry_reusesTheSameConnection() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429));
+        server.enqueue(new MockResponse().setBody(REPLY));
+
+        assertEquals("Hi", apiService.getGeminiResponse("Hello").text);
+
+        assertEquals(0, server.takeRequest().getSequenceNumber());
+        assertEquals(1, server.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void repeatedPrompt_isAnsweredFromTheCacheWithoutARequest() throws Exception {
+        ApiService.Config config = new ApiService.Config();
+        config.modelUrl = server.url("/v1beta/models/test").toString();
+        config.responseCache = new ResponseCache(folder.newFolder(), 8, 1024, 60_000);
+        ApiService cachingService = new ApiService(config);
+        server.enqueue(new MockResponse().setBody(REPLY));
+
+        assertEquals("Hi", cachingService.getGeminiResponse("Hello").text);
+        assertEquals("Hi", cachingService.getGeminiResponse("  hello ").text);
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, config.responseCache.getMemoryHits());
+    }
+}
@@ -0,0 +1,63 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link ArchiveBlock} round-trips message texts, compresses chat text well and
+ * rejects damaged blocks.
+ */
+public class ArchiveBlockTest {
+
+    @Test
+    public void decode_returnsEveryTextById() throws Exception {
+        List<Message> messages = Arrays.asList(
+                new Message(41, "Hello — ✓ 👋", true, 1),
+                new Message(7, null, false, 2),
+                new Message(42, "", false, 3));
+
+        ArchiveBlock block = ArchiveBlock.decode(ArchiveBlock.encode(messages));
+
+        assertEquals(3, block.size());
+        assertEquals(7, block.getId(1));
+        assertEquals("Hello — ✓ 👋", block.getContent(41));
+        assertNull(block.getContent(7));
+        assertEquals("", block.getContent(42));
+        assertNull(block.getContent(99)); // Not in the block
+    }
+
+    @Test
+    public void chatReplies_compressSeveralTimes() throws Exception {
+        List<Message> messages = new ArrayList<>();
+        int rawBytes = 0;
+        for (int i = 0; i < 64; i++) {
+            String text = "Here is what I found about trip number " + i + ": the weather in Tashkent is sunny"
+                    + " and warm during spring, so pack light clothes and plan the visit to Samarkand early.";
+            messages.add(new Message(i + 1, text, i % 2 == 0, i));
+            rawBytes += text.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        byte[] encoded = ArchiveBlock.encode(messages);
+
+        assertTrue("Encoded " + encoded.length + " of " + rawBytes + " bytes", encoded.length * 4 < rawBytes);
+        assertEquals(messages.get(63).content, ArchiveBlock.decode(encoded).getContent(64));
+    }
+
+    @Test
+    public void damagedBlocks_areRejected() {
+        byte[] encoded = ArchiveBlock.encode(Arrays.asList(new Message(1, "Hello there", true, 1)));
+
+        assertThrows(IOException.class, () -> ArchiveBlock.decode(new byte[0]));
+        assertThrows(IOException.class, () -> ArchiveBlock.decode(Arrays.copyOf(encoded, encoded.length / 2)));
+        byte[] newerVersion = encoded.clone();
+        newerVersion[0] = 2;
+        assertThrows(IOException.class, () -> ArchiveBlock.decode(newerVersion));
+    }
+}
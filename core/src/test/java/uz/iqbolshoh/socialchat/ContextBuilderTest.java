@@ -0,0 +1,172 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Grows a conversation in an in-memory history and checks that {@link ContextBuilder} keeps
+ * every request within its budget and folds each message into the summary only once.
+ */
+public class ContextBuilderTest {
+    private static final int MAX_CONTEXT_TOKENS = 400;
+    private static final int MAX_SUMMARY_TOKENS = 100;
+
+    private FakeHistory history;
+    private ContextBuilder builder;
+
+    @Before
+    public void setUp() {
+        history = new FakeHistory();
+        builder = new ContextBuilder(history, MAX_CONTEXT_TOKENS, MAX_SUMMARY_TOKENS, 20);
+    }
+
+    @Test
+    public void shortConversation_isSentVerbatimWithoutSummary() {
+        history.add("Hello there", true);
+        history.add("Hi! How can I help?", false);
+        Message prompt = history.add("Tell me about Tashkent", true);
+
+        ChatContext context = builder.build(prompt);
+
+        assertEquals("", context.summary);
+        assertEquals(3, context.turns.size());
+        assertSame(prompt, context.turns.get(2));
+        assertEquals(0, history.summarySaves);
+    }
+
+    @Test
+    public void growingConversation_staysWithinBudgetAndReadsAFlatNumberOfRows() {
+        int maxTokens = 0;
+        int maxRowsRead = 0;
+        for (int i = 0; i < 2000; i++) {
+            history.add("Question number " + i + " is about the weather in city " + i + ".", true);
+            Message prompt = history.add("Follow-up number " + i + " asks what to pack for the trip.", true);
+
+            history.rowsRead = 0;
+            ChatContext context = builder.build(prompt);
+            maxRowsRead = Math.max(maxRowsRead, history.rowsRead);
+            history.add("Answer number " + i + " says that it will be sunny and warm.", false);
+
+            int tokens = ContextBuilder.estimateTokens(context.summary);
+            for (Message turn : context.turns) {
+                tokens += ContextBuilder.estimateTokens(turn.content) + 4;
+            }
+            maxTokens = Math.max(maxTokens, tokens);
+            assertSame(prompt, context.turns.get(context.turns.size() - 1));
+            assertTrue(ContextBuilder.estimateTokens(context.summary) <= MAX_SUMMARY_TOKENS);
+        }
+
+        assertTrue("Largest context had " + maxTokens + " tokens", maxTokens <= MAX_CONTEXT_TOKENS);
+        // A build reads the verbatim window and at most one page of messages to fold
+        assertTrue("Read " + maxRowsRead + " rows", maxRowsRead <= 20 + 100);
+        assertFalse(history.summary.text.isEmpty());
+        assertTrue(history.summary.throughId > history.messages.size() - 20);
+    }
+
+    @Test
+    public void longHistoryWithoutSummary_isFoldedOnePagePerBuild() {
+        for (int i = 0; i < 10_000; i++) {
+            history.add("Imported message number " + i + " about the trip to Bukhara.", i % 2 == 0);
+        }
+        Message prompt = history.add("What did we decide?", true);
+
+        ChatContext context = builder.build(prompt);
+
+        // The first build reads the verbatim window and a single page to fold
+        assertTrue("Read " + history.rowsRead + " rows", history.rowsRead <= 20 + 100);
+        assertSame(prompt, context.turns.get(context.turns.size() - 1));
+        assertEquals(100, history.summary.throughId);
+
+        // Later builds continue where the previous one stopped
+        history.rowsRead = 0;
+        builder.build(history.add("And after that?", true));
+        assertTrue("Read " + history.rowsRead + " rows", history.rowsRead <= 20 + 100);
+        assertEquals(200, history.summary.throughId);
+    }
+
+    @Test
+    public void oversizedPrompt_isStillSent() {
+        history.add("Earlier message", true);
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longText.append("word ");
+        }
+        Message prompt = history.add(longText.toString(), true);
+
+        ChatContext context = builder.build(prompt);
+
+        assertEquals(1, context.turns.size());
+        assertSame(prompt, context.turns.get(0));
+    }
+
+    @Test
+    public void summarizer_keepsWithinBudgetAndPreservesOrder() {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            messages.add(new Message(i, "We planned the trip to Samarkand on day " + i + ". Fine.", i % 2 == 0, i));
+        }
+
+        String summary = ConversationSummarizer.extend("", messages, 60);
+
+        assertTrue(ContextBuilder.estimateTokens(summary) <= 60);
+        String[] lines = summary.split("\n");
+        int previousDay = -1;
+        for (String line : lines) {
+            int day = Integer.parseInt(line.replaceAll("\\D+", " ").trim().split(" ")[0]);
+            assertTrue(day > previousDay);
+            previousDay = day;
+        }
+    }
+
+    /**
+     * A single conversation kept in a list; ids and timestamps both equal the position plus one.
+     */
+    private static class FakeHistory implements ConversationHistory {
+        final List<Message> messages = new ArrayList<>();
+        ConversationSummary summary = new ConversationSummary();
+        int summarySaves;
+        int rowsRead;
+
+        Message add(String content, boolean isUser) {
+            Message message = new Message(messages.size() + 1, content, isUser, messages.size() + 1);
+            messages.add(message);
+            return message;
+        }
+
+        @Override
+        public List<Message> getMessagesBefore(Message oldest, int limit) {
+            int end = oldest.id - 1;
+            List<Message> page = new ArrayList<>(messages.subList(Math.max(0, end - limit), end));
+            rowsRead += page.size();
+            return page;
+        }
+
+        @Override
+        public List<Message> getMessagesAfter(long conversationId, long timestamp, int id, int limit) {
+            List<Message> page = new ArrayList<>(messages.subList(Math.min(id, messages.size()),
+                    Math.min(id + limit, messages.size())));
+            rowsRead += page.size();
+            return page;
+        }
+
+        @Override
+        public ConversationSummary getConversationSummary(long conversationId) {
+            ConversationSummary copy = new ConversationSummary();
+            copy.text = summary.text;
+            copy.throughTimestamp = summary.throughTimestamp;
+            copy.throughId = summary.throughId;
+            return copy;
+        }
+
+        @Override
+        public void saveConversationSummary(long conversationId, ConversationSummary summary) {
+            this.summary = summary;
+            summarySaves++;
+        }
+    }
+}
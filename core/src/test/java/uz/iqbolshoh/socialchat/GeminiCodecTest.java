@@ -0,0 +1,65 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the streaming request encoder and response decoder of {@link GeminiCodec}.
+ */
+public class GeminiCodecTest {
+
+    @Test
+    public void writeRequest_encodesPromptAndGenerationConfig() throws Exception {
+        StringWriter out = new StringWriter();
+        GeminiCodec.writeRequest(out, "Say \"hi\"\n", 0.7, 512);
+
+        assertEquals("{\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":\"Say \\\"hi\\\"\\n\"}]}],"
+                + "\"generationConfig\":{\"temperature\":0.7,\"maxOutputTokens\":512}}", out.toString());
+    }
+
+    @Test
+    public void writeRequest_sendsSummaryAsInstructionAndMergesConsecutiveTurns() throws Exception {
+        List<Message> turns = Arrays.asList(
+                new Message(1, "a", true, 1), new Message(2, "b", false, 2),
+                new Message(3, "c", true, 3), new Message(4, "d", true, 4));
+        StringWriter out = new StringWriter();
+        GeminiCodec.writeRequest(out, new ChatContext("User: earlier", turns), 0.7, 512);
+
+        assertEquals("{\"systemInstruction\":{\"parts\":[{\"text\":\"Summary of the earlier conversation:\\nUser: earlier\"}]},"
+                + "\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":\"a\"}]},"
+                + "{\"role\":\"model\",\"parts\":[{\"text\":\"b\"}]},"
+                + "{\"role\":\"user\",\"parts\":[{\"text\":\"c\"},{\"text\":\"d\"}]}],"
+                + "\"generationConfig\":{\"temperature\":0.7,\"maxOutputTokens\":512}}", out.toString());
+    }
+
+    @Test
+    public void readResponse_concatenatesPartsOfFirstCandidateAndKeepsNewlines() throws Exception {
+        String json = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"line 1\\n\"},{\"text\":\"line 2\"}],"
+                + "\"role\":\"model\"},\"finishReason\":\"STOP\",\"safetyRatings\":[{\"a\":1}]},"
+                + "{\"content\":{\"parts\":[{\"text\":\"ignored\"}]}}],\"usageMetadata\":{\"totalTokenCount\":9}}";
+
+        GeminiResult result = GeminiCodec.readResponse(new StringReader(json));
+
+        assertTrue(result.isSuccess());
+        assertEquals("line 1\nline 2", result.text);
+    }
+
+    @Test
+    public void readResponse_reportsMissingCandidatesAndParts() throws Exception {
+        assertEquals("Unexpected API response format",
+                GeminiCodec.readResponse(new StringReader("{\"promptFeedback\":{}}")).error);
+        assertEquals("No response parts received",
+                GeminiCodec.readResponse(new StringReader("{\"candidates\":[{\"content\":{\"parts\":[]}}]}")).error);
+    }
+
+    @Test
+    public void readChunkText_returnsEmptyTextForMetadataOnlyChunks() throws Exception {
+        assertEquals("", GeminiCodec.readChunkText(new StringReader(" {\"usageMetadata\":{}}")));
+    }
+}
@@ -0,0 +1,166 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trips a history through {@link HistoryTransfer} between two in-memory stores.
+ */
+public class HistoryTransferTest {
+
+    @Test
+    public void exportThenImport_reproducesEveryConversationAndMessage() throws Exception {
+        FakeStore source = new FakeStore();
+        long work = source.createConversation("Work");
+        for (int i = 0; i < 23; i++) {
+            source.add(Message.DEFAULT_CONVERSATION_ID, "Message " + i, i % 2 == 0, 1000 + i / 2);
+        }
+        source.add(work, "Line one\nline two, \"quoted\" — ✓ 👋", true, 5);
+        source.add(work, null, false, 6);
+        source.add(work, "", false, 6);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        List<Long> exportProgress = new ArrayList<>();
+        long exported = new HistoryTransfer(source, 5, 4).exportTo(file,
+                (messages, bytes) -> exportProgress.add(messages));
+
+        FakeStore target = new FakeStore();
+        target.add(Message.DEFAULT_CONVERSATION_ID, "Already here", true, 1);
+        List<Long> importProgress = new ArrayList<>();
+        long imported = new HistoryTransfer(target, 5, 4).importFrom(new ByteArrayInputStream(file.toByteArray()),
+                (messages, bytes) -> importProgress.add(messages));
+
+        assertEquals(26, exported);
+        assertEquals(26, imported);
+        assertEquals(Long.valueOf(26), exportProgress.get(exportProgress.size() - 1));
+        assertEquals(Long.valueOf(26), importProgress.get(importProgress.size() - 1));
+        assertEquals(7, importProgress.size()); // Six full batches of 4 and the rest
+        assertEquals(4, target.largestBatch);
+
+        assertEquals("Work", target.titles.get(2L));
+        List<Message> restored = target.messagesOf(2);
+        assertEquals(3, restored.size());
+        assertEquals("Line one\nline two, \"quoted\" — ✓ 👋", restored.get(0).content);
+        assertNull(restored.get(1).content);
+        assertEquals("", restored.get(2).content);
+
+        List<Message> chat = target.messagesOf(Message.DEFAULT_CONVERSATION_ID);
+        assertEquals(24, chat.size());
+        for (int i = 0; i < 23; i++) {
+            Message original = source.messagesOf(Message.DEFAULT_CONVERSATION_ID).get(i);
+            Message copy = chat.get(i + 1);
+            assertEquals(original.content, copy.content);
+            assertEquals(original.isUser, copy.isUser);
+            assertEquals(original.timestamp, copy.timestamp);
+            assertNotEquals(0, copy.id);
+        }
+    }
+
+    @Test
+    public void importFrom_rejectsFilesThatAreNotExports() throws Exception {
+        HistoryTransfer transfer = new HistoryTransfer(new FakeStore(), 5, 4);
+
+        assertThrows(IOException.class, () -> transfer.importFrom(
+                new ByteArrayInputStream("plain text".getBytes(StandardCharsets.UTF_8)), null));
+        assertThrows(IOException.class, () -> transfer.importFrom(
+                new ByteArrayInputStream(gzip("{\"type\":\"header\",\"format\":\"other\"}\n")), null));
+        assertThrows(IOException.class, () -> transfer.importFrom(new ByteArrayInputStream(gzip(
+                "{\"type\":\"header\",\"format\":\"socialchat-history\",\"version\":1}\n"
+                        + "{\"type\":\"message\",\"conversation\":9,\"content\":\"Orphan\"}\n")), null));
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static final class FakeStore implements HistoryStore {
+        final Map<Long, String> titles = new LinkedHashMap<>();
+        final List<Message> messages = new ArrayList<>(); // Kept in (conversation, timestamp, id) order
+        int nextId = 1;
+        int largestBatch;
+
+        FakeStore() {
+            titles.put(Message.DEFAULT_CONVERSATION_ID, "Chat");
+        }
+
+        void add(long conversationId, String content, boolean isUser, long timestamp) {
+            Message message = new Message(0, content, isUser, timestamp);
+            message.conversationId = conversationId;
+            addMessages(List.of(message));
+        }
+
+        List<Message> messagesOf(long conversationId) {
+            return getMessagesAfter(conversationId, Long.MIN_VALUE, 0, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public Map<Long, String> getConversationTitles() {
+            return titles;
+        }
+
+        @Override
+        public long createConversation(String title) {
+            long id = titles.size() + 1;
+            titles.put(id, title);
+            return id;
+        }
+
+        @Override
+        public void addMessages(List<Message> batch) {
+            largestBatch = Math.max(largestBatch, batch.size());
+            for (Message message : batch) {
+                // Copies, because the importer reuses its message objects
+                Message copy = new Message(nextId++, message.content, message.isUser, message.timestamp);
+                copy.conversationId = message.conversationId;
+                message.id = copy.id;
+                messages.add(copy);
+            }
+            messages.sort((a, b) -> a.conversationId != b.conversationId
+                    ? Long.compare(a.conversationId, b.conversationId)
+                    : a.timestamp != b.timestamp ? Long.compare(a.timestamp, b.timestamp)
+                    : Integer.compare(a.id, b.id));
+        }
+
+        @Override
+        public List<Message> getMessagesAfter(long conversationId, long timestamp, int id, int limit) {
+            List<Message> page = new ArrayList<>();
+            for (Message message : messages) {
+                if (message.conversationId == conversationId && page.size() < limit
+                        && (message.timestamp > timestamp || message.timestamp == timestamp && message.id > id)) {
+                    page.add(message);
+                }
+            }
+            return page;
+        }
+
+        @Override
+        public List<Message> getMessagesBefore(Message oldest, int limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ConversationSummary getConversationSummary(long conversationId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void saveConversationSummary(long conversationId, ConversationSummary summary) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
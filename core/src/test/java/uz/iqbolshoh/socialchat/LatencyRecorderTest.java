@@ -0,0 +1,88 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Test;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the percentile estimates of {@link LatencyHistogram}, that a disabled
+ * {@link LatencyRecorder} records nothing, and that {@link ApiService} feeds it the phases
+ * and counters of a retried request.
+ */
+public class LatencyRecorderTest {
+
+    @Test
+    public void percentiles_areWithinTheBucketResolution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10000; micros++) {
+            histogram.record(micros);
+        }
+
+        assertEquals(10000, histogram.getCount());
+        assertEquals(10000, histogram.getMaxMicros());
+        assertEquals(5000, histogram.getPercentileMicros(50), 5000 * 0.125);
+        assertEquals(9500, histogram.getPercentileMicros(95), 9500 * 0.125);
+        assertEquals(9900, histogram.getPercentileMicros(99), 9900 * 0.125);
+        assertEquals(10000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        histogram.record(7);
+
+        assertEquals(3, histogram.getPercentileMicros(50));
+        assertEquals(7, histogram.getPercentileMicros(99));
+        assertEquals(5, histogram.getMeanMicros());
+    }
+
+    @Test
+    public void disabledRecorder_recordsNothing() {
+        LatencyRecorder recorder = new LatencyRecorder(false);
+
+        long start = recorder.start();
+        recorder.stop(LatencyRecorder.Stage.PARSE, start);
+        recorder.record(LatencyRecorder.Stage.DB_INSERT, 1000000);
+        recorder.increment(LatencyRecorder.Counter.REQUESTS);
+
+        assertEquals(0, start);
+        assertEquals(0, recorder.getHistogram(LatencyRecorder.Stage.PARSE).getCount());
+        assertEquals(0, recorder.getHistogram(LatencyRecorder.Stage.DB_INSERT).getCount());
+        assertEquals(0, recorder.getCount(LatencyRecorder.Counter.REQUESTS));
+    }
+
+    @Test
+    public void retriedRequest_recordsPhasesAndCounters() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        try {
+            LatencyRecorder recorder = new LatencyRecorder(true);
+            ApiService.Config config = new ApiService.Config();
+            config.modelUrl = server.url("/v1beta/models/test").toString();
+            config.retryBaseDelayMs = 10;
+            config.requestsPerSecond = 100;
+            config.latencyRecorder = recorder;
+            ApiService apiService = new ApiService(config);
+            server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "0"));
+            server.enqueue(new MockResponse().setBody(
+                    "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hi\"}]}}]}"));
+
+            assertEquals("Hi", apiService.getGeminiResponse("Hello").text);
+
+            assertEquals(2, recorder.getCount(LatencyRecorder.Counter.REQUESTS));
+            assertEquals(1, recorder.getCount(LatencyRecorder.Counter.RETRIES));
+            assertEquals(1, recorder.getCount(LatencyRecorder.Counter.RATE_LIMITED));
+            assertEquals(1, recorder.getHistogram(LatencyRecorder.Stage.CONNECT).getCount()); // Pooled on retry
+            assertEquals(2, recorder.getHistogram(LatencyRecorder.Stage.TIME_TO_FIRST_BYTE).getCount());
+            assertEquals(1, recorder.getHistogram(LatencyRecorder.Stage.PARSE).getCount());
+            assertEquals(1, recorder.getHistogram(LatencyRecorder.Stage.REQUEST_TOTAL).getCount());
+            assertTrue(recorder.report().contains("429 rate: 50.0%"));
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link MarkdownParser} strips the markup of typical Gemini replies and reports
+ * the style ranges over the remaining text.
+ */
+public class MarkdownParserTest {
+
+    @Test
+    public void inlineMarkup_isRemovedAndStyled() {
+        MarkdownText result = MarkdownParser.parse("Use **bold**, *italic* and `code` in [docs](https://x.uz).");
+
+        assertEquals("Use bold, italic and code in docs.", result.text);
+        assertSpan(result, 0, MarkdownText.Style.BOLD, "bold");
+        assertSpan(result, 1, MarkdownText.Style.ITALIC, "italic");
+        assertSpan(result, 2, MarkdownText.Style.CODE, "code");
+        assertSpan(result, 3, MarkdownText.Style.LINK, "docs");
+        assertEquals("https://x.uz", result.spans.get(3).url);
+    }
+
+    @Test
+    public void nestedEmphasis_listsOuterRangeFirst() {
+        MarkdownText result = MarkdownParser.parse("**very *important* note**");
+
+        assertEquals("very important note", result.text);
+        assertSpan(result, 0, MarkdownText.Style.BOLD, "very important note");
+        assertSpan(result, 1, MarkdownText.Style.ITALIC, "important");
+    }
+
+    @Test
+    public void blocks_areStyledPerLine() {
+        MarkdownText result = MarkdownParser.parse("## Steps\n- first\n- second\n> quoted");
+
+        assertEquals("Steps\n• first\n• second\nquoted", result.text);
+        assertSpan(result, 0, MarkdownText.Style.HEADING, "Steps");
+        assertEquals(2, result.spans.get(0).level);
+        assertSpan(result, 1, MarkdownText.Style.BULLET, "• first");
+        assertSpan(result, 2, MarkdownText.Style.BULLET, "• second");
+        assertSpan(result, 3, MarkdownText.Style.QUOTE, "quoted");
+    }
+
+    @Test
+    public void codeBlock_isVerbatimWithoutFences() {
+        MarkdownText result = MarkdownParser.parse("Example:\n```java\nint a_b = 2 * 3; // **no**\n```\nDone");
+
+        assertEquals("Example:\nint a_b = 2 * 3; // **no**\nDone", result.text);
+        assertEquals(1, result.spans.size());
+        assertSpan(result, 0, MarkdownText.Style.CODE_BLOCK, "int a_b = 2 * 3; // **no**");
+    }
+
+    @Test
+    public void unterminatedMarkup_staysLiteralAndOpenCodeBlockRunsToTheEnd() {
+        assertEquals("2 * 3 and snake_case_name and **open", MarkdownParser.parse("2 * 3 and snake_case_name and **open").text);
+        assertTrue(MarkdownParser.parse("2 * 3 and snake_case_name and **open").spans.isEmpty());
+
+        MarkdownText streaming = MarkdownParser.parse("```\nfor (;;) {");
+        assertEquals("for (;;) {", streaming.text);
+        assertSpan(streaming, 0, MarkdownText.Style.CODE_BLOCK, "for (;;) {");
+    }
+
+    private static void assertSpan(MarkdownText result, int index, MarkdownText.Style style, String text) {
+        MarkdownText.Span span = result.spans.get(index);
+        assertEquals(style, span.style);
+        assertEquals(text, result.text.substring(span.start, span.end));
+    }
+}
@@ -0,0 +1,139 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends scripted bursts of messages through {@link MessageCoalescer} to a local stub server and
+ * counts the requests.
+ */
+public class MessageCoalescerTest {
+    private static final String REPLY = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Hi\"}]}}]}";
+
+    private MockWebServer server;
+    private ApiService apiService;
+    private final BlockingQueue<List<Message>> answered = new LinkedBlockingQueue<>();
+    private final BlockingQueue<GeminiResult> results = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.start();
+
+        ApiService.Config config = new ApiService.Config();
+        config.modelUrl = server.url("/v1beta/models/test").toString();
+        config.http2Enabled = false;
+        config.requestsPerSecond = 100;
+        apiService = new ApiService(config);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void burstsOfEachConversation_areSentAsOneMultiPartRequest() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody(REPLY));
+        }
+        MessageCoalescer<Message> coalescer = new MessageCoalescer<>(200, 2000, 8, this::send);
+
+        // Five quick messages in two conversations, then a second burst after the first reply
+        coalescer.add(1, userMessage(1, "Hi"));
+        coalescer.add(1, userMessage(1, "I need a recipe"));
+        coalescer.add(2, userMessage(2, "What time is it in Tokyo?"));
+        coalescer.add(1, userMessage(1, "for plov"));
+        List<Message> first = answered.poll(5, TimeUnit.SECONDS);
+        List<Message> second = answered.poll(5, TimeUnit.SECONDS);
+        coalescer.add(1, userMessage(1, "Thanks!"));
+        List<Message> third = answered.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals(3, results.size());
+        for (GeminiResult result : results) {
+            assertTrue(result.error, result.isSuccess());
+        }
+        assertEquals(4, first.size() + second.size());
+        assertEquals(1, third.size());
+        assertNull(answered.poll(300, TimeUnit.MILLISECONDS));
+
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            RecordedRequest request = server.takeRequest();
+            bodies.add(request.getBody().readUtf8());
+        }
+        assertTrue(bodies.contains("{\"contents\":[{\"role\":\"user\",\"parts\":[{\"text\":\"Hi\"},"
+                + "{\"text\":\"I need a recipe\"},{\"text\":\"for plov\"}]}],"
+                + "\"generationConfig\":{\"temperature\":0.7,\"maxOutputTokens\":512}}"));
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void fullBursts_areHandedOnRightAway_andShutdownReturnsTheRest() throws Exception {
+        MessageCoalescer<String> coalescer = new MessageCoalescer<>(10_000, 10_000, 3,
+                (conversationId, burst) -> answered.add(Collections.singletonList(userMessage(conversationId,
+                        String.join(" ", burst)))));
+
+        for (String word : new String[]{"one", "two", "three", "four"}) {
+            coalescer.add(1, word);
+        }
+
+        List<Message> full = answered.poll(5, TimeUnit.SECONDS);
+        assertEquals("one two three", full.get(0).content);
+        assertEquals(Collections.singletonList("four"), coalescer.shutdown());
+        assertThrows(IllegalStateException.class, () -> coalescer.add(1, "five"));
+    }
+
+    @Test
+    public void steadyStream_isHandedOnAfterTheMaximumDelay() throws Exception {
+        BlockingQueue<Long> handedOnAt = new LinkedBlockingQueue<>();
+        MessageCoalescer<String> coalescer = new MessageCoalescer<>(200, 300, 100,
+                (conversationId, burst) -> {
+                    handedOnAt.add(System.nanoTime());
+                    answered.add(new ArrayList<>());
+                });
+
+        // A message every 50 ms never leaves a quiet window of 200 ms
+        long start = System.nanoTime();
+        int added = 0;
+        while (added < 100 && answered.isEmpty()) {
+            coalescer.add(1, "message " + added++);
+            Thread.sleep(50);
+        }
+
+        Long deliveredAt = handedOnAt.poll(5, TimeUnit.SECONDS);
+        assertNotNull(deliveredAt);
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(deliveredAt - start);
+        assertTrue("Handed on after " + waitedMs + " ms", waitedMs >= 300);
+        assertTrue("Only handed on after all " + added + " messages", added < 100);
+        coalescer.shutdown();
+    }
+
+    private void send(long conversationId, List<Message> burst) {
+        // Only the burst is sent here; in the app it is the tail of the stored history
+        // Checked on the test thread; a failed assertion here would only stop the coalescer thread
+        results.add(apiService.getGeminiResponse(new ChatContext("", burst)));
+        answered.add(burst);
+    }
+
+    private static Message userMessage(long conversationId, String text) {
+        Message message = new Message(0, text, true, System.currentTimeMillis());
+        message.conversationId = conversationId;
+        return message;
+    }
+}
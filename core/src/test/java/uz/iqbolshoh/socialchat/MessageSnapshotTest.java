@@ -0,0 +1,59 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link MessageSnapshot} round-trips the newest messages and ignores files it
+ * cannot trust.
+ */
+public class MessageSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_keepsTheNewestMessagesInOrder() throws Exception {
+        File file = new File(folder.getRoot(), "snapshot.bin");
+        List<Message> messages = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            messages.add(new Message(i, "Message " + i + " — ✓", i % 2 == 1, 1000 + i));
+        }
+
+        assertTrue(MessageSnapshot.write(file, 7, messages, 20));
+        List<Message> read = MessageSnapshot.read(file, 7);
+
+        assertEquals(20, read.size());
+        assertEquals(11, read.get(0).id);
+        assertEquals(30, read.get(19).id);
+        assertEquals("Message 30 — ✓", read.get(19).content);
+        assertEquals(1030, read.get(19).timestamp);
+        assertFalse(read.get(19).isUser);
+        assertEquals(7, read.get(19).conversationId);
+        assertFalse(new File(folder.getRoot(), "snapshot.bin.tmp").exists());
+    }
+
+    @Test
+    public void otherConversationsAndDamagedFiles_yieldNothing() throws Exception {
+        File file = new File(folder.getRoot(), "snapshot.bin");
+        List<Message> messages = new ArrayList<>();
+        messages.add(new Message(1, "Hello", true, 1));
+        MessageSnapshot.write(file, 1, messages, 20);
+
+        assertTrue(MessageSnapshot.read(file, 2).isEmpty());
+        assertTrue(MessageSnapshot.read(new File(folder.getRoot(), "missing.bin"), 1).isEmpty());
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0x53, 0x4E, 0x41}); // Truncated header
+        }
+        assertTrue(MessageSnapshot.read(file, 1).isEmpty());
+    }
+}
@@ -0,0 +1,286 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drains an in-memory outbox through {@link ApiService} against a local stub server.
+ * The server fails the first {@code failuresLeft} requests with a 503.
+ */
+public class OutboxDrainerTest {
+    private static final int MAX_CONCURRENT = 2;
+
+    private MockWebServer server;
+    private FakeOutbox outbox;
+    private OutboxDrainer drainer;
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicInteger crashesLeft = new AtomicInteger(); // Sends that throw instead of answering
+    private final AtomicInteger cancelsLeft = new AtomicInteger(); // Sends cancelled before they go out
+    private final AtomicInteger concurrent = new AtomicInteger();
+    private final AtomicInteger maxConcurrent = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+                Thread.sleep(50);
+                concurrent.decrementAndGet();
+                if (failuresLeft.getAndDecrement() > 0) {
+                    return new MockResponse().setResponseCode(503);
+                }
+                return new MockResponse().setBody("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"ok\"}]}}]}");
+            }
+        });
+        server.start();
+
+        ApiService.Config config = new ApiService.Config();
+        config.modelUrl = server.url("/v1beta/models/test").toString();
+        config.maxAttempts = 1; // Retrying is left to the outbox
+        config.requestsPerSecond = 1000;
+        config.requestBurst = 100;
+        config.circuitFailureThreshold = 100;
+        ApiService apiService = new ApiService(config);
+
+        outbox = new FakeOutbox();
+        drainer = new OutboxDrainer(outbox,
+                (item, token) -> {
+                    if (crashesLeft.getAndDecrement() > 0) {
+                        throw new IllegalStateException("Sender crashed");
+                    }
+                    if (cancelsLeft.getAndDecrement() > 0) {
+                        drainer.cancelInFlight(); // As if the chat was cleared while sending
+                    }
+                    return apiService.getGeminiResponse(ChatContext.of(item.prompt.content), token);
+                },
+                MAX_CONCURRENT, 3, 3, 50, 200);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        drainer.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void queuedMessages_areAnsweredInBatchesWithBoundedConcurrency() {
+        for (int i = 0; i < 7; i++) {
+            outbox.addPending("Message " + i);
+        }
+
+        assertEquals(7, drainer.drain());
+
+        assertEquals(7, outbox.replies.size());
+        assertTrue(outbox.items.isEmpty());
+        assertEquals(7, server.getRequestCount());
+        assertTrue("Max concurrency " + maxConcurrent.get(), maxConcurrent.get() <= MAX_CONCURRENT);
+    }
+
+    @Test
+    public void failedMessages_areRetriedAfterABackoff() throws Exception {
+        CountDownLatch saved = new CountDownLatch(1);
+        drainer.setListener(new RecordingListener(saved, null));
+        failuresLeft.set(1);
+        outbox.addPending("Hello");
+
+        assertEquals(0, drainer.drain());
+        assertEquals(1, outbox.items.get(0).attempts);
+
+        // The drainer schedules the next drain for when the entry is due
+        assertTrue(saved.await(5, TimeUnit.SECONDS));
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, outbox.replies.size());
+    }
+
+    @Test
+    public void crashedSends_areRetriedAfterABackoff() throws Exception {
+        CountDownLatch saved = new CountDownLatch(1);
+        drainer.setListener(new RecordingListener(saved, null));
+        crashesLeft.set(1);
+        outbox.addPending("Hello");
+
+        assertEquals(0, drainer.drain());
+        assertEquals(OutboxItem.STATUS_PENDING, outbox.status.get(0).intValue());
+        assertEquals(1, outbox.items.get(0).attempts);
+
+        assertTrue(saved.await(5, TimeUnit.SECONDS));
+        assertEquals(1, outbox.replies.size());
+    }
+
+    @Test
+    public void messages_areGivenUpAfterTheMaximumAttempts() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        drainer.setListener(new RecordingListener(null, failed));
+        failuresLeft.set(100);
+        outbox.addPending("Hello");
+
+        drainer.drain();
+
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals(3, server.getRequestCount());
+        assertEquals(OutboxItem.STATUS_FAILED, outbox.status.get(0).intValue());
+    }
+
+    @Test
+    public void cancelledSends_doNotUseUpAttempts() throws Exception {
+        CountDownLatch failed = new CountDownLatch(1);
+        drainer.setListener(new RecordingListener(null, failed));
+        cancelsLeft.set(5); // More cancellations than attempts
+        failuresLeft.set(100);
+        outbox.addPending("Hello");
+
+        drainer.drain();
+
+        assertTrue(failed.await(10, TimeUnit.SECONDS));
+        assertEquals(3, server.getRequestCount());
+        assertEquals(5, outbox.requeues.get());
+        assertEquals(OutboxItem.STATUS_FAILED, outbox.status.get(0).intValue());
+    }
+
+    @Test
+    public void nothingIsSentWhileOffline() throws Exception {
+        CountDownLatch saved = new CountDownLatch(1);
+        drainer.setListener(new RecordingListener(saved, null));
+        outbox.addPending("Hello");
+
+        drainer.setOnline(false);
+        assertEquals(0, drainer.drain());
+        assertEquals(0, server.getRequestCount());
+
+        drainer.setOnline(true);
+        assertTrue(saved.await(5, TimeUnit.SECONDS));
+        assertEquals(1, outbox.replies.size());
+    }
+
+    private static class RecordingListener implements OutboxDrainer.Listener {
+        private final CountDownLatch saved;
+        private final CountDownLatch failed;
+
+        RecordingListener(CountDownLatch saved, CountDownLatch failed) {
+            this.saved = saved;
+            this.failed = failed;
+        }
+
+        @Override
+        public void onReplySaved(OutboxItem item, Message reply) {
+            if (saved != null) {
+                saved.countDown();
+            }
+        }
+
+        @Override
+        public void onFailed(OutboxItem item, String error) {
+            if (failed != null) {
+                failed.countDown();
+            }
+        }
+    }
+
+    /**
+     * An outbox kept in lists; the status of items.get(i) is status.get(i).
+     */
+    private static class FakeOutbox implements OutboxStore {
+        final List<OutboxItem> items = new ArrayList<>();
+        final List<Integer> status = new ArrayList<>();
+        final List<Long> nextAttemptAt = new ArrayList<>();
+        final List<Message> replies = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger requeues = new AtomicInteger();
+
+        synchronized void addPending(String content) {
+            Message prompt = new Message();
+            prompt.content = content;
+            prompt.isUser = true;
+            OutboxItem item = new OutboxItem();
+            item.id = items.size() + 1;
+            item.idempotencyKey = "key-" + item.id;
+            item.prompt = prompt;
+            items.add(item);
+            status.add(OutboxItem.STATUS_PENDING);
+            nextAttemptAt.add(0L);
+        }
+
+        @Override
+        public synchronized OutboxItem enqueue(Message prompt) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public synchronized List<OutboxItem> claim(int limit, long now) {
+            List<OutboxItem> claimed = new ArrayList<>();
+            for (int i = 0; i < items.size() && claimed.size() < limit; i++) {
+                if (status.get(i) == OutboxItem.STATUS_PENDING && nextAttemptAt.get(i) <= now) {
+                    status.set(i, OutboxItem.STATUS_IN_FLIGHT);
+                    claimed.add(items.get(i));
+                }
+            }
+            return claimed;
+        }
+
+        @Override
+        public synchronized boolean complete(OutboxItem item, Message reply) {
+            int index = items.indexOf(item);
+            if (index < 0) {
+                return false;
+            }
+            items.remove(index);
+            status.remove(index);
+            nextAttemptAt.remove(index);
+            replies.add(reply);
+            return true;
+        }
+
+        @Override
+        public synchronized boolean complete(List<OutboxItem> completed, Message reply) {
+            throw new UnsupportedOperationException(); // The drainer answers entries one by one
+        }
+
+        @Override
+        public synchronized void release(OutboxItem item, String error, long nextAttempt) {
+            int index = items.indexOf(item);
+            item.attempts++;
+            status.set(index, OutboxItem.STATUS_PENDING);
+            nextAttemptAt.set(index, nextAttempt);
+        }
+
+        @Override
+        public synchronized void requeue(OutboxItem item, String error, long nextAttempt) {
+            int index = items.indexOf(item);
+            requeues.incrementAndGet();
+            status.set(index, OutboxItem.STATUS_PENDING);
+            nextAttemptAt.set(index, nextAttempt);
+        }
+
+        @Override
+        public synchronized void fail(OutboxItem item, String error) {
+            status.set(items.indexOf(item), OutboxItem.STATUS_FAILED);
+        }
+
+        @Override
+        public synchronized long getNextAttemptAt() {
+            long next = -1;
+            for (int i = 0; i < items.size(); i++) {
+                if (status.get(i) == OutboxItem.STATUS_PENDING && (next < 0 || nextAttemptAt.get(i) < next)) {
+                    next = nextAttemptAt.get(i);
+                }
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link RequestScheduler} against a local stub server with injected latency.
+ * A prompt of the form "sleep:&lt;ms&gt;:&lt;tag&gt;" makes the server wait that long and echo the tag.
+ */
+public class RequestSchedulerTest {
+    private static final long LATENCY_MS = 300;
+
+    private MockWebServer server;
+    private ApiService apiService;
+    private RequestScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                String body = request.getBody().readUtf8();
+                String prompt = body.substring(body.indexOf("sleep:"), body.indexOf('"', body.indexOf("sleep:")));
+                String[] parts = prompt.split(":");
+                Thread.sleep(Long.parseLong(parts[1]));
+                return new MockResponse().setBody(
+                        "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + parts[2] + "\"}]}}]}");
+            }
+        });
+        server.start();
+
+        ApiService.Config config = new ApiService.Config();
+        config.modelUrl = server.url("/v1beta/models/test").toString();
+        config.requestBurst = 16;
+        apiService = new ApiService(config);
+        scheduler = new RequestScheduler(4);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void independentRequests_runInParallel() throws Exception {
+        List<CompletableFuture<GeminiResult>> replies = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < 8; i++) {
+            String prompt = "sleep:" + LATENCY_MS + ":r" + i;
+            replies.add(scheduler.submit(i, prompt, () -> apiService.getGeminiResponse(prompt)));
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals("r" + i, replies.get(i).get(10, TimeUnit.SECONDS).text);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Serial execution would need 8 x 300 ms; four workers need about 2 x 300 ms
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs < 5 * LATENCY_MS);
+    }
+
+    @Test
+    public void repliesOfOneConversation_areDeliveredInSubmissionOrder() throws Exception {
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        long[] latencies = {600, 50, 300, 10};
+        List<CompletableFuture<GeminiResult>> replies = new ArrayList<>();
+        for (int i = 0; i < latencies.length; i++) {
+            String prompt = "sleep:" + latencies[i] + ":r" + i;
+            CompletableFuture<GeminiResult> reply =
+                    scheduler.submit(1, prompt, () -> apiService.getGeminiResponse(prompt));
+            reply.thenAccept(result -> delivered.add(result.text));
+            replies.add(reply);
+        }
+
+        replies.get(latencies.length - 1).get(10, TimeUnit.SECONDS);
+
+        assertEquals(List.of("r0", "r1", "r2", "r3"), delivered);
+    }
+
+    @Test
+    public void identicalInFlightPrompts_shareOneRequest() throws Exception {
+        String prompt = "sleep:200:same";
+        CompletableFuture<GeminiResult> first = scheduler.submit(1, prompt, () -> apiService.getGeminiResponse(prompt));
+        CompletableFuture<GeminiResult> second = scheduler.submit(1, prompt, () -> apiService.getGeminiResponse(prompt));
+
+        assertSame(first, second);
+        assertEquals("same", second.get(10, TimeUnit.SECONDS).text);
+        assertEquals(1, server.getRequestCount());
+
+        // Once the first request has completed, the same prompt is sent again
+        scheduler.submit(1, prompt, () -> apiService.getGeminiResponse(prompt)).get(10, TimeUnit.SECONDS);
+        assertEquals(2, server.getRequestCount());
+    }
+}
@@ -0,0 +1,81 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the memory and disk tiers of {@link ResponseCache}.
+ */
+public class ResponseCacheTest {
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void key_ignoresCaseAndWhitespaceButNotGenerationConfig() {
+        String key = ResponseCache.key("What is  Java?", 0.7, 512);
+
+        assertEquals(key, ResponseCache.key("  what is\njava? ", 0.7, 512));
+        assertNotEquals(key, ResponseCache.key("What is Java?", 0.2, 512));
+        assertNotEquals(key, ResponseCache.key("What is Java?", 0.7, 256));
+    }
+
+    @Test
+    public void get_countsMemoryHitsDiskHitsAndMisses() throws Exception {
+        ResponseCache cache = new ResponseCache(folder.newFolder(), 1, 1024, HOUR_MS);
+        cache.put("a", "reply a");
+        cache.put("b", "reply b"); // Evicts "a" from memory, not from disk
+
+        assertEquals("reply b", cache.get("b"));
+        assertEquals("reply a", cache.get("a"));
+        assertNull(cache.get("c"));
+
+        assertEquals(1, cache.getMemoryHits());
+        assertEquals(1, cache.getDiskHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void diskTier_survivesANewCacheInstance() throws Exception {
+        File directory = folder.newFolder();
+        new ResponseCache(directory, 4, 1024, HOUR_MS).put("a", "reply a");
+
+        ResponseCache reopened = new ResponseCache(directory, 4, 1024, HOUR_MS);
+
+        assertEquals("reply a", reopened.get("a"));
+        assertEquals(1, reopened.getDiskHits());
+    }
+
+    @Test
+    public void expiredEntries_areMissesAndDeleted() throws Exception {
+        File directory = folder.newFolder();
+        new ResponseCache(directory, 4, 1024, HOUR_MS).put("a", "reply a");
+        File file = new File(directory, "a");
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 2 * HOUR_MS));
+
+        ResponseCache reopened = new ResponseCache(directory, 4, 1024, HOUR_MS);
+
+        assertNull(reopened.get("a"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void diskTier_evictsLeastRecentlyUsedEntriesOverBudget() throws Exception {
+        File directory = folder.newFolder();
+        ResponseCache cache = new ResponseCache(directory, 1, 25, HOUR_MS);
+        cache.put("a", "0123456789");
+        cache.put("b", "0123456789");
+        cache.get("a"); // "a" is now more recently used than "b"
+        cache.put("c", "0123456789");
+
+        assertTrue(new File(directory, "a").exists());
+        assertFalse(new File(directory, "b").exists());
+        assertTrue(new File(directory, "c").exists());
+    }
+}
@@ -0,0 +1,103 @@
+package uz.iqbolshoh.socialchat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link StorageMaintainer} against an in-memory store and checks which steps it takes.
+ */
+public class StorageMaintainerTest {
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void run_deletesThenArchivesThenVacuums_untilNothingIsLeft() {
+        FakeStore store = new FakeStore(500, 200, 1000);
+        RetentionPolicy policy = newPolicy();
+        policy.deleteAfterMs = 365 * DAY_MS;
+
+        long before = System.currentTimeMillis();
+        new StorageMaintainer(store, policy).run();
+
+        assertEquals(0, store.dueForDeletion);
+        assertEquals(200 % 64, store.dueForArchive); // Less than a block stays uncompressed
+        assertEquals(0, store.freePages);
+        assertEquals("delete", store.steps.get(0));
+        assertEquals("vacuum", store.steps.get(store.steps.size() - 1));
+        assertEquals(store.steps.lastIndexOf("delete") + 1, store.steps.indexOf("archive"));
+        assertTrue(store.lastArchiveCutoff <= System.currentTimeMillis() - policy.archiveAfterMs);
+        assertTrue(store.lastArchiveCutoff >= before - policy.archiveAfterMs);
+    }
+
+    @Test
+    public void run_skipsDisabledSteps_andStopsWhenVacuumMakesNoProgress() {
+        FakeStore store = new FakeStore(500, 200, 1000);
+        store.vacuumStuck = true;
+        RetentionPolicy policy = newPolicy();
+        policy.archiveAfterMs = 0;
+
+        new StorageMaintainer(store, policy).run();
+
+        assertEquals(500, store.dueForDeletion); // Kept forever by default
+        assertEquals(200, store.dueForArchive);
+        assertFalse(store.steps.contains("delete"));
+        assertFalse(store.steps.contains("archive"));
+        assertEquals(2, store.steps.size()); // The second vacuum step freed nothing
+    }
+
+    private static RetentionPolicy newPolicy() {
+        RetentionPolicy policy = new RetentionPolicy();
+        policy.stepPauseMs = 0;
+        policy.blockSize = 64;
+        policy.deleteBatchSize = 100;
+        policy.vacuumPagesPerStep = 300;
+        return policy;
+    }
+
+    private static final class FakeStore implements ArchiveStore {
+        final List<String> steps = new ArrayList<>();
+        int dueForDeletion;
+        int dueForArchive;
+        int freePages;
+        boolean vacuumStuck;
+        long lastArchiveCutoff;
+
+        FakeStore(int dueForDeletion, int dueForArchive, int freePages) {
+            this.dueForDeletion = dueForDeletion;
+            this.dueForArchive = dueForArchive;
+            this.freePages = freePages;
+        }
+
+        @Override
+        public int archiveMessages(long sentBefore, int blockSize) {
+            steps.add("archive");
+            lastArchiveCutoff = sentBefore;
+            if (dueForArchive < blockSize) {
+                return 0; // Only full blocks are compressed
+            }
+            dueForArchive -= blockSize;
+            return blockSize;
+        }
+
+        @Override
+        public int deleteMessages(long sentBefore, int limit) {
+            steps.add("delete");
+            int deleted = Math.min(limit, dueForDeletion);
+            dueForDeletion -= deleted;
+            return deleted;
+        }
+
+        @Override
+        public int vacuum(int maxPages) {
+            steps.add("vacuum");
+            if (!vacuumStuck) {
+                freePages -= Math.min(maxPages, freePages);
+            }
+            return freePages;
+        }
+    }
+}